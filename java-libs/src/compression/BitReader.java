@@ -0,0 +1,88 @@
+package compression;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// reads most significant bit first symbols of 1 to 64 bits from a byte buffer, refilling 64 bits at a time.
+
+public class BitReader
+{
+	public ByteBuffer buffer;
+	
+	public int position;
+	public int limit;
+	
+	// valid bits are kept at the top of bitBuffer
+	public long bitBuffer;
+	public int bitCount;
+	
+	public BitReader(ByteBuffer buffer)
+	{
+		this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		
+		this.position = buffer.position();
+		this.limit = buffer.limit();
+		
+		this.bitBuffer = 0;
+		this.bitCount = 0;
+	}
+	
+	public long remainingBits()
+	{
+		return ((long)(limit - position) * 8) + bitCount;
+	}
+	
+	// after a refill at least 57 bits are available, unless the buffer is exhausted
+	
+	public void refill()
+	{
+		if (position + Long.BYTES <= limit)
+		{
+			// bits past bitCount + 8 * bytes are loaded again on the next refill, so they are harmless
+			bitBuffer |= buffer.getLong(position) >>> bitCount;
+			
+			int bytes = (63 - bitCount) >>> 3;
+			position += bytes;
+			bitCount += bytes * 8;
+		}
+		else
+		{
+			while ((bitCount <= 56) && (position < limit))
+			{
+				bitBuffer |= (long)(buffer.get(position) & 0xFF) << (56 - bitCount);
+				position += 1;
+				bitCount += 8;
+			}
+		}
+	}
+	
+	public long peekBits(int bits)
+	{
+		if (bitCount < bits)
+			refill();
+		return bitBuffer >>> (64 - bits);
+	}
+	
+	public void skipBits(int bits)
+	{
+		bitBuffer <<= bits;
+		bitCount -= bits;
+	}
+	
+	public long readBits(int bits)
+	{
+		if (bits > 56)
+		{
+			long high = readBits(bits - 32);
+			return (high << 32) | readBits(32);
+		}
+		
+		if (bitCount < bits)
+			refill();
+		
+		long value = bitBuffer >>> (64 - bits);
+		bitBuffer <<= bits;
+		bitCount -= bits;
+		return value;
+	}
+}
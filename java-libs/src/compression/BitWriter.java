@@ -0,0 +1,87 @@
+package compression;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// writes most significant bit first symbols of 1 to 64 bits into a byte buffer through a 64 bits accumulator.
+
+public class BitWriter
+{
+	public ByteBuffer buffer;
+	
+	public int start;
+	public int position;
+	public int limit;
+	
+	// pending bits are kept at the top of bitBuffer
+	public long bitBuffer;
+	public int bitCount;
+	
+	public BitWriter(ByteBuffer buffer)
+	{
+		this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		
+		this.start = buffer.position();
+		this.position = buffer.position();
+		this.limit = buffer.limit();
+		
+		this.bitBuffer = 0;
+		this.bitCount = 0;
+	}
+	
+	public long writtenBits()
+	{
+		return ((long)(position - start) * 8) + bitCount;
+	}
+	
+	// writes the whole bytes of the accumulator
+	
+	protected void flushBytes()
+	{
+		int bytes = bitCount >>> 3;
+		
+		if (position + Long.BYTES <= limit)
+			buffer.putLong(position, bitBuffer);
+		else if (position + bytes <= limit)
+		{
+			for (int index = 0, shift = 56; index < bytes; index += 1, shift -= 8)
+				buffer.put(position + index, (byte)(bitBuffer >>> shift));
+		}
+		else
+			throw new IndexOutOfBoundsException("bit writer buffer is full");
+		
+		position += bytes;
+		bitBuffer = (bytes == Long.BYTES) ? 0 : (bitBuffer << (bytes * 8));
+		bitCount -= bytes * 8;
+	}
+	
+	// the bits of value above the lowest bits must be zero
+	
+	public void writeBits(long value, int bits)
+	{
+		if (bits > 56)
+		{
+			writeBits(value >>> 32, bits - 32);
+			writeBits(value & 0xFFFFFFFFL, 32);
+			return;
+		}
+		
+		if (bitCount + bits > Long.SIZE)
+			flushBytes();
+		
+		bitBuffer |= value << (Long.SIZE - bitCount - bits);
+		bitCount += bits;
+	}
+	
+	// pads the last byte with zero bits, the buffer position itself is not changed
+	
+	public void flush()
+	{
+		flushBytes();
+		if (bitCount != 0)
+		{
+			bitCount = 8;
+			flushBytes();
+		}
+	}
+}
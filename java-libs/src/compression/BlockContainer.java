@@ -0,0 +1,706 @@
+package compression;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+import compression.SegmentedBuffer.ContextCountBuffer;
+import library.FileTools;
+import library.Tools;
+
+// container of independently compressed blocks, followed by an index of the blocks so any block can be read alone.
+//
+// header: magic, version, data bits, block size
+// block:  method, original size, compressed size, crc32c of the original data, compressed data
+// footer: index entries (offset, original size, compressed size), block count, original size, index offset, magic
+//
+// with 8 data bits the method of every block is chosen from its statistics, wider symbols are always huffman coded.
+
+public class BlockContainer
+{
+	public static final int magic = 0x53424331; // "SBC1"
+	public static final byte version = 1;
+	
+	public static final int defaultBlockSize = 1 << 20; // 1 MiB
+	public static final int minBlockSize = 1 << 12;
+	public static final int maxBlockSize = 1 << 26;
+	
+	public static final byte methodStored = 0;
+	public static final byte methodHuffman = 1;
+	public static final byte methodRunLength = 2;
+	public static final byte methodRans = 3;
+	public static final byte methodLZ77Rans = 4;
+	
+	// after the entropy coder the higher levels gain little on blocks, but cost several times the time
+	public static final int lz77Level = 1;
+	
+	public static final int headerSize = Integer.BYTES + 2 + Integer.BYTES;
+	public static final int blockHeaderSize = 1 + 3 * Integer.BYTES;
+	public static final int indexEntrySize = Long.BYTES + 2 * Integer.BYTES;
+	public static final int footerSize = Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+	
+	public static class BlockIndex
+	{
+		public long offset;
+		public int originalSize;
+		public int compressedSize;
+		
+		public BlockIndex(long offset, int originalSize, int compressedSize)
+		{
+			this.offset = offset;
+			this.originalSize = originalSize;
+			this.compressedSize = compressedSize;
+		}
+		
+		public int getRecordSize()
+		{
+			return blockHeaderSize + compressedSize;
+		}
+	}
+	
+	public static class InvalidContainerException extends IOException
+	{
+		private static final long serialVersionUID = -4637820517904626383L;
+		
+		public InvalidContainerException(String message)
+		{
+			super(message);
+		}
+		
+		public InvalidContainerException(String message, Throwable cause)
+		{
+			super(message, cause);
+		}
+	}
+	
+	// the method of a block is chosen from its byte statistics instead of trial compression:
+	// order-0 entropy estimates the entropy coder, order-1 entropy estimates lz77 followed by the entropy coder,
+	// and the runs are measured exactly when many bytes repeat the byte before them.
+	// a slower method is only chosen when its estimate is clearly smaller than the one of a faster method.
+	
+	public static class BlockEstimate
+	{
+		// share of the best faster estimate a method has to be below
+		public static final double runLengthGain = 0.97;
+		public static final double ransGain = 0.97;
+		public static final double lz77Gain = 0.9;
+		
+		// order-1 entropy of few bytes per used pair is far too low, below this lz77 is not considered
+		public static final int pairSamples = 4;
+		
+		// runs are measured when at least 1 / repeatShare of the bytes repeat the byte before them
+		public static final int repeatShare = 4;
+		
+		public ByteBuffer block;
+		public int dataBits;
+		public int size;
+		
+		public long[] countArray;
+		public int symbolNumber;
+		public int pairNumber;
+		public long repeatCount;
+		
+		public double entropy;
+		public double conditionalEntropy;
+		
+		public long runLengthSize;
+		public long ransSize;
+		public long lz77Size;
+		
+		public byte method;
+		public long estimatedSize;
+		
+		public BlockEstimate(ByteBuffer block, int dataBits)
+		{
+			this.block = block;
+			this.dataBits = dataBits;
+			this.size = block.remaining();
+			
+			this.method = methodStored;
+			this.estimatedSize = size;
+			
+			if (dataBits != Byte.SIZE)
+				this.method = methodHuffman;
+			else if (size != 0)
+				estimate();
+		}
+		
+		protected void estimate()
+		{
+			ContextCountBuffer contextCountBuffer = new ContextCountBuffer();
+			contextCountBuffer.countBuffer(block.duplicate());
+			
+			countArray = contextCountBuffer.getSymbolCountArray();
+			entropy = EntropyTools.getEntropy(countArray, ContextCountBuffer.contextCount, size);
+			
+			long[] pairCountArray = contextCountBuffer.pairCountArray;
+			for (int symbol = 0; symbol < ContextCountBuffer.contextCount; symbol += 1)
+			{
+				if (countArray[symbol] != 0)
+					symbolNumber += 1;
+				repeatCount += pairCountArray[(symbol << 8) | symbol];
+			}
+			for (int index = 0; index < ContextCountBuffer.tableSize; index += 1)
+				if (pairCountArray[index] != 0)
+					pairNumber += 1;
+			
+			// an entropy coded stream has its table, the size and the states besides the codes
+			long overhead = 2 + ContextCountBuffer.contextCount / Byte.SIZE + 2 * symbolNumber + Long.BYTES
+					+ RansCodec.defaultStateNumber * Integer.BYTES;
+			
+			ransSize = (long)Math.ceil(size * entropy / Byte.SIZE) + overhead;
+			
+			runLengthSize = RunLengthCodec.getLiteralsSize(size);
+			if (repeatCount * repeatShare >= size)
+				runLengthSize = RunLengthCodec.getEncodedSize(block);
+			
+			lz77Size = Long.MAX_VALUE;
+			if ((long)pairNumber * pairSamples <= size)
+			{
+				// the plug-in estimate is low by (used pairs - used contexts) / (2 size ln 2) bits, the miller-madow correction
+				conditionalEntropy = contextCountBuffer.getConditionalEntropy() + (pairNumber - symbolNumber) / (2 * size * EntropyTools.log2);
+				lz77Size = (long)Math.ceil(size * conditionalEntropy / Byte.SIZE) + overhead;
+			}
+			
+			choose(methodRunLength, runLengthSize, runLengthGain);
+			choose(methodRans, ransSize, ransGain);
+			choose(methodLZ77Rans, lz77Size, lz77Gain);
+		}
+		
+		protected void choose(byte method, long methodSize, double gain)
+		{
+			if (methodSize < estimatedSize * gain)
+			{
+				this.method = method;
+				this.estimatedSize = methodSize;
+			}
+		}
+	}
+	
+	public static int checkBlockSize(int blockSize)
+	{
+		if ((blockSize < minBlockSize) || (blockSize > maxBlockSize))
+			throw new IllegalArgumentException("invalid block size: " + blockSize);
+		return blockSize;
+	}
+	
+	public static int getChecksum(ByteBuffer buffer)
+	{
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.duplicate());
+		return (int)crc.getValue();
+	}
+	
+	// block records
+	
+	protected static byte[] getArray(ByteBuffer buffer)
+	{
+		if (buffer.hasArray() && (buffer.arrayOffset() + buffer.position() == 0) && (buffer.remaining() == buffer.array().length))
+			return buffer.array();
+		
+		byte[] array = new byte[buffer.remaining()];
+		buffer.duplicate().get(array);
+		return array;
+	}
+	
+	public static ByteBuffer encodeBlock(BlockEstimate estimate)
+	{
+		ByteBuffer block = estimate.block;
+		byte method = estimate.method;
+		
+		if (method == methodHuffman)
+			return HuffmanCodec.compress(block.duplicate(), estimate.dataBits);
+		
+		if (method == methodRunLength)
+		{
+			ByteBuffer output = ByteBuffer.allocate(RunLengthCodec.getMaxEncodedSize(block.remaining()));
+			RunLengthCodec.Encoder encoder = new RunLengthCodec.Encoder();
+			encoder.encode(block.duplicate(), output);
+			encoder.finish(output);
+			output.flip();
+			return output;
+		}
+		
+		if (method == methodRans)
+		{
+			RansCodec codec = RansCodec.fromCounts(estimate.countArray, RansCodec.defaultStateNumber);
+			ByteBuffer output = ByteBuffer.allocate(codec.getTableSize() + Long.BYTES
+					+ RansCodec.getMaxEncodedSize(block.remaining(), RansCodec.defaultStateNumber));
+			codec.compress(block.duplicate(), output);
+			output.flip();
+			return output;
+		}
+		
+		if (method == methodLZ77Rans)
+		{
+			byte[] array = getArray(block);
+			byte[] sequences = new byte[LZ77Codec.getMaxCompressedSize(array.length)];
+			int length = new LZ77Codec(lz77Level).compress(array, 0, array.length, sequences, 0);
+			return RansCodec.compress(ByteBuffer.wrap(sequences, 0, length), RansCodec.defaultStateNumber);
+		}
+		
+		return block.duplicate();
+	}
+	
+	public static ByteBuffer compressBlock(BlockEstimate estimate)
+	{
+		ByteBuffer block = estimate.block;
+		int originalSize = block.remaining();
+		int checksum = getChecksum(block);
+		
+		byte method = estimate.method;
+		ByteBuffer compressed = encodeBlock(estimate);
+		
+		if ((method != methodStored) && (compressed.remaining() >= originalSize))
+		{
+			compressed = block.duplicate();
+			method = methodStored;
+		}
+		
+		ByteBuffer record = ByteBuffer.allocate(blockHeaderSize + compressed.remaining());
+		record.put(method);
+		record.putInt(originalSize);
+		record.putInt(compressed.remaining());
+		record.putInt(checksum);
+		record.put(compressed);
+		record.flip();
+		
+		return record;
+	}
+	
+	public static ByteBuffer compressBlock(ByteBuffer block, int dataBits)
+	{
+		return compressBlock(new BlockEstimate(block, dataBits));
+	}
+	
+	// decompresses a record at the output position and moves the position after the block data.
+	// the codecs report invalid data with runtime exceptions, they are turned into InvalidContainerException.
+	
+	public static void decompressBlock(ByteBuffer record, ByteBuffer output) throws InvalidContainerException
+	{
+		byte method = record.get();
+		int originalSize = record.getInt();
+		int compressedSize = record.getInt();
+		int checksum = record.getInt();
+		
+		if ((originalSize < 0) || (compressedSize < 0) || (compressedSize > record.remaining()))
+			throw new InvalidContainerException("invalid block sizes: " + originalSize + ", " + compressedSize);
+		if (originalSize > output.remaining())
+			throw new IllegalArgumentException("output is too small: " + output.remaining() + " < " + originalSize);
+		
+		ByteBuffer payload = record.duplicate();
+		payload.limit(payload.position() + compressedSize);
+		
+		ByteBuffer data = output.duplicate();
+		data.limit(data.position() + originalSize);
+		
+		try
+		{
+			decodeBlock(method, payload, data);
+		}
+		catch (RuntimeException e)
+		{
+			throw new InvalidContainerException("invalid block data: " + e.getMessage(), e);
+		}
+		
+		if (data.hasRemaining())
+			throw new InvalidContainerException("block data is too short: " + data.position() + " < " + data.limit());
+		
+		data.flip();
+		data.position(output.position());
+		if (getChecksum(data) != checksum)
+			throw new InvalidContainerException("block checksum mismatch");
+		
+		output.position(output.position() + originalSize);
+		record.position(record.position() + compressedSize);
+	}
+	
+	// fills data from its position to its limit
+	
+	protected static void decodeBlock(byte method, ByteBuffer payload, ByteBuffer data) throws InvalidContainerException
+	{
+		int originalSize = data.remaining();
+		
+		if (method == methodStored)
+		{
+			if (payload.remaining() != originalSize)
+				throw new InvalidContainerException("invalid stored block size: " + payload.remaining());
+			data.put(payload);
+		}
+		else if (method == methodHuffman)
+			HuffmanCodec.decompress(payload, data);
+		else if (method == methodRunLength)
+		{
+			RunLengthCodec.Decoder decoder = new RunLengthCodec.Decoder();
+			decoder.decode(payload, data);
+			if (!decoder.isFinished() || payload.hasRemaining())
+				throw new InvalidContainerException("invalid run length data");
+		}
+		else if (method == methodRans)
+			RansCodec.decompress(payload, data);
+		else if (method == methodLZ77Rans)
+		{
+			// the sequences size is checked before it is allocated
+			long sequencesSize = RansCodec.getOriginalSize(payload);
+			if ((sequencesSize < 0) || (sequencesSize > LZ77Codec.getMaxCompressedSize(originalSize)))
+				throw new InvalidContainerException("invalid lz77 sequences size: " + sequencesSize);
+			
+			ByteBuffer sequences = RansCodec.decompress(payload);
+			byte[] array = data.hasArray() ? data.array() : new byte[originalSize];
+			int start = data.hasArray() ? data.arrayOffset() + data.position() : 0;
+			
+			LZ77Codec.decompress(sequences.array(), 0, sequences.limit(), array, start, start + originalSize);
+			
+			if (data.hasArray())
+				data.position(data.position() + originalSize);
+			else
+				data.put(array);
+		}
+		else
+			throw new InvalidContainerException("unknown block method: " + method);
+	}
+	
+	protected static ByteBuffer readBlock(FileChannel input, long offset, int size)
+	{
+		try
+		{
+			ByteBuffer block = ByteBuffer.allocate(size);
+			FileTools.readFully(input, block, offset);
+			block.flip();
+			return block;
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	public static int checkDataBits(int dataBits)
+	{
+		if ((dataBits < 1) || (dataBits > HuffmanCodec.maxDataBits))
+			throw new IllegalArgumentException("unsupported data bits: " + dataBits);
+		return dataBits;
+	}
+	
+	// compresses blockSize pieces of the input on a pool and writes them in order.
+	// every block is read and estimated, then encoded, as separate tasks, so later blocks are estimated while earlier
+	// ones are encoded, and at most windowSize blocks are in flight while the oldest one is written.
+	//
+	// offsets in the container are file offsets, so the output must be at position 0, it is truncated to the container.
+	
+	public static long compress(FileChannel input, FileChannel output, int blockSize, int dataBits, int numberOfThreads) throws IOException
+	{
+		checkBlockSize(blockSize);
+		checkDataBits(dataBits);
+		if (output.position() != 0)
+			throw new IllegalArgumentException("container must start at position 0, not " + output.position());
+		if (numberOfThreads == 0)
+			numberOfThreads = Runtime.getRuntime().availableProcessors();
+		
+		long originalSize = input.size();
+		long blockCount = (originalSize + blockSize - 1) / blockSize;
+		if (blockCount > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("too many blocks: " + blockCount);
+		
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		header.putInt(magic);
+		header.put(version);
+		header.put((byte)dataBits);
+		header.putInt(blockSize);
+		header.flip();
+		
+		long position = 0;
+		FileTools.writeFully(output, header, position);
+		position += headerSize;
+		
+		ByteBuffer index = ByteBuffer.allocate(Math.toIntExact(blockCount * indexEntrySize + footerSize));
+		int windowSize = numberOfThreads * 4;
+		
+		ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try
+		{
+			ArrayDeque<CompletableFuture<ByteBuffer>> records = new ArrayDeque<>(windowSize);
+			
+			for (long current = 0; current < blockCount; current += 1)
+			{
+				long offset = current * blockSize;
+				int size = (int)Math.min(blockSize, originalSize - offset);
+				
+				records.add(CompletableFuture.supplyAsync(() -> new BlockEstimate(readBlock(input, offset, size), dataBits), pool)
+						.thenApplyAsync(BlockContainer::compressBlock, pool));
+				
+				if (records.size() == windowSize)
+					position = writeRecord(output, Tools.getFuture(records.poll()), index, position);
+			}
+			
+			while (!records.isEmpty())
+				position = writeRecord(output, Tools.getFuture(records.poll()), index, position);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		
+		long indexOffset = position;
+		index.putInt((int)blockCount);
+		index.putLong(originalSize);
+		index.putLong(indexOffset);
+		index.putInt(magic);
+		index.flip();
+		
+		int indexSize = index.remaining();
+		FileTools.writeFully(output, index, position);
+		position += indexSize;
+		
+		output.truncate(position);
+		output.position(position);
+		return position;
+	}
+	
+	protected static long writeRecord(FileChannel output, ByteBuffer record, ByteBuffer index, long position) throws IOException
+	{
+		index.putLong(position);
+		index.putInt(record.getInt(1));
+		index.putInt(record.getInt(1 + Integer.BYTES));
+		
+		int recordSize = record.remaining();
+		FileTools.writeFully(output, record, position);
+		return position + recordSize;
+	}
+	
+	public static long decompress(FileChannel input, FileChannel output, int numberOfThreads) throws IOException
+	{
+		try (Reader reader = new Reader(input, numberOfThreads))
+		{
+			return reader.decompressAll(output);
+		}
+	}
+	
+	// random access reader, only the blocks that cover a requested range are read and decompressed
+	
+	public static class Reader implements Closeable
+	{
+		public FileChannel channel;
+		
+		public int dataBits;
+		public int blockSize;
+		public long originalSize;
+		
+		public BlockIndex[] blocks;
+		
+		public int numberOfThreads;
+		protected ForkJoinPool pool;
+		
+		public Reader(FileChannel channel, int numberOfThreads) throws IOException
+		{
+			this.channel = channel;
+			this.numberOfThreads = (numberOfThreads == 0) ? Runtime.getRuntime().availableProcessors() : numberOfThreads;
+			
+			if (channel.size() < headerSize + footerSize)
+				throw new InvalidContainerException("file is too small: " + channel.size());
+			
+			ByteBuffer header = ByteBuffer.allocate(headerSize);
+			FileTools.readFully(channel, header, 0);
+			header.flip();
+			
+			if (header.getInt() != magic)
+				throw new InvalidContainerException("invalid magic");
+			if (header.get() != version)
+				throw new InvalidContainerException("unsupported version");
+			
+			this.dataBits = header.get();
+			if ((this.dataBits < 1) || (this.dataBits > HuffmanCodec.maxDataBits))
+				throw new InvalidContainerException("invalid data bits: " + this.dataBits);
+			
+			this.blockSize = header.getInt();
+			if ((this.blockSize < minBlockSize) || (this.blockSize > maxBlockSize))
+				throw new InvalidContainerException("invalid block size: " + this.blockSize);
+			
+			ByteBuffer footer = ByteBuffer.allocate(footerSize);
+			FileTools.readFully(channel, footer, channel.size() - footerSize);
+			footer.flip();
+			
+			int blockCount = footer.getInt();
+			this.originalSize = footer.getLong();
+			long indexOffset = footer.getLong();
+			
+			if (footer.getInt() != magic)
+				throw new InvalidContainerException("invalid footer magic");
+			if ((blockCount < 0) || (indexOffset + (long)blockCount * indexEntrySize + footerSize != channel.size()))
+				throw new InvalidContainerException("invalid index");
+			if (blockCount != (this.originalSize + this.blockSize - 1) / this.blockSize)
+				throw new InvalidContainerException("invalid block count: " + blockCount);
+			
+			ByteBuffer index = ByteBuffer.allocate(blockCount * indexEntrySize);
+			FileTools.readFully(channel, index, indexOffset);
+			index.flip();
+			
+			// records follow the header in block order and end before the index
+			this.blocks = new BlockIndex[blockCount];
+			long recordEnd = headerSize;
+			for (int blockIndex = 0; blockIndex < blockCount; blockIndex += 1)
+			{
+				BlockIndex block = new BlockIndex(index.getLong(), index.getInt(), index.getInt());
+				
+				if (block.originalSize != Math.min(this.blockSize, this.originalSize - getOriginalOffset(blockIndex)))
+					throw new InvalidContainerException("invalid original size of block " + blockIndex + ": " + block.originalSize);
+				if ((block.compressedSize < 0) || (block.offset < recordEnd) || (block.offset + block.getRecordSize() > indexOffset))
+					throw new InvalidContainerException("invalid record of block " + blockIndex + " at " + block.offset);
+				
+				recordEnd = block.offset + block.getRecordSize();
+				this.blocks[blockIndex] = block;
+			}
+		}
+		
+		public Reader(FileChannel channel) throws IOException
+		{
+			this(channel, 1);
+		}
+		
+		public long getOriginalOffset(int blockIndex)
+		{
+			return (long)blockIndex * blockSize;
+		}
+		
+		public ByteBuffer readRecord(int blockIndex) throws IOException
+		{
+			ByteBuffer record = ByteBuffer.allocate(blocks[blockIndex].getRecordSize());
+			FileTools.readFully(channel, record, blocks[blockIndex].offset);
+			record.flip();
+			
+			// the index sizes the output of the block, so the record must agree with it
+			if ((record.getInt(1) != blocks[blockIndex].originalSize) || (record.getInt(1 + Integer.BYTES) != blocks[blockIndex].compressedSize))
+				throw new InvalidContainerException("record of block " + blockIndex + " does not match the index");
+			return record;
+		}
+		
+		public void readBlock(int blockIndex, ByteBuffer output) throws IOException
+		{
+			decompressBlock(readRecord(blockIndex), output);
+		}
+		
+		public ByteBuffer readBlock(int blockIndex) throws IOException
+		{
+			ByteBuffer output = ByteBuffer.allocate(blocks[blockIndex].originalSize);
+			readBlock(blockIndex, output);
+			output.flip();
+			return output;
+		}
+		
+		protected ForkJoinPool getPool()
+		{
+			if (pool == null)
+				pool = new ForkJoinPool(numberOfThreads);
+			return pool;
+		}
+		
+		// reads the original bytes from offset into the remaining space of output, returns the number of bytes read
+		
+		public int read(long offset, ByteBuffer output) throws IOException
+		{
+			if ((offset < 0) || (offset > originalSize))
+				throw new IndexOutOfBoundsException("offset out of range: " + offset);
+			
+			int length = (int)Math.min(output.remaining(), originalSize - offset);
+			if (length == 0)
+				return 0;
+			
+			int firstBlock = (int)(offset / blockSize);
+			int lastBlock = (int)((offset + length - 1) / blockSize);
+			int start = output.position();
+			
+			List<Future<Void>> futures = new ArrayList<>(lastBlock - firstBlock + 1);
+			for (int blockIndex = firstBlock; blockIndex <= lastBlock; blockIndex += 1)
+			{
+				final int current = blockIndex;
+				
+				long blockStart = Math.max(offset, getOriginalOffset(current));
+				long blockEnd = Math.min(offset + length, getOriginalOffset(current) + blocks[current].originalSize);
+				
+				ByteBuffer target = output.duplicate();
+				target.position(start + (int)(blockStart - offset));
+				target.limit(start + (int)(blockEnd - offset));
+				
+				if (firstBlock == lastBlock || numberOfThreads == 1)
+					copyBlock(current, blockStart, target);
+				else
+				{
+					futures.add(getPool().submit(() ->
+					{
+						copyBlock(current, blockStart, target);
+						return null;
+					}));
+				}
+			}
+			
+			for (Future<Void> future : futures)
+				Tools.getFuture(future);
+			
+			output.position(start + length);
+			return length;
+		}
+		
+		protected void copyBlock(int blockIndex, long from, ByteBuffer target) throws IOException
+		{
+			long blockOffset = getOriginalOffset(blockIndex);
+			
+			if ((from == blockOffset) && (target.remaining() == blocks[blockIndex].originalSize))
+				readBlock(blockIndex, target);
+			else
+			{
+				ByteBuffer block = readBlock(blockIndex);
+				block.position((int)(from - blockOffset));
+				block.limit(block.position() + target.remaining());
+				target.put(block);
+			}
+		}
+		
+		// decompresses every block straight to its place in the output
+		
+		public long decompressAll(FileChannel output) throws IOException
+		{
+			long outputStart = output.position();
+			int batchSize = numberOfThreads * 2;
+			List<Future<Void>> futures = new ArrayList<>(batchSize);
+			
+			for (int blockIndex = 0; blockIndex < blocks.length; blockIndex += batchSize)
+			{
+				futures.clear();
+				for (int current = blockIndex; current < Math.min(blockIndex + batchSize, blocks.length); current += 1)
+				{
+					final int block = current;
+					futures.add(getPool().submit(() ->
+					{
+						FileTools.writeFully(output, readBlock(block), outputStart + getOriginalOffset(block));
+						return null;
+					}));
+				}
+				
+				for (Future<Void> future : futures)
+					Tools.getFuture(future);
+			}
+			
+			output.position(outputStart + originalSize);
+			return originalSize;
+		}
+		
+		@Override
+		public void close()
+		{
+			if (pool != null)
+			{
+				pool.shutdown();
+				pool = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package compression;
+
+import java.nio.ByteBuffer;
+
+// burrows-wheeler transform with move-to-front, in front of the rans coder.
+//
+// the rows are the sorted suffixes of the text with a sentinel after it, so the transform is the byte before every
+// suffix in suffix array order. the sentinel row has no byte before it and is kept as the primary index instead.
+
+public class BurrowsWheeler
+{
+	// the transform of input[start, end) into output[outputStart, outputStart + end - start), returns the primary index
+	
+	public static int transform(byte[] input, int start, int end, byte[] output, int outputStart)
+	{
+		int length = end - start;
+		if (length == 0)
+			return 0;
+		
+		int[] suffixes = SuffixArray.buildWithSentinel(new SuffixArray.ByteSymbols(input, start, length), length);
+		
+		// row 0 is the sentinel suffix, the last byte comes before it
+		int primary = 0;
+		int position = outputStart;
+		output[position++] = input[end - 1];
+		
+		for (int row = 1; row <= length; row += 1)
+		{
+			int suffix = suffixes[row];
+			if (suffix == 0)
+				primary = row;
+			else
+				output[position++] = input[start + suffix - 1];
+		}
+		return primary;
+	}
+	
+	// the inverse walks the text backward from the sentinel row, each step maps a row to the row of the suffix
+	// one byte earlier: the bytes that come before a row are in the same order in the first column
+	
+	public static void inverse(byte[] input, int start, int end, int primary, byte[] output, int outputStart)
+	{
+		int length = end - start;
+		if (length == 0)
+			return;
+		
+		if ((primary < 1) || (primary > length))
+			throw new IllegalArgumentException("invalid primary index: " + primary);
+		
+		int[] firstRows = new int[256];
+		for (int index = start; index < end; index += 1)
+			firstRows[input[index] & 0xFF] += 1;
+		
+		// the sentinel row is the first one in the first column
+		int sum = 1;
+		for (int symbol = 0; symbol < 256; symbol += 1)
+		{
+			int count = firstRows[symbol];
+			firstRows[symbol] = sum;
+			sum += count;
+		}
+		
+		// rows after the primary one hold their byte one entry earlier in the input
+		int[] nextRows = new int[length + 1];
+		for (int row = 0; row < primary; row += 1)
+			nextRows[row] = firstRows[input[start + row] & 0xFF]++;
+		for (int row = primary + 1; row <= length; row += 1)
+			nextRows[row] = firstRows[input[start + row - 1] & 0xFF]++;
+		
+		int row = 0;
+		for (int index = outputStart + length - 1; index >= outputStart; index -= 1)
+		{
+			output[index] = input[start + row - ((row > primary) ? 1 : 0)];
+			row = nextRows[row];
+		}
+	}
+	
+	// move-to-front in place: every byte becomes its index in a list of recent bytes
+	
+	public static void moveToFront(byte[] array, int start, int end)
+	{
+		byte[] list = new byte[256];
+		for (int index = 0; index < 256; index += 1)
+			list[index] = (byte)index;
+		
+		for (int position = start; position < end; position += 1)
+		{
+			byte value = array[position];
+			int index = 0;
+			while (list[index] != value)
+				index += 1;
+			
+			array[position] = (byte)index;
+			
+			for (; index > 0; index -= 1)
+				list[index] = list[index - 1];
+			list[0] = value;
+		}
+	}
+	
+	public static void moveToFrontInverse(byte[] array, int start, int end)
+	{
+		byte[] list = new byte[256];
+		for (int index = 0; index < 256; index += 1)
+			list[index] = (byte)index;
+		
+		for (int position = start; position < end; position += 1)
+		{
+			int index = array[position] & 0xFF;
+			byte value = list[index];
+			
+			for (; index > 0; index -= 1)
+				list[index] = list[index - 1];
+			list[0] = value;
+			
+			array[position] = value;
+		}
+	}
+	
+	protected static byte[] getArray(ByteBuffer input)
+	{
+		byte[] array = new byte[input.remaining()];
+		input.get(array);
+		return array;
+	}
+	
+	// stream: primary index as an int, then the rans stream of the move-to-front output
+	
+	public static ByteBuffer compress(ByteBuffer input, int stateNumber)
+	{
+		byte[] array = getArray(input);
+		byte[] transformed = new byte[array.length];
+		
+		int primary = transform(array, 0, array.length, transformed, 0);
+		moveToFront(transformed, 0, transformed.length);
+		
+		ByteBuffer encoded = RansCodec.compress(ByteBuffer.wrap(transformed), stateNumber);
+		ByteBuffer output = ByteBuffer.allocate(Integer.BYTES + encoded.remaining());
+		
+		output.putInt(primary);
+		output.put(encoded);
+		output.flip();
+		return output;
+	}
+	
+	public static ByteBuffer compress(ByteBuffer input)
+	{
+		return compress(input, RansCodec.defaultStateNumber);
+	}
+	
+	public static ByteBuffer decompress(ByteBuffer input)
+	{
+		int primary = input.getInt();
+		byte[] transformed = getArray(RansCodec.decompress(input));
+		moveToFrontInverse(transformed, 0, transformed.length);
+		
+		byte[] output = new byte[transformed.length];
+		inverse(transformed, 0, transformed.length, primary, output, 0);
+		return ByteBuffer.wrap(output);
+	}
+}
@@ -0,0 +1,153 @@
+package compression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// byte histograms without store-to-load stalls. when one byte value repeats, every increment of a single table waits
+// for the store of the one before it, so the bytes of each 8 byte word are counted in four interleaved tables which
+// are added together at the end. pairs are counted in one table, 64k entries are too large to copy, but a word that
+// repeats the byte before it is counted with a single add.
+
+public class ByteHistogram
+{
+	public static final int symbolCount = 256;
+	public static final int tableCount = 4;
+	
+	// below this size the tables cost more to clear and add than they save
+	public static final int minTableSize = 1 << 12;
+	
+	protected static final VarHandle longHandle = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	protected static final long byteRepeat = 0x0101010101010101L;
+	
+	protected static void countWord(int[] tables, long word)
+	{
+		int low = (int)word;
+		int high = (int)(word >>> 32);
+		
+		tables[low & 0xFF] += 1;
+		tables[symbolCount + ((low >>> 8) & 0xFF)] += 1;
+		tables[2 * symbolCount + ((low >>> 16) & 0xFF)] += 1;
+		tables[3 * symbolCount + (low >>> 24)] += 1;
+		
+		tables[high & 0xFF] += 1;
+		tables[symbolCount + ((high >>> 8) & 0xFF)] += 1;
+		tables[2 * symbolCount + ((high >>> 16) & 0xFF)] += 1;
+		tables[3 * symbolCount + (high >>> 24)] += 1;
+	}
+	
+	protected static void addTables(int[] tables, long[] countArray)
+	{
+		for (int symbol = 0; symbol < symbolCount; symbol += 1)
+			countArray[symbol] += (long)tables[symbol] + tables[symbolCount + symbol] + tables[2 * symbolCount + symbol]
+					+ tables[3 * symbolCount + symbol];
+	}
+	
+	// adds the counts of the bytes in array[start, end) to countArray
+	
+	public static void count(byte[] array, int start, int end, long[] countArray)
+	{
+		if (end - start < minTableSize)
+		{
+			for (int index = start; index < end; index += 1)
+				countArray[array[index] & 0xFF] += 1;
+			return;
+		}
+		
+		int[] tables = new int[tableCount * symbolCount];
+		int index = start;
+		
+		for (; index + Long.BYTES <= end; index += Long.BYTES)
+			countWord(tables, (long)longHandle.get(array, index));
+		for (; index < end; index += 1)
+			tables[array[index] & 0xFF] += 1;
+		
+		addTables(tables, countArray);
+	}
+	
+	// the same for buffer[start, end), positions are absolute and the buffer is not changed
+	
+	public static void count(ByteBuffer buffer, int start, int end, long[] countArray)
+	{
+		if (buffer.hasArray())
+		{
+			count(buffer.array(), buffer.arrayOffset() + start, buffer.arrayOffset() + end, countArray);
+			return;
+		}
+		
+		if (end - start < minTableSize)
+		{
+			for (int index = start; index < end; index += 1)
+				countArray[buffer.get(index) & 0xFF] += 1;
+			return;
+		}
+		
+		ByteBuffer words = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int[] tables = new int[tableCount * symbolCount];
+		int index = start;
+		
+		for (; index + Long.BYTES <= end; index += Long.BYTES)
+			countWord(tables, words.getLong(index));
+		for (; index < end; index += 1)
+			tables[buffer.get(index) & 0xFF] += 1;
+		
+		addTables(tables, countArray);
+	}
+	
+	protected static int countWordPairs(long[] pairCountArray, long word, int last)
+	{
+		if (word == last * byteRepeat)
+		{
+			pairCountArray[(last << 8) | last] += Long.BYTES;
+			return last;
+		}
+		
+		for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE)
+		{
+			int current = (int)(word >>> shift) & 0xFF;
+			pairCountArray[(last << 8) | current] += 1;
+			last = current;
+		}
+		return last;
+	}
+	
+	// adds the pairs of array[start, end) and the byte before them to pairCountArray at (previous << 8) | current,
+	// returns the last byte
+	
+	public static int countPairs(byte[] array, int start, int end, int last, long[] pairCountArray)
+	{
+		int index = start;
+		
+		for (; index + Long.BYTES <= end; index += Long.BYTES)
+			last = countWordPairs(pairCountArray, (long)longHandle.get(array, index), last);
+		
+		for (; index < end; index += 1)
+		{
+			int current = array[index] & 0xFF;
+			pairCountArray[(last << 8) | current] += 1;
+			last = current;
+		}
+		return last;
+	}
+	
+	public static int countPairs(ByteBuffer buffer, int start, int end, int last, long[] pairCountArray)
+	{
+		if (buffer.hasArray())
+			return countPairs(buffer.array(), buffer.arrayOffset() + start, buffer.arrayOffset() + end, last, pairCountArray);
+		
+		ByteBuffer words = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int index = start;
+		
+		for (; index + Long.BYTES <= end; index += Long.BYTES)
+			last = countWordPairs(pairCountArray, words.getLong(index), last);
+		
+		for (; index < end; index += 1)
+		{
+			int current = buffer.get(index) & 0xFF;
+			pairCountArray[(last << 8) | current] += 1;
+			last = current;
+		}
+		return last;
+	}
+}
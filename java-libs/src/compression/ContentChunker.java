@@ -0,0 +1,495 @@
+package compression;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import library.Tools;
+import library.io.ByteBufferedReader;
+import library.io.ReadMode;
+import library.types.LongCountTable;
+
+// content-defined chunks with the gear rolling hash, as in fastcdc: every byte shifts the hash left and adds a random
+// value of the byte, so the top bits of the hash depend on the last 64 bytes only and a cut point moves with the content.
+// bytes below the minimum size are skipped, a harder mask before the average size and an easier one after it keep
+// chunk sizes close to the average, and chunks are cut at the maximum size anyway.
+//
+// every chunk gets a 128-bit fingerprint (murmur3 x64), and a shared index of fingerprints finds the chunks that were
+// seen before in any file.
+
+public class ContentChunker
+{
+	public static final int defaultMinSize = 1 << 11; // 2 KiB
+	public static final int defaultAverageSize = 1 << 13; // 8 KiB
+	public static final int defaultMaxSize = 1 << 16; // 64 KiB
+	public static final int maxChunkSize = 1 << 30;
+	
+	protected static final long[] gearTable = new long[256];
+	
+	static
+	{
+		for (int index = 0; index < gearTable.length; index += 1)
+			gearTable[index] = LongCountTable.hash((index + 1) * 0x9e3779b97f4a7c15L);
+	}
+	
+	public int minSize;
+	public int averageSize;
+	public int maxSize;
+	
+	// top bits of the hash that must be zero for a cut
+	public long smallMask;
+	public long largeMask;
+	
+	public ContentChunker(int minSize, int averageSize, int maxSize)
+	{
+		if ((averageSize < 4) || (Integer.bitCount(averageSize) != 1))
+			throw new IllegalArgumentException("average size is not a power of two: " + averageSize);
+		if ((minSize < 0) || (minSize >= averageSize) || (maxSize <= averageSize) || (maxSize > maxChunkSize))
+			throw new IllegalArgumentException("invalid chunk sizes: " + minSize + ", " + averageSize + ", " + maxSize);
+		
+		this.minSize = minSize;
+		this.averageSize = averageSize;
+		this.maxSize = maxSize;
+		
+		int bits = Integer.numberOfTrailingZeros(averageSize);
+		this.smallMask = -1L << (Long.SIZE - (bits + 1));
+		this.largeMask = -1L << (Long.SIZE - (bits - 1));
+	}
+	
+	public ContentChunker()
+	{
+		this(defaultMinSize, defaultAverageSize, defaultMaxSize);
+	}
+	
+	// fingerprints: murmur3 x64 128 over 16 byte blocks
+	
+	protected static final VarHandle longHandle = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	
+	protected static final long firstFactor = 0x87c37b91114253d5L;
+	protected static final long secondFactor = 0x4cf5ad432745937fL;
+	
+	protected static long mixFirst(long key)
+	{
+		return Long.rotateLeft(key * firstFactor, 31) * secondFactor;
+	}
+	
+	protected static long mixSecond(long key)
+	{
+		return Long.rotateLeft(key * secondFactor, 33) * firstFactor;
+	}
+	
+	public static void getFingerprint(byte[] array, int start, int end, long[] fingerprint)
+	{
+		long first = 0;
+		long second = 0;
+		int position = start;
+		
+		for (; position + 16 <= end; position += 16)
+		{
+			first ^= mixFirst((long)longHandle.get(array, position));
+			first = (Long.rotateLeft(first, 27) + second) * 5 + 0x52dce729;
+			
+			second ^= mixSecond((long)longHandle.get(array, position + 8));
+			second = (Long.rotateLeft(second, 31) + first) * 5 + 0x38495ab5;
+		}
+		
+		int rest = end - position;
+		long firstKey = 0;
+		long secondKey = 0;
+		
+		for (int index = rest - 1; index >= 8; index -= 1)
+			secondKey = (secondKey << 8) | (array[position + index] & 0xFF);
+		for (int index = Math.min(rest, 8) - 1; index >= 0; index -= 1)
+			firstKey = (firstKey << 8) | (array[position + index] & 0xFF);
+		
+		if (rest > 8)
+			second ^= mixSecond(secondKey);
+		if (rest > 0)
+			first ^= mixFirst(firstKey);
+		
+		first ^= end - start;
+		second ^= end - start;
+		first += second;
+		second += first;
+		
+		first = LongCountTable.hash(first);
+		second = LongCountTable.hash(second);
+		first += second;
+		second += first;
+		
+		fingerprint[0] = first;
+		fingerprint[1] = second;
+	}
+	
+	// the fingerprint array is reused for every chunk
+	
+	public interface ChunkConsumer
+	{
+		void accept(long offset, int length, long[] fingerprint);
+	}
+	
+	// cuts the stream of buffers into chunks, the bytes of a chunk are gathered until its end is found
+	
+	public static class ChunkReader extends ByteBufferedReader
+	{
+		public ContentChunker chunker;
+		public ChunkConsumer consumer;
+		
+		public long offset;
+		public long chunkCount;
+		
+		protected byte[] chunkArray;
+		protected int chunkLength;
+		protected long hash;
+		protected long[] fingerprint;
+		
+		public ChunkReader(ContentChunker chunker, ChunkConsumer consumer)
+		{
+			this.chunker = chunker;
+			this.consumer = consumer;
+			
+			this.chunkArray = new byte[chunker.maxSize];
+			this.fingerprint = new long[2];
+		}
+		
+		protected int scan(int position, int limit, long mask)
+		{
+			byte[] array = chunkArray;
+			long hash = this.hash;
+			
+			for (; position < limit; position += 1)
+			{
+				hash = (hash << 1) + gearTable[array[position] & 0xFF];
+				if ((hash & mask) == 0)
+				{
+					this.hash = hash;
+					return position + 1;
+				}
+			}
+			
+			this.hash = hash;
+			return -1;
+		}
+		
+		// the end of the chunk in chunkArray[start, end), or -1 when it goes on after end. the index in the chunk array
+		// is the chunk length up to there, so bytes below the minimum size, which can never end a chunk, are not hashed.
+		
+		protected int findCut(int start, int end)
+		{
+			int position = Math.max(start, chunker.minSize);
+			
+			if (position < chunker.averageSize)
+			{
+				int limit = Math.min(end, chunker.averageSize);
+				int cut = scan(position, limit, chunker.smallMask);
+				if (cut >= 0)
+					return cut;
+				
+				position = limit;
+			}
+			
+			int cut = scan(position, end, chunker.largeMask);
+			if (cut >= 0)
+				return cut;
+			
+			return (end == chunker.maxSize) ? end : -1;
+		}
+		
+		protected void endChunk()
+		{
+			getFingerprint(chunkArray, 0, chunkLength, fingerprint);
+			consumer.accept(offset, chunkLength, fingerprint);
+			
+			offset += chunkLength;
+			chunkCount += 1;
+			chunkLength = 0;
+			hash = 0;
+		}
+		
+		@Override
+		public void read(ByteBuffer buffer)
+		{
+			int position = buffer.position();
+			int end = buffer.limit();
+			
+			// bytes are copied a part at a time and scanned in the chunk array, the bytes after a cut are copied again
+			while (position < end)
+			{
+				int length = Math.min(Math.min(end - position, chunker.maxSize - chunkLength), chunker.averageSize);
+				buffer.get(position, chunkArray, chunkLength, length);
+				
+				int cut = findCut(chunkLength, chunkLength + length);
+				int next = (cut < 0) ? chunkLength + length : cut;
+				
+				position += next - chunkLength;
+				chunkLength = next;
+				
+				if (cut >= 0)
+					endChunk();
+			}
+			buffer.position(end);
+		}
+		
+		@Override
+		public void finish()
+		{
+			if (chunkLength != 0)
+				endChunk();
+		}
+	}
+	
+	// fingerprints to the location of the first chunk seen with them. the table is split into stripes by the top bits
+	// of the fingerprint, each with its own lock, so files that are chunked in parallel rarely wait for each other.
+	
+	public static class DedupIndex
+	{
+		public static final int stripeBits = 6;
+		
+		protected static class Stripe
+		{
+			public long[] highs;
+			public long[] lows;
+			
+			// location + 1, zero marks an empty slot
+			public long[] locations;
+			
+			public int length;
+			protected int mask;
+			protected int shift;
+			protected int threshold;
+			
+			public Stripe(int capacity)
+			{
+				allocate(capacity);
+			}
+			
+			protected void allocate(int capacity)
+			{
+				highs = new long[capacity];
+				lows = new long[capacity];
+				locations = new long[capacity];
+				
+				length = 0;
+				mask = capacity - 1;
+				shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+				threshold = (capacity >>> 1) + (capacity >>> 2); // 75%
+			}
+			
+			protected void rehash()
+			{
+				long[] oldHighs = highs;
+				long[] oldLows = lows;
+				long[] oldLocations = locations;
+				
+				allocate(LongCountTable.getCapacity(oldLocations.length * 2));
+				for (int index = 0; index < oldLocations.length; index += 1)
+					if (oldLocations[index] != 0)
+						putIfAbsent(oldHighs[index], oldLows[index], oldLocations[index] - 1);
+			}
+			
+			public long get(long high, long low)
+			{
+				int slot = (int)(low >>> shift);
+				
+				while (locations[slot] != 0)
+				{
+					if ((highs[slot] == high) && (lows[slot] == low))
+						return locations[slot] - 1;
+					slot = (slot + 1) & mask;
+				}
+				return -1;
+			}
+			
+			public long putIfAbsent(long high, long low, long location)
+			{
+				int slot = (int)(low >>> shift);
+				
+				while (locations[slot] != 0)
+				{
+					if ((highs[slot] == high) && (lows[slot] == low))
+						return locations[slot] - 1;
+					slot = (slot + 1) & mask;
+				}
+				
+				highs[slot] = high;
+				lows[slot] = low;
+				locations[slot] = location + 1;
+				
+				length += 1;
+				if (length > threshold)
+					rehash();
+				return -1;
+			}
+		}
+		
+		protected Stripe[] stripes;
+		
+		public DedupIndex(int suggestedSize)
+		{
+			int capacity = LongCountTable.getCapacity((suggestedSize >>> stripeBits) + 1);
+			
+			stripes = new Stripe[1 << stripeBits];
+			for (int index = 0; index < stripes.length; index += 1)
+				stripes[index] = new Stripe(capacity);
+		}
+		
+		public DedupIndex()
+		{
+			this(1 << 16);
+		}
+		
+		// a location is the file index in the top 24 bits and the offset in the file in the lower 40 bits
+		
+		public static long getLocation(int fileIndex, long offset)
+		{
+			return ((long)fileIndex << 40) | offset;
+		}
+		
+		public static int getFileIndex(long location)
+		{
+			return (int)(location >>> 40);
+		}
+		
+		public static long getOffset(long location)
+		{
+			return location & ((1L << 40) - 1);
+		}
+		
+		protected Stripe getStripe(long high)
+		{
+			return stripes[(int)(high >>> (Long.SIZE - stripeBits))];
+		}
+		
+		// the location of the chunk seen first with this fingerprint, or -1 when there is none
+		
+		public long get(long[] fingerprint)
+		{
+			Stripe stripe = getStripe(fingerprint[0]);
+			synchronized (stripe)
+			{
+				return stripe.get(fingerprint[0], fingerprint[1]);
+			}
+		}
+		
+		// the location of an equal chunk seen before, or -1 when the fingerprint is new and now points to location
+		
+		public long putIfAbsent(long[] fingerprint, long location)
+		{
+			Stripe stripe = getStripe(fingerprint[0]);
+			synchronized (stripe)
+			{
+				return stripe.putIfAbsent(fingerprint[0], fingerprint[1], location);
+			}
+		}
+		
+		public long size()
+		{
+			long size = 0;
+			for (Stripe stripe : stripes)
+			{
+				synchronized (stripe)
+				{
+					size += stripe.length;
+				}
+			}
+			return size;
+		}
+	}
+	
+	public static class DedupStatistics
+	{
+		public long files;
+		public long bytes;
+		public long chunks;
+		
+		// chunks whose fingerprint was not seen before
+		public long uniqueBytes;
+		public long uniqueChunks;
+		
+		public void add(DedupStatistics statistics)
+		{
+			files += statistics.files;
+			bytes += statistics.bytes;
+			chunks += statistics.chunks;
+			uniqueBytes += statistics.uniqueBytes;
+			uniqueChunks += statistics.uniqueChunks;
+		}
+		
+		public double getRatio()
+		{
+			return (double)bytes / Math.max(uniqueBytes, 1);
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("files: %d, size: %d, chunks: %d, unique chunks: %d, unique size: %d (%.1f%%), dedup ratio: %.3f",
+					files, bytes, chunks, uniqueChunks, uniqueBytes, uniqueBytes * 100.0 / Math.max(bytes, 1), getRatio());
+		}
+	}
+	
+	public DedupStatistics scanFile(Path path, int fileIndex, DedupIndex index) throws IOException
+	{
+		if (fileIndex >= (1 << 24))
+			throw new IllegalArgumentException("too many files: " + fileIndex);
+		
+		DedupStatistics statistics = new DedupStatistics();
+		ChunkReader reader = new ChunkReader(this, (offset, length, fingerprint) ->
+		{
+			statistics.chunks += 1;
+			if (index.putIfAbsent(fingerprint, DedupIndex.getLocation(fileIndex, offset)) == -1)
+			{
+				statistics.uniqueChunks += 1;
+				statistics.uniqueBytes += length;
+			}
+		});
+		
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if (channel.size() >= (1L << 40))
+				throw new IllegalArgumentException("file is too large: " + path);
+			
+			reader.readFileChannel(channel, ReadMode.DIRECT_BUFFER, false);
+		}
+		
+		statistics.files = 1;
+		statistics.bytes = reader.offset;
+		return statistics;
+	}
+	
+	// every file is chunked on its own thread of the pool, file indexes are the indexes in the list
+	
+	public DedupStatistics scanFiles(List<Path> paths, DedupIndex index, int numberOfThreads) throws IOException
+	{
+		ForkJoinPool pool = new ForkJoinPool(Math.max(numberOfThreads, 1));
+		DedupStatistics total = new DedupStatistics();
+		
+		try
+		{
+			List<Future<DedupStatistics>> results = new ArrayList<>(paths.size());
+			for (int fileIndex = 0; fileIndex < paths.size(); fileIndex += 1)
+			{
+				Path path = paths.get(fileIndex);
+				int currentIndex = fileIndex;
+				results.add(pool.submit(() -> scanFile(path, currentIndex, index)));
+			}
+			
+			for (Future<DedupStatistics> result : results)
+				total.add(Tools.getFuture(result));
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+		return total;
+	}
+}
@@ -0,0 +1,107 @@
+package compression;
+
+import compression.SegmentedBuffer.DataCountBuffer;
+
+public class EntropyTools
+{
+	public static final double log2 = Math.log(2);
+	
+	public static double log2(double value)
+	{
+		return Math.log(value) / log2;
+	}
+	
+	// count * log2(count) of the small counts, which most cells of a large count table have
+	protected static final int countLogTableSize = 1 << 12;
+	protected static final double[] countLogTable = new double[countLogTableSize];
+	
+	static
+	{
+		for (int count = 1; count < countLogTableSize; count += 1)
+			countLogTable[count] = count * log2(count);
+	}
+	
+	public static double getCountLog(long count)
+	{
+		return (count < countLogTableSize) ? countLogTable[(int)count] : count * log2(count);
+	}
+	
+	public static long getTotalCount(long[] countArray, int length)
+	{
+		long total = 0;
+		for (int index = 0; index < length; index += 1)
+			total += countArray[index];
+		return total;
+	}
+	
+	// order-0 shannon entropy in bits per symbol
+	
+	public static double getEntropy(long[] countArray, int length, long total)
+	{
+		if (total == 0)
+			return 0;
+		
+		double sum = 0;
+		for (int index = 0; index < length; index += 1)
+		{
+			long count = countArray[index];
+			if (count != 0)
+				sum += getCountLog(count);
+		}
+		return Math.max(log2(total) - (sum / total), 0);
+	}
+	
+	public static double getEntropy(long[] countArray, int length)
+	{
+		return getEntropy(countArray, length, getTotalCount(countArray, length));
+	}
+	
+	public static double getEntropy(DataCountBuffer dataCountBuffer)
+	{
+		return getEntropy(dataCountBuffer.countArray, dataCountBuffer.length);
+	}
+	
+	// order-1 entropy in bits per symbol, the table holds one row of counts per context
+	
+	public static double getConditionalEntropy(long[] pairCountArray, int contextCount)
+	{
+		int rowLength = pairCountArray.length / contextCount;
+		long total = 0;
+		double sum = 0;
+		
+		for (int context = 0; context < contextCount; context += 1)
+		{
+			long rowTotal = 0;
+			for (int index = context * rowLength; index < (context + 1) * rowLength; index += 1)
+			{
+				long count = pairCountArray[index];
+				if (count != 0)
+				{
+					rowTotal += count;
+					sum -= getCountLog(count);
+				}
+			}
+			
+			if (rowTotal != 0)
+			{
+				total += rowTotal;
+				sum += getCountLog(rowTotal);
+			}
+		}
+		
+		return (total == 0) ? 0 : Math.max(sum / total, 0);
+	}
+	
+	// the smallest size in bytes an order-0 coder can reach, without the symbol table
+	
+	public static long getMinimumSize(double entropy, long symbolCount)
+	{
+		return (long)Math.ceil((entropy * symbolCount) / 8);
+	}
+	
+	public static double getDistinctRatio(int distinctCount, long symbolCount, int dataBits)
+	{
+		long possibleCount = (dataBits < Long.SIZE - 1) ? Math.min(1L << dataBits, symbolCount) : symbolCount;
+		return (possibleCount == 0) ? 0 : (double)distinctCount / possibleCount;
+	}
+}
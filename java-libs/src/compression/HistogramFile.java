@@ -0,0 +1,375 @@
+package compression;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import compression.SegmentedBuffer.DataCountBuffer;
+import library.FileTools;
+import library.types.LongCountTable;
+
+// saved symbol counts of a DataCountBuffer, so counts of earlier scans are added to new ones without reading the data
+// again. entries are sorted by symbol, which lets any number of files be merged in one pass with little memory.
+//
+// header: magic, data bits, entry count, total count
+// entry:  symbol (big endian, as in DataCountBuffer.dataBuffer), count
+
+public class HistogramFile
+{
+	public static final int magic = 0x53484631; // "SHF1"
+	public static final int headerSize = 2 * Integer.BYTES + 2 * Long.BYTES;
+	public static final int bufferSize = 1 << 16;
+	
+	public static class InvalidHistogramException extends IOException
+	{
+		private static final long serialVersionUID = 3915472086251739810L;
+		
+		public InvalidHistogramException(String message)
+		{
+			super(message);
+		}
+	}
+	
+	public static int getEntrySize(int dataBits)
+	{
+		return SegmentedBuffer.getBytePerBit(dataBits) + Long.BYTES;
+	}
+	
+	// writes entries in ascending symbol order, the header is written by close()
+	
+	public static class Writer implements Closeable
+	{
+		public int dataBits;
+		public int dataSize;
+		
+		public long entryCount;
+		public long totalCount;
+		
+		protected FileChannel channel;
+		protected ByteBuffer buffer;
+		protected long position;
+		
+		public Writer(Path path, int dataBits) throws IOException
+		{
+			if (dataBits <= 0)
+				throw new IllegalArgumentException("invalid data bits: " + dataBits);
+			
+			this.dataBits = dataBits;
+			this.dataSize = SegmentedBuffer.getBytePerBit(dataBits);
+			
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			this.buffer = ByteBuffer.allocate(bufferSize - (bufferSize % getEntrySize(dataBits)));
+			this.position = headerSize;
+		}
+		
+		protected void flush() throws IOException
+		{
+			buffer.flip();
+			FileTools.writeFully(channel, buffer, position);
+			position += buffer.limit();
+			buffer.clear();
+		}
+		
+		public void add(byte[] symbol, int offset, long count) throws IOException
+		{
+			if (buffer.remaining() < dataSize + Long.BYTES)
+				flush();
+			
+			buffer.put(symbol, offset, dataSize);
+			buffer.putLong(count);
+			
+			entryCount += 1;
+			totalCount += count;
+		}
+		
+		// adds a symbol that fits in a long
+		
+		public void add(long symbol, long count) throws IOException
+		{
+			if (buffer.remaining() < dataSize + Long.BYTES)
+				flush();
+			
+			for (int shift = (dataSize - 1) * 8; shift >= 0; shift -= 8)
+				buffer.put((byte)(symbol >>> shift));
+			buffer.putLong(count);
+			
+			entryCount += 1;
+			totalCount += count;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			if (channel == null)
+				return;
+			
+			try
+			{
+				flush();
+				
+				ByteBuffer header = ByteBuffer.allocate(headerSize);
+				header.putInt(magic);
+				header.putInt(dataBits);
+				header.putLong(entryCount);
+				header.putLong(totalCount);
+				header.flip();
+				FileTools.writeFully(channel, header, 0);
+			}
+			finally
+			{
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+	
+	// reads the entries of a file one by one, symbol and count hold the current entry after next() returned true
+	
+	public static class Reader implements Closeable
+	{
+		public Path path;
+		public int dataBits;
+		public int dataSize;
+		
+		public long entryCount;
+		public long totalCount;
+		
+		public byte[] symbol;
+		public long count;
+		
+		protected FileChannel channel;
+		protected ByteBuffer buffer;
+		protected long position;
+		protected long entryIndex;
+		
+		public Reader(Path path) throws IOException
+		{
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+			
+			try
+			{
+				if (channel.size() < headerSize)
+					throw new InvalidHistogramException("file is too small: " + path);
+				
+				ByteBuffer header = ByteBuffer.allocate(headerSize);
+				FileTools.readFully(channel, header, 0);
+				header.flip();
+				
+				if (header.getInt() != magic)
+					throw new InvalidHistogramException("not a histogram file: " + path);
+				
+				this.dataBits = header.getInt();
+				this.entryCount = header.getLong();
+				this.totalCount = header.getLong();
+				
+				if (dataBits <= 0)
+					throw new InvalidHistogramException("invalid data bits: " + dataBits);
+				if ((entryCount < 0) || (channel.size() != headerSize + entryCount * getEntrySize(dataBits)))
+					throw new InvalidHistogramException("invalid entry count: " + entryCount);
+			}
+			catch (IOException e)
+			{
+				channel.close();
+				throw e;
+			}
+			
+			this.dataSize = SegmentedBuffer.getBytePerBit(dataBits);
+			this.symbol = new byte[dataSize];
+			this.buffer = ByteBuffer.allocate(bufferSize - (bufferSize % getEntrySize(dataBits)));
+			this.buffer.limit(0);
+			this.position = headerSize;
+		}
+		
+		// symbols must be strictly ascending, an unsorted file would break merging
+		
+		public boolean next() throws IOException
+		{
+			if (entryIndex == entryCount)
+				return false;
+			
+			if (!buffer.hasRemaining())
+			{
+				buffer.clear();
+				buffer.limit((int)Math.min(buffer.capacity(), (entryCount - entryIndex) * getEntrySize(dataBits)));
+				FileTools.readFully(channel, buffer, position);
+				position += buffer.limit();
+				buffer.flip();
+			}
+			
+			int offset = buffer.position();
+			if ((entryIndex != 0) && (Arrays.compareUnsigned(buffer.array(), offset, offset + dataSize, symbol, 0, dataSize) <= 0))
+				throw new InvalidHistogramException("unsorted histogram file: " + path);
+			
+			buffer.get(symbol);
+			count = buffer.getLong();
+			entryIndex += 1;
+			return true;
+		}
+		
+		public long getSymbol()
+		{
+			long value = 0;
+			for (byte symbolByte : symbol)
+				value = (value << 8) | (symbolByte & 0xFF);
+			return value;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+	}
+	
+	// hash table keys in unsigned order, which is the order of their big endian bytes
+	
+	protected static long[] getSortedKeys(LongCountTable table)
+	{
+		long[] keys = new long[table.length];
+		int index = 0;
+		for (int slot = 0; slot < table.capacity; slot += 1)
+			if (table.counts[slot] != 0)
+				keys[index++] = table.keys[slot] ^ Long.MIN_VALUE;
+		
+		Arrays.sort(keys);
+		for (index = 0; index < keys.length; index += 1)
+			keys[index] ^= Long.MIN_VALUE;
+		return keys;
+	}
+	
+	public static void write(DataCountBuffer buffer, Path path) throws IOException
+	{
+		try (Writer writer = new Writer(path, buffer.dataBits))
+		{
+			if (DataCountBuffer.isDenseBits(buffer.dataBits))
+			{
+				for (int value = 0; value < (1 << buffer.dataBits); value += 1)
+					if (buffer.denseCountArray[value] != 0)
+						writer.add(value, buffer.denseCountArray[value]);
+			}
+			else if (DataCountBuffer.isHashBits(buffer.dataBits))
+			{
+				for (long key : getSortedKeys(buffer.hashCountTable))
+					writer.add(key, buffer.hashCountTable.get(key));
+			}
+			else
+			{
+				int dataSize = buffer.dataSize;
+				byte[] dataBuffer = buffer.dataBuffer;
+				
+				Integer[] order = new Integer[buffer.length];
+				for (int index = 0; index < order.length; index += 1)
+					order[index] = index;
+				Arrays.sort(order, (first, second) -> Arrays.compareUnsigned(dataBuffer, first * dataSize, (first + 1) * dataSize,
+						dataBuffer, second * dataSize, (second + 1) * dataSize));
+				
+				for (int index : order)
+					writer.add(dataBuffer, index * dataSize, buffer.countArray[index]);
+			}
+		}
+	}
+	
+	// adds the counts of a file to a buffer with the same data bits, symbols that do not fit in them are a format error
+	
+	public static void read(Path path, DataCountBuffer buffer) throws IOException
+	{
+		try (Reader reader = new Reader(path))
+		{
+			if (reader.dataBits != buffer.dataBits)
+				throw new IllegalArgumentException("different data bits: " + buffer.dataBits + ", " + reader.dataBits);
+			
+			while (reader.next())
+			{
+				if (DataCountBuffer.isDenseBits(buffer.dataBits) || DataCountBuffer.isHashBits(buffer.dataBits))
+				{
+					long symbol = reader.getSymbol();
+					if ((buffer.dataBits < Long.SIZE) && ((symbol >>> buffer.dataBits) != 0))
+						throw new InvalidHistogramException("symbol out of range: " + Long.toHexString(symbol) + " in " + path);
+					
+					if (DataCountBuffer.isDenseBits(buffer.dataBits))
+						buffer.denseCountArray[(int)symbol] += reader.count;
+					else
+						buffer.hashCountTable.add(symbol, reader.count);
+				}
+				else
+					buffer.addDataCount(reader.symbol, 0, reader.count);
+			}
+			buffer.updateDataCount();
+		}
+	}
+	
+	// k-way merge of sorted files, the output may be one of the inputs. returns the number of entries written.
+	
+	public static long merge(List<Path> inputs, Path output) throws IOException
+	{
+		if (inputs.isEmpty())
+			throw new IllegalArgumentException("no histogram files");
+		
+		List<Reader> readers = new ArrayList<>();
+		Path temporary = output.resolveSibling(output.getFileName() + ".tmp");
+		
+		try
+		{
+			for (Path input : inputs)
+				readers.add(new Reader(input));
+			
+			int dataBits = readers.get(0).dataBits;
+			for (Reader reader : readers)
+				if (reader.dataBits != dataBits)
+					throw new IllegalArgumentException("different data bits: " + dataBits + ", " + reader.dataBits + " in " + reader.path);
+			
+			PriorityQueue<Reader> queue = new PriorityQueue<>(readers.size(), (first, second) -> Arrays.compareUnsigned(first.symbol, second.symbol));
+			for (Reader reader : readers)
+				if (reader.next())
+					queue.add(reader);
+			
+			long entryCount;
+			try (Writer writer = new Writer(temporary, dataBits))
+			{
+				byte[] symbol = new byte[writer.dataSize];
+				while (!queue.isEmpty())
+				{
+					Reader reader = queue.poll();
+					System.arraycopy(reader.symbol, 0, symbol, 0, symbol.length);
+					long count = 0;
+					
+					while (true)
+					{
+						count += reader.count;
+						if (reader.next())
+							queue.add(reader);
+						
+						if (queue.isEmpty() || !Arrays.equals(queue.peek().symbol, symbol))
+							break;
+						reader = queue.poll();
+					}
+					writer.add(symbol, 0, count);
+				}
+				entryCount = writer.entryCount;
+			}
+			
+			for (Reader reader : readers)
+				reader.close();
+			readers.clear();
+			
+			Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return entryCount;
+		}
+		finally
+		{
+			for (Reader reader : readers)
+				reader.close();
+			Files.deleteIfExists(temporary);
+		}
+	}
+}
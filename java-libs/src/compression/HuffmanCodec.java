@@ -0,0 +1,581 @@
+package compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import compression.SegmentedBuffer.DataCountBuffer;
+import library.types.SizeManager;
+
+// canonical huffman code for symbols of 1 to 16 bits, built from the counts of a DataCountBuffer.
+// the decoder looks up tableBits bits at once and gets one or two whole symbols from most lookups.
+
+public class HuffmanCodec
+{
+	public static final int maxDataBits = 16;
+	public static final int maxCodeLength = 24;
+	public static final int tableBits = 12;
+	
+	// decode table entry: [0, 2) symbol number, [2, 8) total length, [8, 14) first length, [16, 32) first symbol, [32, 48) second symbol
+	
+	protected static final int entryNumberMask = 0x3;
+	protected static final int entryTotalShift = 2;
+	protected static final int entryFirstShift = 8;
+	protected static final int entryLengthMask = 0x3F;
+	protected static final int entrySymbolShift = 16;
+	protected static final int entrySecondShift = 32;
+	protected static final int entrySymbolMask = 0xFFFF;
+	
+	public int dataBits;
+	public int alphabetSize;
+	
+	// by symbol value, a length of zero means the symbol is not used
+	public int[] codeLengths;
+	public int[] codes;
+	
+	public int symbolNumber;
+	public int maxLength;
+	
+	// used symbols ordered by code length then by value, codes of one length are consecutive
+	public int[] sortedSymbols;
+	public int[] lengthCount;
+	public int[] firstCode;
+	public int[] firstIndex;
+	
+	public long[] decodeTable;
+	
+	public HuffmanCodec(int dataBits, int[] codeLengths)
+	{
+		if ((dataBits < 1) || (dataBits > maxDataBits))
+			throw new IllegalArgumentException("unsupported data bits: " + dataBits);
+		if (codeLengths.length != (1 << dataBits))
+			throw new IllegalArgumentException("invalid code lengths size: " + codeLengths.length);
+		
+		this.dataBits = dataBits;
+		this.alphabetSize = 1 << dataBits;
+		this.codeLengths = codeLengths;
+		
+		buildCodes();
+		buildDecodeTable();
+	}
+	
+	public static HuffmanCodec fromDataCount(DataCountBuffer dataCountBuffer)
+	{
+		return new HuffmanCodec(dataCountBuffer.dataBits,
+				getCodeLengths(dataCountBuffer.dataBits, dataCountBuffer.countArray, dataCountBuffer.dataBuffer, dataCountBuffer.length));
+	}
+	
+	public static int getSymbol(byte[] dataBuffer, int offset, int dataSize)
+	{
+		int symbol = 0;
+		for (int index = offset, end = offset + dataSize; index < end; index += 1)
+			symbol = (symbol << 8) | (dataBuffer[index] & 0xFF);
+		return symbol;
+	}
+	
+	// huffman code lengths limited to maxCodeLength, the symbols are read from dataBuffer like DataCountBuffer stores them
+	
+	public static int[] getCodeLengths(int dataBits, long[] countArray, byte[] dataBuffer, int length)
+	{
+		int dataSize = SegmentedBuffer.getBytePerBit(dataBits);
+		int[] codeLengths = new int[1 << dataBits];
+		
+		// count and symbol packed in one long, sorting them sorts the symbols by count
+		long[] sortArray = new long[length];
+		int number = 0;
+		
+		for (int index = 0; index < length; index += 1)
+		{
+			if (countArray[index] != 0)
+			{
+				if (countArray[index] >= (1L << (Long.SIZE - 1 - maxDataBits)))
+					throw new ArithmeticException("count overflow: " + countArray[index]);
+				
+				sortArray[number] = (countArray[index] << maxDataBits) | getSymbol(dataBuffer, index * dataSize, dataSize);
+				number += 1;
+			}
+		}
+		
+		if (number == 0)
+			return codeLengths;
+		if (number == 1)
+		{
+			codeLengths[(int)(sortArray[0] & entrySymbolMask)] = 1;
+			return codeLengths;
+		}
+		
+		Arrays.sort(sortArray, 0, number);
+		
+		// leaves and inner nodes are both taken in increasing weight order from two queues
+		int nodeNumber = 2 * number - 1;
+		long[] weights = new long[nodeNumber];
+		int[] parents = new int[nodeNumber];
+		
+		for (int index = 0; index < number; index += 1)
+			weights[index] = sortArray[index] >>> maxDataBits;
+		
+		int leaf = 0;
+		int node = number;
+		for (int next = number; next < nodeNumber; next += 1)
+		{
+			int first = ((leaf < number) && ((node == next) || (weights[leaf] <= weights[node]))) ? leaf++ : node++;
+			int second = ((leaf < number) && ((node == next) || (weights[leaf] <= weights[node]))) ? leaf++ : node++;
+			
+			weights[next] = weights[first] + weights[second];
+			parents[first] = next;
+			parents[second] = next;
+		}
+		
+		int[] depths = new int[nodeNumber];
+		for (int index = nodeNumber - 2; index >= 0; index -= 1)
+			depths[index] = depths[parents[index]] + 1;
+		
+		// clamp the long codes, then lengthen the least frequent short codes until the kraft sum fits again
+		long kraftLimit = 1L << maxCodeLength;
+		long kraft = 0;
+		
+		for (int index = 0; index < number; index += 1)
+		{
+			depths[index] = Math.min(depths[index], maxCodeLength);
+			kraft += 1L << (maxCodeLength - depths[index]);
+		}
+		
+		int index = 0;
+		while (kraft > kraftLimit)
+		{
+			if (depths[index] < maxCodeLength)
+			{
+				depths[index] += 1;
+				kraft -= 1L << (maxCodeLength - depths[index]);
+			}
+			else
+				index += 1;
+		}
+		
+		for (index = 0; index < number; index += 1)
+			codeLengths[(int)(sortArray[index] & entrySymbolMask)] = depths[index];
+		
+		return codeLengths;
+	}
+	
+	protected void buildCodes()
+	{
+		this.lengthCount = new int[maxCodeLength + 1];
+		this.symbolNumber = 0;
+		this.maxLength = 0;
+		
+		for (int symbol = 0; symbol < this.alphabetSize; symbol += 1)
+		{
+			int length = this.codeLengths[symbol];
+			if ((length < 0) || (length > maxCodeLength))
+				throw new IllegalArgumentException("invalid code length: " + length);
+			
+			if (length != 0)
+			{
+				this.lengthCount[length] += 1;
+				this.symbolNumber += 1;
+				this.maxLength = Math.max(this.maxLength, length);
+			}
+		}
+		
+		this.firstCode = new int[maxCodeLength + 1];
+		this.firstIndex = new int[maxCodeLength + 1];
+		
+		int code = 0;
+		int index = 0;
+		for (int length = 1; length <= maxCodeLength; length += 1)
+		{
+			code = (code + this.lengthCount[length - 1]) << 1;
+			
+			this.firstCode[length] = code;
+			this.firstIndex[length] = index;
+			
+			if ((long)code + this.lengthCount[length] > (1L << length))
+				throw new IllegalArgumentException("code lengths are over-subscribed");
+			
+			index += this.lengthCount[length];
+		}
+		
+		this.codes = new int[this.alphabetSize];
+		this.sortedSymbols = new int[this.symbolNumber];
+		
+		int[] nextIndex = Arrays.copyOf(this.firstIndex, this.firstIndex.length);
+		for (int symbol = 0; symbol < this.alphabetSize; symbol += 1)
+		{
+			int length = this.codeLengths[symbol];
+			if (length != 0)
+			{
+				this.codes[symbol] = this.firstCode[length] + (nextIndex[length] - this.firstIndex[length]);
+				this.sortedSymbols[nextIndex[length]] = symbol;
+				nextIndex[length] += 1;
+			}
+		}
+	}
+	
+	protected void buildDecodeTable()
+	{
+		int tableSize = 1 << tableBits;
+		long[] singleTable = new long[tableSize];
+		
+		for (int symbol = 0; symbol < this.alphabetSize; symbol += 1)
+		{
+			int length = this.codeLengths[symbol];
+			if ((length != 0) && (length <= tableBits))
+			{
+				long entry = 1 | (length << entryTotalShift) | (length << entryFirstShift) | ((long)symbol << entrySymbolShift);
+				
+				int start = this.codes[symbol] << (tableBits - length);
+				Arrays.fill(singleTable, start, start + (1 << (tableBits - length)), entry);
+			}
+		}
+		
+		this.decodeTable = new long[tableSize];
+		
+		for (int index = 0; index < tableSize; index += 1)
+		{
+			long entry = singleTable[index];
+			if (entry != 0)
+			{
+				int firstLength = (int)(entry >>> entryFirstShift) & entryLengthMask;
+				long secondEntry = singleTable[(index << firstLength) & (tableSize - 1)];
+				int secondLength = (int)(secondEntry >>> entryFirstShift) & entryLengthMask;
+				
+				if ((secondEntry != 0) && (firstLength + secondLength <= tableBits))
+				{
+					entry = 2 | ((firstLength + secondLength) << entryTotalShift) | (firstLength << entryFirstShift)
+							| (((secondEntry >>> entrySymbolShift) & entrySymbolMask) << entrySecondShift)
+							| (entry & ((long)entrySymbolMask << entrySymbolShift));
+				}
+			}
+			this.decodeTable[index] = entry;
+		}
+	}
+	
+	public long getEncodedBits(DataCountBuffer dataCountBuffer)
+	{
+		long bits = 0;
+		for (int index = 0; index < dataCountBuffer.length; index += 1)
+		{
+			int symbol = getSymbol(dataCountBuffer.dataBuffer, index * dataCountBuffer.dataSize, dataCountBuffer.dataSize);
+			bits += dataCountBuffer.countArray[index] * this.codeLengths[symbol];
+		}
+		return bits;
+	}
+	
+	// every symbol of the input must have a code
+	
+	public void encode(BitReader reader, BitWriter writer, long symbolCount)
+	{
+		int[] codes = this.codes;
+		int[] codeLengths = this.codeLengths;
+		
+		for (long index = 0; index < symbolCount; index += 1)
+		{
+			int symbol = (int)reader.readBits(this.dataBits);
+			writer.writeBits(codes[symbol], codeLengths[symbol]);
+		}
+	}
+	
+	public void encodeBytes(ByteBuffer buffer, BitWriter writer)
+	{
+		int[] codes = this.codes;
+		int[] codeLengths = this.codeLengths;
+		
+		// the writer state is kept in locals, whole bytes are written once more than 40 bits are pending
+		ByteBuffer target = writer.buffer;
+		long bitBuffer = writer.bitBuffer;
+		int bitCount = writer.bitCount;
+		int position = writer.position;
+		int limit = writer.limit - Long.BYTES;
+		
+		for (int index = buffer.position(); index < buffer.limit(); index += 1)
+		{
+			if (bitCount > 40)
+			{
+				int bytes = bitCount >>> 3;
+				if (position <= limit)
+				{
+					target.putLong(position, bitBuffer);
+					position += bytes;
+					bitBuffer <<= bytes << 3;
+					bitCount -= bytes << 3;
+				}
+				else
+				{
+					writer.bitBuffer = bitBuffer;
+					writer.bitCount = bitCount;
+					writer.position = position;
+					
+					writer.flushBytes();
+					
+					bitBuffer = writer.bitBuffer;
+					bitCount = writer.bitCount;
+					position = writer.position;
+				}
+			}
+			
+			int symbol = buffer.get(index) & 0xFF;
+			int length = codeLengths[symbol];
+			bitBuffer |= (long)codes[symbol] << (Long.SIZE - bitCount - length);
+			bitCount += length;
+		}
+		
+		writer.bitBuffer = bitBuffer;
+		writer.bitCount = bitCount;
+		writer.position = position;
+	}
+	
+	protected int decodeLongSymbol(BitReader reader)
+	{
+		long bits = reader.peekBits(this.maxLength);
+		
+		for (int length = tableBits + 1; length <= this.maxLength; length += 1)
+		{
+			int offset = (int)(bits >>> (this.maxLength - length)) - this.firstCode[length];
+			if (offset < this.lengthCount[length])
+			{
+				reader.skipBits(length);
+				return this.sortedSymbols[this.firstIndex[length] + offset];
+			}
+		}
+		throw new IllegalArgumentException("invalid huffman code");
+	}
+	
+	public int decodeSymbol(BitReader reader)
+	{
+		long entry = this.decodeTable[(int)reader.peekBits(tableBits)];
+		if (entry == 0)
+			return decodeLongSymbol(reader);
+		
+		reader.skipBits((int)(entry >>> entryFirstShift) & entryLengthMask);
+		return (int)(entry >>> entrySymbolShift) & entrySymbolMask;
+	}
+	
+	public void decode(BitReader reader, BitWriter writer, long symbolCount)
+	{
+		for (long index = 0; index < symbolCount; index += 1)
+			writer.writeBits(decodeSymbol(reader), this.dataBits);
+	}
+	
+	// decodes symbolCount byte symbols at the buffer position and moves the position after them
+	
+	public void decodeBytes(BitReader reader, ByteBuffer buffer, int symbolCount)
+	{
+		long[] decodeTable = this.decodeTable;
+		
+		byte[] array = buffer.hasArray() ? buffer.array() : new byte[symbolCount];
+		int start = buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : 0;
+		int end = start + symbolCount;
+		int index = start;
+		
+		// the reader state is kept in locals, after a refill there are at least 57 bits which is enough for 4 lookups
+		ByteBuffer source = reader.buffer;
+		long bitBuffer = reader.bitBuffer;
+		int bitCount = reader.bitCount;
+		int position = reader.position;
+		int limit = reader.limit - Long.BYTES;
+		
+		while ((index < end - 8) && (position <= limit))
+		{
+			bitBuffer |= source.getLong(position) >>> bitCount;
+			int bytes = (63 - bitCount) >>> 3;
+			position += bytes;
+			bitCount += bytes << 3;
+			
+			for (int lookup = 0; lookup < 4; lookup += 1)
+			{
+				long entry = decodeTable[(int)(bitBuffer >>> (Long.SIZE - tableBits))];
+				if (entry == 0)
+				{
+					reader.bitBuffer = bitBuffer;
+					reader.bitCount = bitCount;
+					reader.position = position;
+					
+					array[index] = (byte)decodeLongSymbol(reader);
+					index += 1;
+					
+					bitBuffer = reader.bitBuffer;
+					bitCount = reader.bitCount;
+					position = reader.position;
+					break;
+				}
+				
+				int length = (int)(entry >>> entryTotalShift) & entryLengthMask;
+				bitBuffer <<= length;
+				bitCount -= length;
+				
+				// the second byte is always written, a one symbol entry leaves it to be overwritten
+				array[index] = (byte)(entry >>> entrySymbolShift);
+				array[index + 1] = (byte)(entry >>> entrySecondShift);
+				index += (int)entry & entryNumberMask;
+			}
+		}
+		
+		reader.bitBuffer = bitBuffer;
+		reader.bitCount = bitCount;
+		reader.position = position;
+		
+		while (index < end)
+		{
+			array[index] = (byte)decodeSymbol(reader);
+			index += 1;
+		}
+		
+		if (buffer.hasArray())
+			buffer.position(buffer.position() + symbolCount);
+		else
+			buffer.put(array);
+	}
+	
+	// table: data bits, then a length per symbol for up to 8 bits, or the used symbols with their lengths for wider symbols
+	
+	public int getTableSize()
+	{
+		return 1 + ((this.dataBits <= Byte.SIZE) ? this.alphabetSize : Integer.BYTES + this.symbolNumber * 3);
+	}
+	
+	public void writeTable(ByteBuffer buffer)
+	{
+		buffer.put((byte)this.dataBits);
+		
+		if (this.dataBits <= Byte.SIZE)
+		{
+			for (int symbol = 0; symbol < this.alphabetSize; symbol += 1)
+				buffer.put((byte)this.codeLengths[symbol]);
+		}
+		else
+		{
+			buffer.putInt(this.symbolNumber);
+			for (int symbol = 0; symbol < this.alphabetSize; symbol += 1)
+			{
+				if (this.codeLengths[symbol] != 0)
+				{
+					buffer.putShort((short)symbol);
+					buffer.put((byte)this.codeLengths[symbol]);
+				}
+			}
+		}
+	}
+	
+	public static HuffmanCodec readTable(ByteBuffer buffer)
+	{
+		int dataBits = buffer.get();
+		if ((dataBits < 1) || (dataBits > maxDataBits))
+			throw new IllegalArgumentException("invalid data bits: " + dataBits);
+		
+		int[] codeLengths = new int[1 << dataBits];
+		
+		if (dataBits <= Byte.SIZE)
+		{
+			for (int symbol = 0; symbol < codeLengths.length; symbol += 1)
+				codeLengths[symbol] = buffer.get();
+		}
+		else
+		{
+			int symbolNumber = buffer.getInt();
+			if ((symbolNumber < 0) || (symbolNumber > codeLengths.length))
+				throw new IllegalArgumentException("invalid symbol number: " + symbolNumber);
+			
+			for (int index = 0; index < symbolNumber; index += 1)
+			{
+				int symbol = buffer.getShort() & 0xFFFF;
+				if (symbol >= codeLengths.length)
+					throw new IllegalArgumentException("invalid symbol: " + symbol);
+				codeLengths[symbol] = buffer.get();
+			}
+		}
+		return new HuffmanCodec(dataBits, codeLengths);
+	}
+	
+	// stream: table, original size as a long, then the codes followed by the bits of a last partial symbol
+	
+	public static int getCompressedSize(HuffmanCodec codec, DataCountBuffer dataCountBuffer, long originalSize)
+	{
+		long tailBits = (originalSize * 8) % codec.dataBits;
+		long bits = codec.getEncodedBits(dataCountBuffer) + tailBits;
+		
+		return Math.toIntExact(codec.getTableSize() + Long.BYTES + ((bits + 7) / 8));
+	}
+	
+	public void compress(ByteBuffer input, ByteBuffer output)
+	{
+		long originalSize = input.remaining();
+		long symbolCount = (originalSize * 8) / this.dataBits;
+		int tailBits = (int)((originalSize * 8) % this.dataBits);
+		
+		writeTable(output);
+		output.putLong(originalSize);
+		
+		BitWriter writer = new BitWriter(output);
+		BitReader reader = new BitReader(input);
+		
+		if (this.dataBits == Byte.SIZE)
+			encodeBytes(input, writer);
+		else
+		{
+			encode(reader, writer, symbolCount);
+			if (tailBits != 0)
+				writer.writeBits(reader.readBits(tailBits), tailBits);
+		}
+		
+		writer.flush();
+		output.position(writer.position);
+	}
+	
+	public static ByteBuffer compress(ByteBuffer input, int dataBits)
+	{
+		DataCountBuffer dataCountBuffer = new DataCountBuffer(SizeManager.defaultSizeManager, 1 << dataBits, dataBits);
+		dataCountBuffer.scanBuffer(input);
+		
+		HuffmanCodec codec = fromDataCount(dataCountBuffer);
+		ByteBuffer output = ByteBuffer.allocate(getCompressedSize(codec, dataCountBuffer, input.remaining()));
+		
+		codec.compress(input, output);
+		output.flip();
+		return output;
+	}
+	
+	public static long getOriginalSize(ByteBuffer input)
+	{
+		ByteBuffer buffer = input.duplicate();
+		readTable(buffer);
+		return buffer.getLong();
+	}
+	
+	// decompresses at the output position and moves both positions after the data they hold
+	
+	public static void decompress(ByteBuffer input, ByteBuffer output)
+	{
+		HuffmanCodec codec = readTable(input);
+		long originalSize = input.getLong();
+		
+		if (originalSize > output.remaining())
+			throw new IllegalArgumentException("output is too small: " + output.remaining() + " < " + originalSize);
+		
+		long symbolCount = (originalSize * 8) / codec.dataBits;
+		int tailBits = (int)((originalSize * 8) % codec.dataBits);
+		
+		BitReader reader = new BitReader(input);
+		
+		if (codec.dataBits == Byte.SIZE)
+			codec.decodeBytes(reader, output, (int)symbolCount);
+		else
+		{
+			BitWriter writer = new BitWriter(output);
+			codec.decode(reader, writer, symbolCount);
+			if (tailBits != 0)
+				writer.writeBits(reader.readBits(tailBits), tailBits);
+			writer.flush();
+			output.position(writer.position);
+		}
+		
+		input.position(reader.position - (reader.bitCount >>> 3));
+	}
+	
+	public static ByteBuffer decompress(ByteBuffer input)
+	{
+		ByteBuffer output = ByteBuffer.allocate(Math.toIntExact(getOriginalSize(input)));
+		decompress(input, output);
+		output.flip();
+		return output;
+	}
+}
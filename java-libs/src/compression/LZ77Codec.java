@@ -0,0 +1,440 @@
+package compression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// lz77 compressor with a hash chain match finder over a sliding window of up to 1 MiB.
+//
+// the data is a list of sequences, each a run of literals followed by a match:
+//   token          high 4 bits literal length, low 4 bits match length - minMatchLength, 15 means more length follows
+//   [length]       literal length - 15 as bytes of 255 ending with a smaller byte
+//   literals
+//   offset         3 bytes, little endian
+//   [length]       match length - minMatchLength - 15, as above
+// the last sequence has only literals and ends exactly at the original size.
+
+public class LZ77Codec
+{
+	// a match of 4 bytes costs as much as its literals, so matches start at 5 bytes. positions are hashed on 4 bytes.
+	public static final int minMatchLength = 5;
+	public static final int minWindowBits = 10;
+	public static final int maxWindowBits = 20;
+	public static final int hashBits = 16;
+	
+	public static final int minLevel = 1;
+	public static final int maxLevel = 9;
+	public static final int defaultLevel = 6;
+	
+	// chain length, nice length, good length and lazy matching of each level.
+	// a lazy search after a match of good length or more walks only a quarter of the chain.
+	protected static final int[] levelChainLengths = { 4, 8, 16, 16, 32, 64, 256, 1024, 4096 };
+	protected static final int[] levelNiceLengths = { 16, 32, 64, 64, 128, 128, 256, 1024, 65536 };
+	protected static final int[] levelGoodLengths = { 4, 4, 4, 8, 8, 8, 16, 32, 32 };
+	protected static final boolean[] levelLazy = { false, false, false, true, true, true, true, true, true };
+	
+	// the faster levels step further after every 2 ^ shift positions without a match, to cross incompressible data
+	protected static final int[] levelSkipShifts = { 5, 6, 7, 31, 31, 31, 31, 31, 31 };
+	
+	// the chain table of the faster levels stays in the cache, the window only reaches 1 MiB at the top levels
+	protected static final int[] levelWindowBits = { 16, 16, 17, 17, 18, 18, 20, 20, 20 };
+	
+	// word access to byte arrays, little endian so the first different byte of two words is at the lowest set bit
+	protected static final VarHandle intView = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	protected static final VarHandle longView = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	
+	public int level;
+	public int windowBits;
+	public int windowSize;
+	
+	public int maxChainLength;
+	public int niceLength;
+	public int goodLength;
+	public boolean lazy;
+	public int skipShift;
+	
+	protected int[] head;
+	protected int[] chain;
+	protected int chainMask;
+	
+	protected byte[] input;
+	protected byte[] output;
+	protected int outputPosition;
+	
+	protected int matchLength;
+	protected int matchOffset;
+	protected int matchHash;
+	
+	public LZ77Codec(int level, int windowBits)
+	{
+		if ((level < minLevel) || (level > maxLevel))
+			throw new IllegalArgumentException("invalid level: " + level);
+		if ((windowBits < minWindowBits) || (windowBits > maxWindowBits))
+			throw new IllegalArgumentException("invalid window bits: " + windowBits);
+		
+		this.level = level;
+		this.windowBits = windowBits;
+		this.windowSize = 1 << windowBits;
+		
+		this.maxChainLength = levelChainLengths[level - 1];
+		this.niceLength = levelNiceLengths[level - 1];
+		this.goodLength = levelGoodLengths[level - 1];
+		this.lazy = levelLazy[level - 1];
+		this.skipShift = levelSkipShifts[level - 1];
+		
+		this.head = new int[1 << hashBits];
+	}
+	
+	public LZ77Codec(int level)
+	{
+		this(level, levelWindowBits[Math.min(Math.max(level, minLevel), maxLevel) - 1]);
+	}
+	
+	public LZ77Codec()
+	{
+		this(defaultLevel);
+	}
+	
+	public static int getMaxCompressedSize(int size)
+	{
+		return Math.addExact(size, (size / 255) + 16);
+	}
+	
+	// match finder
+	
+	protected int hash(int position)
+	{
+		return ((int)intView.get(input, position) * 0x9E3779B1) >>> (Integer.SIZE - hashBits);
+	}
+	
+	protected void insert(int position, int hash)
+	{
+		chain[position & chainMask] = head[hash];
+		head[hash] = position;
+	}
+	
+	protected void insert(int position)
+	{
+		insert(position, hash(position));
+	}
+	
+	protected static int getMatchLength(byte[] array, int previous, int position, int end)
+	{
+		int length = 0;
+		
+		while (position + length + Long.BYTES <= end)
+		{
+			long difference = (long)longView.get(array, previous + length) ^ (long)longView.get(array, position + length);
+			if (difference != 0)
+				return length + (Long.numberOfTrailingZeros(difference) >>> 3);
+			length += Long.BYTES;
+		}
+		
+		while ((position + length < end) && (array[previous + length] == array[position + length]))
+			length += 1;
+		return length;
+	}
+	
+	// sets matchLength and matchOffset to the longest match of the position in the window, and matchHash to its hash.
+	// a candidate is only compared in full when its 4 bytes ending at the best length so far match.
+	
+	protected void findMatch(byte[] array, int start, int position, int end, int chainLength)
+	{
+		int bestLength = minMatchLength - 1;
+		int bestOffset = 0;
+		
+		int lowest = Math.max(start, position - windowSize + 1);
+		matchHash = hash(position);
+		int candidate = head[matchHash];
+		
+		while ((candidate >= lowest) && (candidate < position) && (chainLength-- > 0))
+		{
+			if ((position + bestLength < end) && ((int)intView.get(array, candidate + bestLength - 3) == (int)intView.get(array, position + bestLength - 3)))
+			{
+				int length = getMatchLength(array, candidate, position, end);
+				if (length > bestLength)
+				{
+					bestLength = length;
+					bestOffset = position - candidate;
+					
+					if (length >= niceLength)
+						break;
+				}
+			}
+			
+			int next = chain[candidate & chainMask];
+			if (next >= candidate)
+				break;
+			candidate = next;
+		}
+		
+		matchLength = (bestOffset == 0) ? 0 : bestLength;
+		matchOffset = bestOffset;
+	}
+	
+	// sequences
+	
+	protected void putLength(int length)
+	{
+		while (length >= 255)
+		{
+			output[outputPosition++] = (byte)255;
+			length -= 255;
+		}
+		output[outputPosition++] = (byte)length;
+	}
+	
+	protected void putSequence(byte[] array, int literalStart, int literalLength, int length, int offset)
+	{
+		int matchCode = (length == 0) ? 0 : length - minMatchLength;
+		output[outputPosition++] = (byte)((Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15));
+		
+		if (literalLength >= 15)
+			putLength(literalLength - 15);
+		
+		System.arraycopy(array, literalStart, output, outputPosition, literalLength);
+		outputPosition += literalLength;
+		
+		if (length == 0)
+			return;
+		
+		output[outputPosition++] = (byte)offset;
+		output[outputPosition++] = (byte)(offset >>> 8);
+		output[outputPosition++] = (byte)(offset >>> 16);
+		
+		if (matchCode >= 15)
+			putLength(matchCode - 15);
+	}
+	
+	// compresses array[start, end) into output from outputStart, which must have getMaxCompressedSize bytes.
+	// returns the end of the compressed data.
+	
+	public int compress(byte[] array, int start, int end, byte[] output, int outputStart)
+	{
+		int size = end - start;
+		int chainSize = Math.min(windowSize, Integer.highestOneBit(Math.max(size, 1) - 1 | 1) << 1);
+		
+		if ((chain == null) || (chain.length < chainSize))
+			chain = new int[chainSize];
+		chainMask = chain.length - 1;
+		Arrays.fill(head, Integer.MIN_VALUE);
+		
+		this.input = array;
+		this.output = output;
+		this.outputPosition = outputStart;
+		
+		int anchor = start;
+		int position = start;
+		int limit = end - minMatchLength;
+		int misses = 0;
+		
+		while (position < limit)
+		{
+			findMatch(array, start, position, end, maxChainLength);
+			insert(position, matchHash);
+			
+			if (matchLength < minMatchLength)
+			{
+				position += 1 + (misses++ >>> skipShift);
+				continue;
+			}
+			misses = 0;
+			
+			// lazy matching: a longer match at the next byte is worth a literal
+			if (lazy)
+			{
+				while ((matchLength < niceLength) && (position + 1 < limit))
+				{
+					int length = matchLength;
+					int offset = matchOffset;
+					
+					findMatch(array, start, position + 1, end, (length >= goodLength) ? (maxChainLength >>> 2) + 1 : maxChainLength);
+					if (matchLength > length)
+					{
+						position += 1;
+						insert(position, matchHash);
+					}
+					else
+					{
+						matchLength = length;
+						matchOffset = offset;
+						break;
+					}
+				}
+			}
+			
+			putSequence(array, anchor, position - anchor, matchLength, matchOffset);
+			
+			int matchEnd = position + matchLength;
+			for (int index = position + 1, insertEnd = Math.min(matchEnd, limit); index < insertEnd; index += 1)
+				insert(index);
+			
+			position = matchEnd;
+			anchor = position;
+		}
+		
+		putSequence(array, anchor, end - anchor, 0, 0);
+		
+		int compressedEnd = outputPosition;
+		this.input = null;
+		this.output = null;
+		return compressedEnd;
+	}
+	
+	// decompresses input[start, end) into output[outputStart, outputEnd), which is the exact original size.
+	// returns the end of the compressed data.
+	
+	public static int decompress(byte[] input, int start, int end, byte[] output, int outputStart, int outputEnd)
+	{
+		int position = start;
+		int outputPosition = outputStart;
+		
+		try
+		{
+			while (true)
+			{
+				int token = input[position++] & 0xFF;
+				
+				int literalLength = token >>> 4;
+				if (literalLength == 15)
+				{
+					int value;
+					do
+					{
+						value = input[position++] & 0xFF;
+						literalLength += value;
+					}
+					while (value == 255);
+				}
+				
+				if ((position + literalLength > end) || (outputPosition + literalLength > outputEnd))
+					throw new IllegalArgumentException("invalid literal length");
+				
+				System.arraycopy(input, position, output, outputPosition, literalLength);
+				position += literalLength;
+				outputPosition += literalLength;
+				
+				if (outputPosition == outputEnd)
+					break;
+				
+				int offset = (input[position] & 0xFF) | ((input[position + 1] & 0xFF) << 8) | ((input[position + 2] & 0xFF) << 16);
+				position += 3;
+				
+				int length = (token & 15) + minMatchLength;
+				if (length == 15 + minMatchLength)
+				{
+					int value;
+					do
+					{
+						value = input[position++] & 0xFF;
+						length += value;
+					}
+					while (value == 255);
+				}
+				
+				if ((offset == 0) || (offset > outputPosition - outputStart) || (outputPosition + length > outputEnd))
+					throw new IllegalArgumentException("invalid match");
+				
+				copyMatch(output, outputPosition, offset, length, outputEnd);
+				outputPosition += length;
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e)
+		{
+			throw new IllegalArgumentException("truncated lz77 data");
+		}
+		
+		return position;
+	}
+	
+	// copies with 8 byte loads, a load may overlap the bytes it copies as long as offset >= 8.
+	// a shorter offset is first written bytewise for 8 bytes, then copied from the nearest multiple of it.
+	
+	protected static void copyMatch(byte[] output, int position, int offset, int length, int outputEnd)
+	{
+		if (position + length + Long.BYTES > outputEnd)
+		{
+			for (int index = 0; index < length; index += 1)
+				output[position + index] = output[position + index - offset];
+			return;
+		}
+		
+		int index = 0;
+		int distance = offset;
+		
+		if (offset < Long.BYTES)
+		{
+			for (; index < Long.BYTES; index += 1)
+				output[position + index] = output[position + index - offset];
+			distance = offset * ((Long.BYTES + offset - 1) / offset);
+		}
+		
+		for (; index < length; index += Long.BYTES)
+			longView.set(output, position + index, (long)longView.get(output, position + index - distance));
+	}
+	
+	// stream: original size as a long, then the sequences
+	
+	public ByteBuffer compress(ByteBuffer input)
+	{
+		byte[] array;
+		int start;
+		int size = input.remaining();
+		
+		if (input.hasArray())
+		{
+			array = input.array();
+			start = input.arrayOffset() + input.position();
+		}
+		else
+		{
+			array = new byte[size];
+			input.duplicate().get(array);
+			start = 0;
+		}
+		
+		byte[] output = new byte[Long.BYTES + getMaxCompressedSize(size)];
+		ByteBuffer.wrap(output).putLong(size);
+		
+		int end = compress(array, start, start + size, output, Long.BYTES);
+		input.position(input.limit());
+		
+		return ByteBuffer.wrap(output, 0, end);
+	}
+	
+	public static ByteBuffer compress(ByteBuffer input, int level)
+	{
+		return new LZ77Codec(level).compress(input);
+	}
+	
+	public static ByteBuffer decompress(ByteBuffer input)
+	{
+		long originalSize = input.getLong();
+		if ((originalSize < 0) || (originalSize > Integer.MAX_VALUE - Long.BYTES))
+			throw new IllegalArgumentException("invalid original size: " + originalSize);
+		
+		byte[] array;
+		int start;
+		int size = input.remaining();
+		
+		if (input.hasArray())
+		{
+			array = input.array();
+			start = input.arrayOffset() + input.position();
+		}
+		else
+		{
+			array = new byte[size];
+			input.duplicate().get(array);
+			start = 0;
+		}
+		
+		byte[] output = new byte[(int)originalSize];
+		int end = decompress(array, start, start + size, output, 0, output.length);
+		
+		input.position(input.position() + (end - start));
+		return ByteBuffer.wrap(output);
+	}
+}
@@ -0,0 +1,399 @@
+package compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+
+import library.io.ByteBufferedReader;
+import library.types.CountMinSketch;
+import library.types.SpaceSavingTable;
+import library.types.SpaceSavingTable.Entry;
+
+// frequencies of n-grams of 1 to 8 bytes in a fixed memory: a count-min sketch answers the count of any n-gram
+// and a space-saving table guided by its estimates keeps the most frequent ones. the last n bytes are shifted into a long window, which
+// is an exact rolling key of the n-gram, and only that key is hashed.
+
+public class NGramSketch
+{
+	public static final int maxLength = Long.BYTES;
+	public static final int defaultTopCount = 256;
+	public static final long defaultMemorySize = 1 << 26; // 64 MiB
+	
+	public static class NGram
+	{
+		public byte[] data;
+		
+		// count is an upper bound, count - error a lower bound of the real count
+		public long count;
+		public long error;
+		
+		public NGram(byte[] data, long count, long error)
+		{
+			this.data = data;
+			this.count = count;
+			this.error = error;
+		}
+		
+		public String getText()
+		{
+			StringBuilder builder = new StringBuilder(data.length);
+			for (byte value : data)
+				builder.append(((value >= 0x20) && (value < 0x7F)) ? (char)value : '.');
+			return builder.toString();
+		}
+		
+		public String getHex()
+		{
+			StringBuilder builder = new StringBuilder(data.length * 2);
+			for (byte value : data)
+				builder.append(String.format("%02x", value & 0xFF));
+			return builder.toString();
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("%s  %-8s  count: %d, error: %d", getHex(), getText(), count, error);
+		}
+	}
+	
+	public int length;
+	public long keyMask;
+	
+	public CountMinSketch countSketch;
+	public SpaceSavingTable topTable;
+	
+	public long window;
+	public int windowLength;
+	
+	public NGramSketch(int length, CountMinSketch countSketch, SpaceSavingTable topTable)
+	{
+		if ((length < 1) || (length > maxLength))
+			throw new IllegalArgumentException("invalid n-gram length: " + length);
+		
+		this.length = length;
+		this.keyMask = (length == maxLength) ? -1L : ((1L << (length * 8)) - 1);
+		
+		this.countSketch = countSketch;
+		this.topTable = topTable;
+		
+		resetWindow();
+	}
+	
+	// the top table takes its share first, the rest of the memory goes to the count-min table
+	
+	public static NGramSketch fromMemory(int length, long memorySize, int topCount)
+	{
+		long sketchMemory = Math.max(memorySize - SpaceSavingTable.getMemorySize(topCount), 0);
+		
+		return new NGramSketch(length, CountMinSketch.fromMemory(sketchMemory, CountMinSketch.defaultDepth), new SpaceSavingTable(topCount));
+	}
+	
+	public NGramSketch copyShape()
+	{
+		return new NGramSketch(length, new CountMinSketch(countSketch.depth, countSketch.widthBits), new SpaceSavingTable(topTable.capacity));
+	}
+	
+	public long getMemorySize()
+	{
+		return countSketch.getMemorySize() + SpaceSavingTable.getMemorySize(topTable.capacity);
+	}
+	
+	// the next n-gram starts from scratch, as at the start of a file
+	
+	public void resetWindow()
+	{
+		window = 0;
+		windowLength = 0;
+	}
+	
+	// n-grams continue from the bytes of the previous call
+	
+	public void countBuffer(ByteBuffer buffer)
+	{
+		int start = buffer.position();
+		int end = buffer.limit();
+		
+		long key = window;
+		int filled = windowLength;
+		
+		CountMinSketch sketch = countSketch;
+		SpaceSavingTable table = topTable;
+		
+		for (int index = start; index < end; index += 1)
+		{
+			key = (key << 8) | (buffer.get(index) & 0xFF);
+			
+			if (filled < length - 1)
+			{
+				filled += 1;
+				continue;
+			}
+			
+			long gram = key & keyMask;
+			table.offer(gram, 1, sketch.addAndEstimate(gram, 1));
+		}
+		
+		window = key;
+		windowLength = filled;
+	}
+	
+	public void merge(NGramSketch other)
+	{
+		if (other.length != length)
+			throw new IllegalArgumentException("n-gram lengths differ");
+		
+		countSketch.merge(other.countSketch);
+		topTable.merge(other.topTable);
+	}
+	
+	public long getTotal()
+	{
+		return countSketch.total;
+	}
+	
+	public long estimate(long key)
+	{
+		return countSketch.estimate(key & keyMask);
+	}
+	
+	public byte[] getData(long key)
+	{
+		byte[] data = new byte[length];
+		for (int index = length - 1; index >= 0; index -= 1, key >>>= 8)
+			data[index] = (byte)key;
+		return data;
+	}
+	
+	// the top n-grams by count, the count-min estimate tightens the space-saving upper bound
+	
+	public NGram[] getTop(int count)
+	{
+		Entry[] entries = topTable.getEntries();
+		NGram[] top = new NGram[Math.min(count, entries.length)];
+		
+		for (int index = 0; index < top.length; index += 1)
+		{
+			Entry entry = entries[index];
+			long upperBound = Math.min(entry.count, countSketch.estimate(entry.key));
+			long lowerBound = Math.max(entry.count - entry.error, 0);
+			
+			top[index] = new NGram(getData(entry.key), upperBound, upperBound - Math.min(lowerBound, upperBound));
+		}
+		
+		Arrays.sort(top, (first, second) -> Long.compare(second.count, first.count));
+		return top;
+	}
+	
+	// counts a file block by block. with more than one consumer, blocks are gathered into chunks which are
+	// counted on a pool into one sketch per consumer, every chunk starts with the last length - 1 bytes before it.
+	// after finish() the reader can read more files, their n-grams are added to total.
+	
+	public static class NGramSketchReader extends ByteBufferedReader
+	{
+		public static final int defaultChunkSize = 1 << 22; // 4 MiB
+		
+		protected static class ChunkConsumer implements Runnable
+		{
+			public NGramSketch sketch;
+			public ByteBuffer chunk;
+			
+			public NGramSketchReader reader;
+			
+			public ChunkConsumer(NGramSketchReader reader, NGramSketch sketch, int chunkSize)
+			{
+				this.reader = reader;
+				this.sketch = sketch;
+				this.chunk = ByteBuffer.allocate(chunkSize);
+			}
+			
+			@Override
+			public void run()
+			{
+				try
+				{
+					chunk.flip();
+					sketch.resetWindow();
+					sketch.countBuffer(chunk);
+				}
+				catch (Throwable e)
+				{
+					reader.error = e;
+				}
+				finally
+				{
+					chunk.clear();
+					reader.freeConsumers.add(this);
+				}
+			}
+		}
+		
+		public int length;
+		public long memorySize;
+		public int topCount;
+		
+		public int numberOfConsumers;
+		public int chunkSize;
+		
+		public NGramSketch total;
+		public long bytes;
+		
+		protected byte[] tailArray;
+		protected int tailLength;
+		
+		protected ForkJoinPool pool;
+		protected ArrayBlockingQueue<ChunkConsumer> freeConsumers;
+		protected ChunkConsumer[] consumers;
+		protected ChunkConsumer currentConsumer;
+		protected volatile Throwable error;
+		
+		// the memory size is shared by the sketches of all consumers
+		
+		public NGramSketchReader(int length, long memorySize, int topCount, int numberOfConsumers, int chunkSize)
+		{
+			this.length = length;
+			this.memorySize = memorySize;
+			this.topCount = topCount;
+			
+			this.numberOfConsumers = Math.max(numberOfConsumers, 1);
+			this.chunkSize = Math.max(chunkSize, length * 2);
+			
+			init();
+		}
+		
+		public NGramSketchReader(int length, long memorySize, int topCount)
+		{
+			this(length, memorySize, topCount, 1, defaultChunkSize);
+		}
+		
+		public void init()
+		{
+			total = fromMemory(length, memorySize / numberOfConsumers, topCount);
+			bytes = 0;
+			
+			tailArray = new byte[length - 1];
+			tailLength = 0;
+			
+			error = null;
+			if (numberOfConsumers > 1)
+			{
+				consumers = new ChunkConsumer[numberOfConsumers];
+				freeConsumers = new ArrayBlockingQueue<>(numberOfConsumers);
+				for (int index = 0; index < numberOfConsumers; index += 1)
+				{
+					consumers[index] = new ChunkConsumer(this, (index == 0) ? total : total.copyShape(), chunkSize);
+					freeConsumers.add(consumers[index]);
+				}
+				currentConsumer = null;
+			}
+		}
+		
+		protected ChunkConsumer takeConsumer()
+		{
+			try
+			{
+				return freeConsumers.take();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while waiting for a chunk consumer", e);
+			}
+		}
+		
+		protected void checkError()
+		{
+			if (error != null)
+				throw new IllegalStateException("chunk consumer failed", error);
+		}
+		
+		protected void startChunk()
+		{
+			currentConsumer = takeConsumer();
+			currentConsumer.chunk.put(tailArray, 0, tailLength);
+		}
+		
+		protected void submitChunk()
+		{
+			// the tail of this chunk is the head of the next one
+			ByteBuffer chunk = currentConsumer.chunk;
+			tailLength = Math.min(chunk.position(), tailArray.length);
+			for (int index = 0; index < tailLength; index += 1)
+				tailArray[index] = chunk.get(chunk.position() - tailLength + index);
+			
+			pool.execute(currentConsumer);
+			currentConsumer = null;
+		}
+		
+		protected void readParallel(ByteBuffer buffer)
+		{
+			while (buffer.hasRemaining())
+			{
+				checkError();
+				
+				if (pool == null)
+					pool = new ForkJoinPool(numberOfConsumers);
+				if (currentConsumer == null)
+					startChunk();
+				
+				ByteBuffer chunk = currentConsumer.chunk;
+				int length = Math.min(chunk.remaining(), buffer.remaining());
+				
+				ByteBuffer part = buffer.duplicate();
+				part.limit(part.position() + length);
+				chunk.put(part);
+				buffer.position(part.position());
+				
+				if (!chunk.hasRemaining())
+					submitChunk();
+			}
+		}
+		
+		@Override
+		public void read(ByteBuffer buffer)
+		{
+			bytes += buffer.remaining();
+			
+			if (numberOfConsumers > 1)
+				readParallel(buffer);
+			else
+				total.countBuffer(buffer);
+		}
+		
+		@Override
+		public void finish()
+		{
+			if (numberOfConsumers > 1)
+			{
+				if (currentConsumer != null)
+				{
+					currentConsumer.run();
+					currentConsumer = null;
+				}
+				
+				for (int index = 0; index < numberOfConsumers; index += 1)
+					takeConsumer();
+				
+				if (pool != null)
+				{
+					pool.shutdown();
+					pool = null;
+				}
+				checkError();
+				
+				// the other sketches start empty again and every consumer is free, so another file can be counted
+				for (int index = 1; index < numberOfConsumers; index += 1)
+				{
+					total.merge(consumers[index].sketch);
+					consumers[index].sketch = total.copyShape();
+				}
+				freeConsumers.addAll(Arrays.asList(consumers));
+				tailLength = 0;
+			}
+			
+			// n-grams of the next file do not start in this one
+			total.resetWindow();
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package compression;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import compression.SegmentedBuffer.UnitCarry;
+import library.FileTools;
+import library.io.ByteBufferedReader;
+
+// dense symbol counts outside the java heap, for symbol spaces that are too large for arrays: one long count per
+// symbol value in pages of 2^27 counts (1 GiB), addressed by 64-bit symbol values.
+//
+// a file-backed table maps its pages from a sparse file, so only the pages of counted symbols take memory and disk
+// space. the total and distinct counts are kept by add(), and pages that were never written are skipped, so no
+// statistic has to read every page.
+// file: header (magic, data bits, total count, distinct count, a bit for every written page), then the little endian
+// counts. the header is written by force() and close().
+//
+// close() writes mapped pages back and closes the file, it does not free or unmap anything: the pages are released
+// by the gc once the table is no longer referenced.
+
+public class OffHeapCountBuffer implements Closeable
+{
+	public static final int magic = 0x53434831; // "SCH1"
+	
+	public static final int maxDataBits = 36;
+	public static final int pageBits = 27;
+	public static final long pageMask = (1L << pageBits) - 1;
+	public static final int maxPageCount = 1 << (maxDataBits - pageBits);
+	
+	public static final int pageFlagsOffset = 2 * Integer.BYTES + 2 * Long.BYTES;
+	public static final int headerSize = pageFlagsOffset + maxPageCount / Byte.SIZE;
+	
+	public int dataBits;
+	public long symbolCount;
+	
+	protected long totalCount;
+	protected long distinctCount;
+	
+	protected ByteBuffer[] pageBuffers;
+	protected LongBuffer[] pages;
+	protected boolean[] written;
+	protected FileChannel channel;
+	
+	public static class InvalidCountTableException extends IOException
+	{
+		private static final long serialVersionUID = -2186359047715239184L;
+		
+		public InvalidCountTableException(String message)
+		{
+			super(message);
+		}
+	}
+	
+	protected OffHeapCountBuffer(int dataBits)
+	{
+		if ((dataBits < 1) || (dataBits > maxDataBits))
+			throw new IllegalArgumentException("unsupported data bits: " + dataBits);
+		
+		this.dataBits = dataBits;
+		this.symbolCount = 1L << dataBits;
+		
+		int pageCount = (int)((symbolCount + pageMask) >>> pageBits);
+		this.pageBuffers = new ByteBuffer[pageCount];
+		this.pages = new LongBuffer[pageCount];
+		this.written = new boolean[pageCount];
+	}
+	
+	protected long getPageLength(int page)
+	{
+		return Math.min(symbolCount - ((long)page << pageBits), 1L << pageBits);
+	}
+	
+	protected void setPage(int page, ByteBuffer buffer)
+	{
+		pageBuffers[page] = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		pages[page] = pageBuffers[page].asLongBuffer();
+	}
+	
+	// a zeroed table in direct buffers
+	
+	public static OffHeapCountBuffer allocate(int dataBits)
+	{
+		OffHeapCountBuffer table = new OffHeapCountBuffer(dataBits);
+		for (int page = 0; page < table.pages.length; page += 1)
+			table.setPage(page, ByteBuffer.allocateDirect(Math.toIntExact(table.getPageLength(page) * Long.BYTES)));
+		return table;
+	}
+	
+	protected void mapPages() throws IOException
+	{
+		for (int page = 0; page < pages.length; page += 1)
+			setPage(page, channel.map(MapMode.READ_WRITE, headerSize + ((long)page << pageBits) * Long.BYTES, getPageLength(page) * Long.BYTES));
+	}
+	
+	// a zeroed table in a new file, which replaces the file at the path
+	
+	public static OffHeapCountBuffer create(Path path, int dataBits) throws IOException
+	{
+		OffHeapCountBuffer table = new OffHeapCountBuffer(dataBits);
+		table.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		
+		try
+		{
+			table.writeHeader();
+			table.mapPages();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			table.channel.close();
+			throw e;
+		}
+		return table;
+	}
+	
+	public static OffHeapCountBuffer open(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		
+		try
+		{
+			if (channel.size() < headerSize)
+				throw new InvalidCountTableException("not a count table: " + path);
+			
+			ByteBuffer header = ByteBuffer.allocate(headerSize);
+			FileTools.readFully(channel, header, 0);
+			header.flip();
+			
+			if (header.getInt() != magic)
+				throw new InvalidCountTableException("not a count table: " + path);
+			
+			int dataBits = header.getInt();
+			if ((dataBits < 1) || (dataBits > maxDataBits))
+				throw new InvalidCountTableException("invalid data bits: " + dataBits);
+			
+			OffHeapCountBuffer table = new OffHeapCountBuffer(dataBits);
+			if (channel.size() != headerSize + table.symbolCount * Long.BYTES)
+				throw new InvalidCountTableException("invalid count table size: " + channel.size());
+			
+			table.totalCount = header.getLong();
+			table.distinctCount = header.getLong();
+			if ((table.distinctCount < 0) || (table.distinctCount > table.symbolCount) || (table.totalCount < table.distinctCount))
+				throw new InvalidCountTableException("invalid counts: " + table.totalCount + ", " + table.distinctCount);
+			
+			for (int page = 0; page < table.written.length; page += 1)
+				table.written[page] = (header.get(pageFlagsOffset + page / Byte.SIZE) & (1 << (page % Byte.SIZE))) != 0;
+			
+			table.channel = channel;
+			table.mapPages();
+			return table;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+	
+	protected void writeHeader() throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		header.putInt(magic);
+		header.putInt(dataBits);
+		header.putLong(totalCount);
+		header.putLong(distinctCount);
+		
+		for (int page = 0; page < written.length; page += 1)
+			if (written[page])
+				header.put(pageFlagsOffset + page / Byte.SIZE, (byte)(header.get(pageFlagsOffset + page / Byte.SIZE) | (1 << (page % Byte.SIZE))));
+		
+		header.clear();
+		FileTools.writeFully(channel, header, 0);
+	}
+	
+	public boolean isFileBacked()
+	{
+		return channel != null;
+	}
+	
+	public long get(long symbol)
+	{
+		return pages[(int)(symbol >>> pageBits)].get((int)(symbol & pageMask));
+	}
+	
+	public void add(long symbol, long count)
+	{
+		int pageIndex = (int)(symbol >>> pageBits);
+		LongBuffer page = pages[pageIndex];
+		int index = (int)(symbol & pageMask);
+		
+		long previous = page.get(index);
+		long current = previous + count;
+		page.put(index, current);
+		
+		if ((previous == 0) != (current == 0))
+			distinctCount += (previous == 0) ? 1 : -1;
+		totalCount += count;
+		written[pageIndex] = true;
+	}
+	
+	public void increase(long symbol)
+	{
+		add(symbol, 1);
+	}
+	
+	public long getSymbolCount(int bytes)
+	{
+		return ((long)bytes * 8) / dataBits;
+	}
+	
+	// counts symbolCount symbols starting at the buffer position, symbols are read most significant bit first
+	// as in DataCountBuffer. the position is not changed.
+	
+	public void countSymbols(ByteBuffer buffer, long symbolCount)
+	{
+		if (dataBits % 8 != 0)
+		{
+			BitReader reader = new BitReader(buffer);
+			for (long index = 0; index < symbolCount; index += 1)
+				increase(reader.readBits(dataBits));
+			return;
+		}
+		
+		ByteBuffer source = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int dataSize = dataBits / 8;
+		int end = Math.toIntExact(source.position() + symbolCount * dataSize);
+		
+		if (dataSize == Integer.BYTES)
+		{
+			for (int index = source.position(); index < end; index += Integer.BYTES)
+				increase(source.getInt(index) & 0xFFFFFFFFL);
+		}
+		else
+		{
+			for (int index = source.position(); index < end; index += dataSize)
+			{
+				long symbol = 0;
+				for (int byteIndex = 0; byteIndex < dataSize; byteIndex += 1)
+					symbol = (symbol << 8) | (source.get(index + byteIndex) & 0xFF);
+				increase(symbol);
+			}
+		}
+	}
+	
+	// counts the whole units between position and limit, returns the number of bytes counted
+	
+	public int countBuffer(ByteBuffer buffer)
+	{
+		int unitSize = SegmentedBuffer.getUnitSize(dataBits);
+		int bytes = buffer.remaining() - (buffer.remaining() % unitSize);
+		countSymbols(buffer, getSymbolCount(bytes));
+		return bytes;
+	}
+	
+	public void merge(OffHeapCountBuffer other)
+	{
+		if (other.dataBits != dataBits)
+			throw new IllegalArgumentException("different data bits: " + dataBits + ", " + other.dataBits);
+		
+		for (int page = 0; page < pages.length; page += 1)
+		{
+			if (!other.written[page])
+				continue;
+			
+			LongBuffer source = other.pages[page];
+			for (int index = 0; index < source.limit(); index += 1)
+			{
+				long count = source.get(index);
+				if (count != 0)
+					add(((long)page << pageBits) | index, count);
+			}
+		}
+	}
+	
+	public long getTotalCount()
+	{
+		return totalCount;
+	}
+	
+	public long getDistinctCount()
+	{
+		return distinctCount;
+	}
+	
+	// order-0 shannon entropy in bits per symbol
+	
+	public double getEntropy()
+	{
+		long total = 0;
+		double sum = 0;
+		
+		for (int pageIndex = 0; pageIndex < pages.length; pageIndex += 1)
+		{
+			if (!written[pageIndex])
+				continue;
+			
+			LongBuffer page = pages[pageIndex];
+			for (int index = 0; index < page.limit(); index += 1)
+			{
+				long count = page.get(index);
+				if (count != 0)
+				{
+					total += count;
+					sum += EntropyTools.getCountLog(count);
+				}
+			}
+		}
+		return (total == 0) ? 0 : Math.max(EntropyTools.log2(total) - (sum / total), 0);
+	}
+	
+	// writes the header and the written pages back to the file
+	
+	public void force() throws IOException
+	{
+		if (channel == null)
+			return;
+		
+		for (int page = 0; page < pages.length; page += 1)
+			if (written[page])
+				((MappedByteBuffer)pageBuffers[page]).force();
+		writeHeader();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		if (pages == null)
+			return;
+		
+		try
+		{
+			force();
+		}
+		finally
+		{
+			pages = null;
+			pageBuffers = null;
+			
+			if (channel != null)
+			{
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+	
+	// counts a stream of buffers, symbols split between two buffers are completed from the next one
+	
+	public static class OffHeapCountReader extends ByteBufferedReader
+	{
+		public OffHeapCountBuffer table;
+		public long bytes;
+		
+		protected UnitCarry carry;
+		
+		public OffHeapCountReader(OffHeapCountBuffer table)
+		{
+			this.table = table;
+			this.carry = new UnitCarry(SegmentedBuffer.getUnitSize(table.dataBits));
+		}
+		
+		@Override
+		public void read(ByteBuffer buffer)
+		{
+			bytes += buffer.remaining();
+			carry.read(buffer, table::countBuffer);
+		}
+		
+		@Override
+		public void finish()
+		{
+			ByteBuffer rest = carry.takeRest();
+			if (rest != null)
+				table.countSymbols(rest, table.getSymbolCount(rest.remaining()));
+		}
+	}
+}
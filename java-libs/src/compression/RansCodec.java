@@ -0,0 +1,757 @@
+package compression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import compression.SegmentedBuffer.DataCountBuffer;
+import library.types.SizeManager;
+
+// interleaved rans coder for byte symbols, with frequencies normalized to a total of 2 ^ precision.
+//
+// every state is kept in [2 ^ 15, 2 ^ 31) and moves 16 bits at a time, so each symbol reads or writes at most one word.
+// symbol i belongs to state i % stateNumber. the encoder works from the last symbol to the first and writes the words
+// backwards, so the decoder reads the states and then the words forwards, and the states decode independent chains.
+
+public class RansCodec
+{
+	public static final int alphabetSize = 256;
+	public static final int minPrecision = 10;
+	public static final int maxPrecision = 14;
+	public static final int defaultStateNumber = 4;
+	
+	protected static final int stateBits = 31;
+	protected static final int wordBits = 16;
+	protected static final int lowerBound = 1 << (stateBits - wordBits);
+	
+	// a precision is used if it encodes at most 1 / precisionTolerance more bits than maxPrecision
+	protected static final int precisionTolerance = 512;
+	
+	// decode table entry: [0, 16) offset of the slot in its symbol range, [16, 32) frequency
+	protected static final int entryOffsetMask = 0xFFFF;
+	protected static final int entryFrequencyShift = 16;
+	
+	protected static final VarHandle shortView = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	protected static final VarHandle intView = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	
+	public int precision;
+	public int stateNumber;
+	
+	// by symbol value, a frequency of zero means the symbol is not used
+	public int[] frequencies;
+	public int[] starts;
+	public int symbolNumber;
+	
+	// x / frequency is (x * reciprocal) >>> shift for every state x, the encoder never divides
+	protected long[] reciprocals;
+	protected int[] shifts;
+	protected int[] complements;
+	
+	protected byte[] slotSymbols;
+	protected int[] slotEntries;
+	
+	public RansCodec(int precision, int[] frequencies, int stateNumber)
+	{
+		if ((precision < minPrecision) || (precision > maxPrecision))
+			throw new IllegalArgumentException("unsupported precision: " + precision);
+		if ((stateNumber != 4) && (stateNumber != 8))
+			throw new IllegalArgumentException("unsupported state number: " + stateNumber);
+		if (frequencies.length != alphabetSize)
+			throw new IllegalArgumentException("invalid frequencies size: " + frequencies.length);
+		
+		this.precision = precision;
+		this.stateNumber = stateNumber;
+		this.frequencies = frequencies;
+		
+		buildEncodeTables();
+		buildDecodeTable();
+	}
+	
+	public static RansCodec fromCounts(long[] countArray, int stateNumber)
+	{
+		int precision = getPrecision(countArray);
+		return new RansCodec(precision, normalize(countArray, precision), stateNumber);
+	}
+	
+	public static RansCodec fromDataCount(DataCountBuffer dataCountBuffer, int stateNumber)
+	{
+		return fromCounts(getCountArray(dataCountBuffer), stateNumber);
+	}
+	
+	public static long[] getCountArray(DataCountBuffer dataCountBuffer)
+	{
+		if (dataCountBuffer.dataBits != Byte.SIZE)
+			throw new IllegalArgumentException("unsupported data bits: " + dataCountBuffer.dataBits);
+		
+		long[] countArray = new long[alphabetSize];
+		for (int index = 0; index < dataCountBuffer.length; index += 1)
+			countArray[dataCountBuffer.dataBuffer[index] & 0xFF] += dataCountBuffer.countArray[index];
+		return countArray;
+	}
+	
+	// frequencies summing to 2 ^ precision, every counted symbol gets at least 1.
+	// after rounding, the sum is corrected one step at a time, each time where it costs the fewest bits.
+	
+	public static int[] normalize(long[] countArray, int precision)
+	{
+		int total = 1 << precision;
+		int[] frequencies = new int[alphabetSize];
+		
+		long count = EntropyTools.getTotalCount(countArray, alphabetSize);
+		if (count == 0)
+			return frequencies;
+		
+		int sum = 0;
+		for (int symbol = 0; symbol < alphabetSize; symbol += 1)
+		{
+			if (countArray[symbol] != 0)
+			{
+				frequencies[symbol] = (int)Math.max(1, Math.round((double)countArray[symbol] * total / count));
+				sum += frequencies[symbol];
+			}
+		}
+		
+		while (sum != total)
+		{
+			// a change of one costs about count / (frequency -+ 0.5) bits
+			int best = -1;
+			double bestCost = 0;
+			
+			for (int symbol = 0; symbol < alphabetSize; symbol += 1)
+			{
+				if (sum > total)
+				{
+					if (frequencies[symbol] > 1)
+					{
+						double cost = countArray[symbol] / (frequencies[symbol] - 0.5);
+						if ((best == -1) || (cost < bestCost))
+						{
+							best = symbol;
+							bestCost = cost;
+						}
+					}
+				}
+				else if (countArray[symbol] != 0)
+				{
+					double cost = countArray[symbol] / (frequencies[symbol] + 0.5);
+					if ((best == -1) || (cost > bestCost))
+					{
+						best = symbol;
+						bestCost = cost;
+					}
+				}
+			}
+			
+			if (sum > total)
+			{
+				frequencies[best] -= 1;
+				sum -= 1;
+			}
+			else
+			{
+				frequencies[best] += 1;
+				sum += 1;
+			}
+		}
+		return frequencies;
+	}
+	
+	public static double getEncodedBits(long[] countArray, int[] frequencies, int precision)
+	{
+		double bits = 0;
+		for (int symbol = 0; symbol < alphabetSize; symbol += 1)
+			if (countArray[symbol] != 0)
+				bits += countArray[symbol] * (precision - EntropyTools.log2(frequencies[symbol]));
+		return bits;
+	}
+	
+	// the smallest precision that encodes almost as well as the largest, smaller decode tables stay in the cache
+	
+	public static int getPrecision(long[] countArray)
+	{
+		double maxBits = getEncodedBits(countArray, normalize(countArray, maxPrecision), maxPrecision);
+		
+		for (int precision = minPrecision; precision < maxPrecision; precision += 1)
+		{
+			double bits = getEncodedBits(countArray, normalize(countArray, precision), precision);
+			if (bits <= maxBits + maxBits / precisionTolerance)
+				return precision;
+		}
+		return maxPrecision;
+	}
+	
+	protected void buildEncodeTables()
+	{
+		int total = 1 << this.precision;
+		
+		this.starts = new int[alphabetSize];
+		this.reciprocals = new long[alphabetSize];
+		this.shifts = new int[alphabetSize];
+		this.complements = new int[alphabetSize];
+		this.symbolNumber = 0;
+		
+		int sum = 0;
+		for (int symbol = 0; symbol < alphabetSize; symbol += 1)
+		{
+			int frequency = this.frequencies[symbol];
+			if ((frequency < 0) || (frequency > total))
+				throw new IllegalArgumentException("invalid frequency: " + frequency);
+			
+			this.starts[symbol] = sum;
+			sum += frequency;
+			
+			if (frequency != 0)
+			{
+				// with bits = ceil(log2(frequency)), ceil(2 ^ (31 + bits) / frequency) fits in 32 bits and divides every 31 bit state exactly
+				int bits = Integer.SIZE - Integer.numberOfLeadingZeros(frequency - 1);
+				this.shifts[symbol] = stateBits + bits;
+				this.reciprocals[symbol] = ((1L << (stateBits + bits)) + frequency - 1) / frequency;
+				this.complements[symbol] = total - frequency;
+				this.symbolNumber += 1;
+			}
+		}
+		
+		if ((sum != total) && (sum != 0))
+			throw new IllegalArgumentException("frequencies sum to " + sum + " instead of " + total);
+	}
+	
+	protected void buildDecodeTable()
+	{
+		int total = 1 << this.precision;
+		
+		this.slotSymbols = new byte[total];
+		this.slotEntries = new int[total];
+		
+		for (int symbol = 0; symbol < alphabetSize; symbol += 1)
+		{
+			int start = this.starts[symbol];
+			int frequency = this.frequencies[symbol];
+			
+			Arrays.fill(this.slotSymbols, start, start + frequency, (byte)symbol);
+			for (int offset = 0; offset < frequency; offset += 1)
+				this.slotEntries[start + offset] = (frequency << entryFrequencyShift) | offset;
+		}
+	}
+	
+	public static int getMaxEncodedSize(int size, int stateNumber)
+	{
+		return stateNumber * Integer.BYTES + size * Short.BYTES;
+	}
+	
+	// wordBits when the state must give a word before a symbol of the frequency, 0 otherwise.
+	// the state after the symbol must stay below 2 ^ 31, which holds for states below frequency * 2 ^ (31 - precision).
+	
+	protected static int getFlushShift(int state, int frequency, int renormShift)
+	{
+		return ((frequency - 1 - (state >>> renormShift)) >>> (Integer.SIZE - 1)) * wordBits;
+	}
+	
+	protected static int encodeSymbol(int state, int start, long reciprocal, int shift, int complement)
+	{
+		// (state / frequency) * total + state % frequency + start
+		int quotient = (int)((state * reciprocal) >>> shift);
+		return state + start + quotient * complement;
+	}
+	
+	// wordBits when the state is below lowerBound and needs a word, 0 otherwise
+	
+	protected static int getRefillShift(int state)
+	{
+		return ((state - lowerBound) >>> (Integer.SIZE - 1)) * wordBits;
+	}
+	
+	protected static int decodeSymbol(int state, int entry, int precision)
+	{
+		return (entry >>> entryFrequencyShift) * (state >>> precision) + (entry & entryOffsetMask);
+	}
+	
+	// encodes input[start, end) into the bytes before outputEnd and returns where the encoded data starts.
+	// getMaxEncodedSize bytes before outputEnd must be available.
+	
+	public int encode(byte[] input, int start, int end, byte[] output, int outputEnd)
+	{
+		int[] frequencies = this.frequencies;
+		int[] starts = this.starts;
+		long[] reciprocals = this.reciprocals;
+		int[] shifts = this.shifts;
+		int[] complements = this.complements;
+		
+		int laneMask = this.stateNumber - 1;
+		int renormShift = stateBits - this.precision;
+		
+		int[] states = new int[this.stateNumber];
+		Arrays.fill(states, lowerBound);
+		
+		int position = outputEnd;
+		int roundEnd = start + ((end - start) & ~laneMask);
+		
+		// the last partial round, one symbol at a time
+		for (int index = end - 1; index >= roundEnd; index -= 1)
+		{
+			int symbol = input[index] & 0xFF;
+			int lane = (index - start) & laneMask;
+			int state = states[lane];
+			
+			if ((state >>> renormShift) >= frequencies[symbol])
+			{
+				position -= Short.BYTES;
+				shortView.set(output, position, (short)state);
+				state >>>= wordBits;
+			}
+			states[lane] = encodeSymbol(state, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+		}
+		
+		// whole rounds keep the states in locals and flush without a branch, a branch mispredicts on mixed data.
+		// a word is always written before the position, and kept only when the position moves over it.
+		if (this.stateNumber == 4)
+		{
+			int x0 = states[0], x1 = states[1], x2 = states[2], x3 = states[3];
+			int symbol;
+			int shift;
+			
+			for (int index = roundEnd - 4; index >= start; index -= 4)
+			{
+				symbol = input[index + 3] & 0xFF;
+				shift = getFlushShift(x3, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x3);
+				position -= shift >>> 3;
+				x3 = encodeSymbol(x3 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index + 2] & 0xFF;
+				shift = getFlushShift(x2, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x2);
+				position -= shift >>> 3;
+				x2 = encodeSymbol(x2 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index + 1] & 0xFF;
+				shift = getFlushShift(x1, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x1);
+				position -= shift >>> 3;
+				x1 = encodeSymbol(x1 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index] & 0xFF;
+				shift = getFlushShift(x0, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x0);
+				position -= shift >>> 3;
+				x0 = encodeSymbol(x0 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+			}
+			
+			states[0] = x0;
+			states[1] = x1;
+			states[2] = x2;
+			states[3] = x3;
+		}
+		else
+		{
+			int x0 = states[0], x1 = states[1], x2 = states[2], x3 = states[3], x4 = states[4], x5 = states[5], x6 = states[6], x7 = states[7];
+			int symbol;
+			int shift;
+			
+			for (int index = roundEnd - 8; index >= start; index -= 8)
+			{
+				symbol = input[index + 7] & 0xFF;
+				shift = getFlushShift(x7, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x7);
+				position -= shift >>> 3;
+				x7 = encodeSymbol(x7 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index + 6] & 0xFF;
+				shift = getFlushShift(x6, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x6);
+				position -= shift >>> 3;
+				x6 = encodeSymbol(x6 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index + 5] & 0xFF;
+				shift = getFlushShift(x5, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x5);
+				position -= shift >>> 3;
+				x5 = encodeSymbol(x5 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index + 4] & 0xFF;
+				shift = getFlushShift(x4, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x4);
+				position -= shift >>> 3;
+				x4 = encodeSymbol(x4 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index + 3] & 0xFF;
+				shift = getFlushShift(x3, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x3);
+				position -= shift >>> 3;
+				x3 = encodeSymbol(x3 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index + 2] & 0xFF;
+				shift = getFlushShift(x2, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x2);
+				position -= shift >>> 3;
+				x2 = encodeSymbol(x2 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index + 1] & 0xFF;
+				shift = getFlushShift(x1, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x1);
+				position -= shift >>> 3;
+				x1 = encodeSymbol(x1 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+				
+				symbol = input[index] & 0xFF;
+				shift = getFlushShift(x0, frequencies[symbol], renormShift);
+				shortView.set(output, position - Short.BYTES, (short)x0);
+				position -= shift >>> 3;
+				x0 = encodeSymbol(x0 >>> shift, starts[symbol], reciprocals[symbol], shifts[symbol], complements[symbol]);
+			}
+			
+			states[0] = x0;
+			states[1] = x1;
+			states[2] = x2;
+			states[3] = x3;
+			states[4] = x4;
+			states[5] = x5;
+			states[6] = x6;
+			states[7] = x7;
+		}
+		
+		for (int lane = this.stateNumber - 1; lane >= 0; lane -= 1)
+		{
+			position -= Integer.BYTES;
+			intView.set(output, position, states[lane]);
+		}
+		return position;
+	}
+	
+	// decodes output[start, end) from the data at input[position, limit) and returns the position after the data
+	
+	public int decode(byte[] input, int position, int limit, byte[] output, int start, int end)
+	{
+		byte[] slotSymbols = this.slotSymbols;
+		int[] slotEntries = this.slotEntries;
+		
+		int stateNumber = this.stateNumber;
+		int precision = this.precision;
+		int slotMask = (1 << precision) - 1;
+		
+		if (limit - position < stateNumber * Integer.BYTES)
+			throw new IllegalArgumentException("rans data is truncated");
+		
+		int[] states = new int[stateNumber];
+		for (int lane = 0; lane < stateNumber; lane += 1)
+		{
+			states[lane] = (int)intView.get(input, position);
+			position += Integer.BYTES;
+			
+			if (states[lane] < lowerBound)
+				throw new IllegalArgumentException("invalid rans state: " + states[lane]);
+		}
+		
+		int index = start;
+		int roundEnd = start + ((end - start) & ~(stateNumber - 1));
+		int safeLimit = limit - stateNumber * Short.BYTES;
+		
+		// whole rounds while every state can read a word, with the states in locals and the refill without a branch
+		if (stateNumber == 4)
+		{
+			int x0 = states[0], x1 = states[1], x2 = states[2], x3 = states[3];
+			int slot;
+			int shift;
+			
+			for (; (index < roundEnd) && (position <= safeLimit); index += 4)
+			{
+				slot = x0 & slotMask;
+				output[index] = slotSymbols[slot];
+				x0 = decodeSymbol(x0, slotEntries[slot], precision);
+				shift = getRefillShift(x0);
+				x0 = (x0 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x1 & slotMask;
+				output[index + 1] = slotSymbols[slot];
+				x1 = decodeSymbol(x1, slotEntries[slot], precision);
+				shift = getRefillShift(x1);
+				x1 = (x1 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x2 & slotMask;
+				output[index + 2] = slotSymbols[slot];
+				x2 = decodeSymbol(x2, slotEntries[slot], precision);
+				shift = getRefillShift(x2);
+				x2 = (x2 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x3 & slotMask;
+				output[index + 3] = slotSymbols[slot];
+				x3 = decodeSymbol(x3, slotEntries[slot], precision);
+				shift = getRefillShift(x3);
+				x3 = (x3 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+			}
+			
+			states[0] = x0;
+			states[1] = x1;
+			states[2] = x2;
+			states[3] = x3;
+		}
+		else
+		{
+			int x0 = states[0], x1 = states[1], x2 = states[2], x3 = states[3], x4 = states[4], x5 = states[5], x6 = states[6], x7 = states[7];
+			int slot;
+			int shift;
+			
+			for (; (index < roundEnd) && (position <= safeLimit); index += 8)
+			{
+				slot = x0 & slotMask;
+				output[index] = slotSymbols[slot];
+				x0 = decodeSymbol(x0, slotEntries[slot], precision);
+				shift = getRefillShift(x0);
+				x0 = (x0 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x1 & slotMask;
+				output[index + 1] = slotSymbols[slot];
+				x1 = decodeSymbol(x1, slotEntries[slot], precision);
+				shift = getRefillShift(x1);
+				x1 = (x1 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x2 & slotMask;
+				output[index + 2] = slotSymbols[slot];
+				x2 = decodeSymbol(x2, slotEntries[slot], precision);
+				shift = getRefillShift(x2);
+				x2 = (x2 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x3 & slotMask;
+				output[index + 3] = slotSymbols[slot];
+				x3 = decodeSymbol(x3, slotEntries[slot], precision);
+				shift = getRefillShift(x3);
+				x3 = (x3 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x4 & slotMask;
+				output[index + 4] = slotSymbols[slot];
+				x4 = decodeSymbol(x4, slotEntries[slot], precision);
+				shift = getRefillShift(x4);
+				x4 = (x4 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x5 & slotMask;
+				output[index + 5] = slotSymbols[slot];
+				x5 = decodeSymbol(x5, slotEntries[slot], precision);
+				shift = getRefillShift(x5);
+				x5 = (x5 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x6 & slotMask;
+				output[index + 6] = slotSymbols[slot];
+				x6 = decodeSymbol(x6, slotEntries[slot], precision);
+				shift = getRefillShift(x6);
+				x6 = (x6 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+				
+				slot = x7 & slotMask;
+				output[index + 7] = slotSymbols[slot];
+				x7 = decodeSymbol(x7, slotEntries[slot], precision);
+				shift = getRefillShift(x7);
+				x7 = (x7 << shift) | ((short)shortView.get(input, position) & (0xFFFF >>> (wordBits - shift)));
+				position += shift >>> 3;
+			}
+			
+			states[0] = x0;
+			states[1] = x1;
+			states[2] = x2;
+			states[3] = x3;
+			states[4] = x4;
+			states[5] = x5;
+			states[6] = x6;
+			states[7] = x7;
+		}
+		
+		// the rest one symbol at a time, with a bounds check for every word
+		for (; index < end; index += 1)
+		{
+			int lane = (index - start) & (stateNumber - 1);
+			int state = states[lane];
+			int slot = state & slotMask;
+			
+			output[index] = slotSymbols[slot];
+			state = decodeSymbol(state, slotEntries[slot], precision);
+			
+			if (state < lowerBound)
+			{
+				if (position + Short.BYTES > limit)
+					throw new IllegalArgumentException("rans data is truncated");
+				
+				state = (state << wordBits) | ((short)shortView.get(input, position) & 0xFFFF);
+				position += Short.BYTES;
+			}
+			states[lane] = state;
+		}
+		
+		// the encoder started every state at lowerBound
+		for (int lane = 0; lane < stateNumber; lane += 1)
+			if (states[lane] != lowerBound)
+				throw new IllegalArgumentException("invalid rans data");
+		
+		return position;
+	}
+	
+	// table: precision, state number, a bitmap of the used symbols, then frequency - 1 of each used symbol in 1 or 2 bytes
+	
+	public int getTableSize()
+	{
+		int size = 2 + alphabetSize / Byte.SIZE;
+		for (int symbol = 0; symbol < alphabetSize; symbol += 1)
+			if (this.frequencies[symbol] != 0)
+				size += (this.frequencies[symbol] > 0x80) ? 2 : 1;
+		return size;
+	}
+	
+	public void writeTable(ByteBuffer buffer)
+	{
+		buffer.put((byte)this.precision);
+		buffer.put((byte)this.stateNumber);
+		
+		for (int symbol = 0; symbol < alphabetSize; symbol += Byte.SIZE)
+		{
+			int bits = 0;
+			for (int bit = 0; bit < Byte.SIZE; bit += 1)
+				if (this.frequencies[symbol + bit] != 0)
+					bits |= 1 << bit;
+			buffer.put((byte)bits);
+		}
+		
+		for (int symbol = 0; symbol < alphabetSize; symbol += 1)
+		{
+			int value = this.frequencies[symbol] - 1;
+			if (value >= 0x80)
+			{
+				buffer.put((byte)(0x80 | (value & 0x7F)));
+				buffer.put((byte)(value >>> 7));
+			}
+			else if (value >= 0)
+				buffer.put((byte)value);
+		}
+	}
+	
+	public static RansCodec readTable(ByteBuffer buffer)
+	{
+		int precision = buffer.get();
+		int stateNumber = buffer.get();
+		
+		byte[] bitmap = new byte[alphabetSize / Byte.SIZE];
+		buffer.get(bitmap);
+		
+		int[] frequencies = new int[alphabetSize];
+		for (int symbol = 0; symbol < alphabetSize; symbol += 1)
+		{
+			if ((bitmap[symbol / Byte.SIZE] & (1 << (symbol % Byte.SIZE))) != 0)
+			{
+				int value = buffer.get() & 0xFF;
+				if (value >= 0x80)
+					value = (value & 0x7F) | ((buffer.get() & 0xFF) << 7);
+				frequencies[symbol] = value + 1;
+			}
+		}
+		return new RansCodec(precision, frequencies, stateNumber);
+	}
+	
+	// stream: table, original size as a long, then the states and the words
+	
+	public void compress(ByteBuffer input, ByteBuffer output)
+	{
+		byte[] array;
+		int start;
+		int size = input.remaining();
+		
+		if (input.hasArray())
+		{
+			array = input.array();
+			start = input.arrayOffset() + input.position();
+		}
+		else
+		{
+			array = new byte[size];
+			input.duplicate().get(array);
+			start = 0;
+		}
+		
+		byte[] encoded = new byte[getMaxEncodedSize(size, this.stateNumber)];
+		int begin = encode(array, start, start + size, encoded, encoded.length);
+		
+		writeTable(output);
+		output.putLong(size);
+		output.put(encoded, begin, encoded.length - begin);
+		input.position(input.limit());
+	}
+	
+	public static ByteBuffer compress(ByteBuffer input, int stateNumber)
+	{
+		DataCountBuffer dataCountBuffer = new DataCountBuffer(SizeManager.defaultSizeManager, alphabetSize, Byte.SIZE);
+		dataCountBuffer.scanBuffer(input);
+		
+		RansCodec codec = fromDataCount(dataCountBuffer, stateNumber);
+		ByteBuffer output = ByteBuffer.allocate(codec.getTableSize() + Long.BYTES + getMaxEncodedSize(input.remaining(), stateNumber));
+		
+		codec.compress(input, output);
+		output.flip();
+		return output;
+	}
+	
+	public static long getOriginalSize(ByteBuffer input)
+	{
+		ByteBuffer buffer = input.duplicate();
+		readTable(buffer);
+		return buffer.getLong();
+	}
+	
+	// decompresses at the output position and moves both positions after the data they hold
+	
+	public static void decompress(ByteBuffer input, ByteBuffer output)
+	{
+		RansCodec codec = readTable(input);
+		long originalSize = input.getLong();
+		
+		if ((originalSize < 0) || (originalSize > output.remaining()))
+			throw new IllegalArgumentException("output is too small: " + output.remaining() + " < " + originalSize);
+		
+		byte[] array;
+		int start;
+		int size = input.remaining();
+		
+		if (input.hasArray())
+		{
+			array = input.array();
+			start = input.arrayOffset() + input.position();
+		}
+		else
+		{
+			array = new byte[size];
+			input.duplicate().get(array);
+			start = 0;
+		}
+		
+		int length = (int)originalSize;
+		int end;
+		
+		if (output.hasArray())
+		{
+			int outputStart = output.arrayOffset() + output.position();
+			end = codec.decode(array, start, start + size, output.array(), outputStart, outputStart + length);
+			output.position(output.position() + length);
+		}
+		else
+		{
+			byte[] decoded = new byte[length];
+			end = codec.decode(array, start, start + size, decoded, 0, length);
+			output.put(decoded);
+		}
+		
+		input.position(input.position() + (end - start));
+	}
+	
+	public static ByteBuffer decompress(ByteBuffer input)
+	{
+		ByteBuffer output = ByteBuffer.allocate(Math.toIntExact(getOriginalSize(input)));
+		decompress(input, output);
+		output.flip();
+		return output;
+	}
+}
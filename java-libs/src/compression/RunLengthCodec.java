@@ -0,0 +1,561 @@
+package compression;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import library.io.ByteBufferedReader;
+
+// byte run length coding on streamed chunks, runs and literal groups may cross chunk boundaries.
+//
+// control byte c:
+//   0x00 - 0x7F  c + 1 literal bytes follow
+//   0x80 - 0xFE  the next byte repeated c - 0x80 + minRunLength times
+//   0xFF         the next byte repeated maxShortRunLength + 1 + varint times, the varint follows the byte
+
+public class RunLengthCodec
+{
+	public static final int minRunLength = 3;
+	public static final int maxLiteralLength = 0x80;
+	public static final int maxShortRunLength = 0x7E + minRunLength;
+	public static final int longRunCode = 0xFF;
+	
+	public static final long byteRepeat = 0x0101010101010101L;
+	public static final long lowBits = 0x7F7F7F7F7F7F7F7FL;
+	
+	// the output needed for n input bytes, with the pending literals and run of earlier chunks
+	
+	public static int getMaxEncodedSize(int size)
+	{
+		return Math.addExact(size, (size >>> 7) + maxLiteralLength + 32);
+	}
+	
+	// index of the first byte from start which is not value, or end
+	
+	public static int findRunEnd(ByteBuffer buffer, int start, int end, byte value)
+	{
+		long pattern = (value & 0xFFL) * byteRepeat;
+		int index = start;
+		
+		while (index + Long.BYTES <= end)
+		{
+			long difference = buffer.getLong(index) ^ pattern;
+			if (difference != 0)
+				return index + (Long.numberOfLeadingZeros(difference) >>> 3);
+			index += Long.BYTES;
+		}
+		
+		while ((index < end) && (buffer.get(index) == value))
+			index += 1;
+		return index;
+	}
+	
+	// index of the first byte from start which equals the byte after it, or end - 1.
+	// each word compares 7 neighbouring pairs: a zero byte of word ^ (word << 8) is an equal pair.
+	
+	public static int findPairStart(ByteBuffer buffer, int start, int end)
+	{
+		int index = start;
+		
+		while (index + Long.BYTES <= end)
+		{
+			long word = buffer.getLong(index);
+			long difference = word ^ (word << 8);
+			long zeros = ~(((difference & lowBits) + lowBits) | difference | lowBits) & 0xFFFFFFFFFFFFFF00L;
+			
+			if (zeros != 0)
+				return index + (Long.numberOfLeadingZeros(zeros) >>> 3);
+			index += Long.BYTES - 1;
+		}
+		
+		while (index + 1 < end)
+		{
+			if (buffer.get(index) == buffer.get(index + 1))
+				return index;
+			index += 1;
+		}
+		return Math.max(end - 1, start);
+	}
+	
+	protected static long getLiteralsSize(long literalLength)
+	{
+		return literalLength + (literalLength + maxLiteralLength - 1) / maxLiteralLength;
+	}
+	
+	// the size an encoder writes for the buffer alone, found with the same scans but without copying anything
+	
+	public static long getEncodedSize(ByteBuffer input)
+	{
+		ByteBuffer buffer = input.duplicate().order(ByteOrder.BIG_ENDIAN);
+		int index = buffer.position();
+		int end = buffer.limit();
+		
+		long size = 0;
+		long literalLength = 0;
+		
+		while (index < end)
+		{
+			int pairStart = findPairStart(buffer, index, end);
+			int runEnd = findRunEnd(buffer, pairStart + 1, end, buffer.get(pairStart));
+			long runLength = runEnd - pairStart;
+			
+			literalLength += pairStart - index;
+			index = runEnd;
+			
+			if (runLength < minRunLength)
+			{
+				literalLength += runLength;
+				continue;
+			}
+			
+			size += getLiteralsSize(literalLength) + 2;
+			literalLength = 0;
+			
+			if (runLength > maxShortRunLength)
+			{
+				for (long rest = runLength - maxShortRunLength - 1; rest >= 0x80; rest >>>= 7)
+					size += 1;
+				size += 1;
+			}
+		}
+		return size + getLiteralsSize(literalLength);
+	}
+	
+	// runs of two or more bytes by length and by value, in primitive arrays so any number of runs costs nothing more
+	
+	public static class RunStatistics
+	{
+		// runs with a length in [2 ^ bucket, 2 ^ (bucket + 1))
+		public long[] lengthRunCounts = new long[Long.SIZE];
+		public long[] lengthRunBytes = new long[Long.SIZE];
+		
+		public long[] valueRunCounts = new long[256];
+		public long[] valueRunBytes = new long[256];
+		
+		public long runCount;
+		public long runBytes;
+		public long totalBytes;
+		
+		public void addRun(byte value, long length)
+		{
+			int bucket = Long.SIZE - 1 - Long.numberOfLeadingZeros(length);
+			
+			lengthRunCounts[bucket] += 1;
+			lengthRunBytes[bucket] += length;
+			
+			valueRunCounts[value & 0xFF] += 1;
+			valueRunBytes[value & 0xFF] += length;
+			
+			runCount += 1;
+			runBytes += length;
+		}
+		
+		public void merge(RunStatistics other)
+		{
+			for (int index = 0; index < Long.SIZE; index += 1)
+			{
+				lengthRunCounts[index] += other.lengthRunCounts[index];
+				lengthRunBytes[index] += other.lengthRunBytes[index];
+			}
+			for (int index = 0; index < 256; index += 1)
+			{
+				valueRunCounts[index] += other.valueRunCounts[index];
+				valueRunBytes[index] += other.valueRunBytes[index];
+			}
+			
+			runCount += other.runCount;
+			runBytes += other.runBytes;
+			totalBytes += other.totalBytes;
+		}
+		
+		public void clear()
+		{
+			Arrays.fill(lengthRunCounts, 0);
+			Arrays.fill(lengthRunBytes, 0);
+			Arrays.fill(valueRunCounts, 0);
+			Arrays.fill(valueRunBytes, 0);
+			
+			runCount = 0;
+			runBytes = 0;
+			totalBytes = 0;
+		}
+	}
+	
+	public static class Encoder
+	{
+		public RunStatistics statistics;
+		
+		// the last run, it may go on in the next chunk
+		public byte runValue;
+		public long runLength;
+		
+		public byte[] literalArray;
+		public int literalLength;
+		
+		public Encoder(RunStatistics statistics)
+		{
+			this.statistics = statistics;
+			this.literalArray = new byte[maxLiteralLength];
+			clear();
+		}
+		
+		public Encoder()
+		{
+			this(null);
+		}
+		
+		public void clear()
+		{
+			runLength = 0;
+			literalLength = 0;
+			if (statistics != null)
+				statistics.clear();
+		}
+		
+		protected void flushLiterals(ByteBuffer output)
+		{
+			if (literalLength == 0)
+				return;
+			
+			output.put((byte)(literalLength - 1));
+			output.put(literalArray, 0, literalLength);
+			literalLength = 0;
+		}
+		
+		protected void addLiterals(ByteBuffer buffer, int start, int end, ByteBuffer output)
+		{
+			while (start < end)
+			{
+				int length = Math.min(maxLiteralLength - literalLength, end - start);
+				buffer.get(start, literalArray, literalLength, length);
+				
+				literalLength += length;
+				start += length;
+				
+				if (literalLength == maxLiteralLength)
+					flushLiterals(output);
+			}
+		}
+		
+		protected void addLiteral(byte value, ByteBuffer output)
+		{
+			literalArray[literalLength++] = value;
+			if (literalLength == maxLiteralLength)
+				flushLiterals(output);
+		}
+		
+		protected void flushRun(ByteBuffer output)
+		{
+			if (runLength == 0)
+				return;
+			
+			if ((statistics != null) && (runLength >= 2))
+				statistics.addRun(runValue, runLength);
+			
+			if (runLength < minRunLength)
+			{
+				for (long index = 0; index < runLength; index += 1)
+					addLiteral(runValue, output);
+			}
+			else
+			{
+				flushLiterals(output);
+				
+				if (runLength <= maxShortRunLength)
+				{
+					output.put((byte)(0x80 + runLength - minRunLength));
+					output.put(runValue);
+				}
+				else
+				{
+					output.put((byte)longRunCode);
+					output.put(runValue);
+					
+					long rest = runLength - maxShortRunLength - 1;
+					while (rest >= 0x80)
+					{
+						output.put((byte)(rest | 0x80));
+						rest >>>= 7;
+					}
+					output.put((byte)rest);
+				}
+			}
+			runLength = 0;
+		}
+		
+		// encodes the whole input, the output must have getMaxEncodedSize(input.remaining()) bytes left
+		
+		public void encode(ByteBuffer input, ByteBuffer output)
+		{
+			ByteBuffer buffer = input.duplicate().order(ByteOrder.BIG_ENDIAN);
+			int index = buffer.position();
+			int end = buffer.limit();
+			
+			if (statistics != null)
+				statistics.totalBytes += end - index;
+			
+			while (index < end)
+			{
+				if (runLength == 0)
+				{
+					int pairStart = findPairStart(buffer, index, end);
+					addLiterals(buffer, index, pairStart, output);
+					
+					runValue = buffer.get(pairStart);
+					runLength = 1;
+					index = pairStart + 1;
+					continue;
+				}
+				
+				int runEnd = findRunEnd(buffer, index, end, runValue);
+				runLength += runEnd - index;
+				index = runEnd;
+				
+				if (index != end)
+					flushRun(output);
+			}
+			
+			input.position(end);
+		}
+		
+		public void finish(ByteBuffer output)
+		{
+			flushRun(output);
+			flushLiterals(output);
+		}
+	}
+	
+	public static class Decoder
+	{
+		protected static final int stateControl = 0;
+		protected static final int stateShortValue = 1;
+		protected static final int stateLongValue = 2;
+		protected static final int stateLongLength = 3;
+		
+		public int state;
+		
+		public int literalRemaining;
+		public long runRemaining;
+		public byte runValue;
+		
+		protected long pendingLength;
+		protected int pendingShift;
+		
+		public Decoder()
+		{
+			clear();
+		}
+		
+		public void clear()
+		{
+			state = stateControl;
+			literalRemaining = 0;
+			runRemaining = 0;
+		}
+		
+		// true when the input so far ends at a whole token
+		
+		public boolean isFinished()
+		{
+			return (state == stateControl) && (literalRemaining == 0) && (runRemaining == 0);
+		}
+		
+		protected static void fill(ByteBuffer output, byte value, int length)
+		{
+			int position = output.position();
+			
+			if (output.hasArray())
+				Arrays.fill(output.array(), output.arrayOffset() + position, output.arrayOffset() + position + length, value);
+			else
+			{
+				long pattern = (value & 0xFFL) * byteRepeat;
+				int index = position;
+				for (; index + Long.BYTES <= position + length; index += Long.BYTES)
+					output.putLong(index, pattern);
+				for (; index < position + length; index += 1)
+					output.put(index, value);
+			}
+			output.position(position + length);
+		}
+		
+		// decodes until the input is used up or the output is full
+		
+		public void decode(ByteBuffer input, ByteBuffer output)
+		{
+			while (true)
+			{
+				if (literalRemaining != 0)
+				{
+					int length = Math.min(literalRemaining, Math.min(input.remaining(), output.remaining()));
+					if (length == 0)
+						return;
+					
+					ByteBuffer part = input.duplicate();
+					part.limit(part.position() + length);
+					output.put(part);
+					input.position(part.position());
+					
+					literalRemaining -= length;
+					continue;
+				}
+				
+				if (runRemaining != 0)
+				{
+					int length = (int)Math.min(runRemaining, output.remaining());
+					if (length == 0)
+						return;
+					
+					fill(output, runValue, length);
+					runRemaining -= length;
+					continue;
+				}
+				
+				if (!input.hasRemaining())
+					return;
+				
+				int value = input.get() & 0xFF;
+				switch (state)
+				{
+				case stateControl:
+					if (value < 0x80)
+						literalRemaining = value + 1;
+					else if (value != longRunCode)
+					{
+						pendingLength = value - 0x80 + minRunLength;
+						state = stateShortValue;
+					}
+					else
+						state = stateLongValue;
+					break;
+				
+				case stateShortValue:
+					runValue = (byte)value;
+					runRemaining = pendingLength;
+					state = stateControl;
+					break;
+				
+				case stateLongValue:
+					runValue = (byte)value;
+					pendingLength = 0;
+					pendingShift = 0;
+					state = stateLongLength;
+					break;
+				
+				case stateLongLength:
+					if (pendingShift > 56)
+						throw new IllegalArgumentException("invalid run length");
+					
+					pendingLength |= (long)(value & 0x7F) << pendingShift;
+					pendingShift += 7;
+					
+					if (value < 0x80)
+					{
+						runRemaining = pendingLength + maxShortRunLength + 1;
+						state = stateControl;
+					}
+					break;
+				}
+			}
+		}
+	}
+	
+	// encodes the blocks of a file into a channel
+	
+	public static class EncodeWriter extends ByteBufferedReader
+	{
+		public static final int defaultOutputSize = 1 << 20;
+		
+		public FileChannel channel;
+		public Encoder encoder;
+		
+		public ByteBuffer output;
+		public long bytes;
+		
+		public EncodeWriter(FileChannel channel, RunStatistics statistics, int outputSize)
+		{
+			this.channel = channel;
+			this.encoder = new Encoder(statistics);
+			this.output = ByteBuffer.allocateDirect(outputSize);
+			this.bytes = 0;
+		}
+		
+		public EncodeWriter(FileChannel channel, RunStatistics statistics)
+		{
+			this(channel, statistics, defaultOutputSize);
+		}
+		
+		protected void flushOutput()
+		{
+			output.flip();
+			try
+			{
+				while (output.hasRemaining())
+					bytes += channel.write(output);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+			output.clear();
+		}
+		
+		@Override
+		public void read(ByteBuffer buffer)
+		{
+			while (buffer.hasRemaining())
+			{
+				if (output.remaining() < getMaxEncodedSize(1))
+					flushOutput();
+				
+				// the largest part whose encoding surely fits in the output
+				int length = Math.min(buffer.remaining(), Math.max((output.remaining() - getMaxEncodedSize(0)) * 127 / 128, 1));
+				ByteBuffer part = buffer.duplicate();
+				part.limit(part.position() + length);
+				
+				encoder.encode(part, output);
+				buffer.position(part.position());
+			}
+		}
+		
+		@Override
+		public void finish()
+		{
+			if (output.remaining() < getMaxEncodedSize(0))
+				flushOutput();
+			encoder.finish(output);
+			flushOutput();
+		}
+	}
+	
+	public static long decode(FileChannel input, FileChannel output, int bufferSize) throws IOException
+	{
+		ByteBuffer inputBuffer = ByteBuffer.allocateDirect(bufferSize);
+		ByteBuffer outputBuffer = ByteBuffer.allocateDirect(bufferSize);
+		
+		Decoder decoder = new Decoder();
+		long total = 0;
+		
+		while (input.read(inputBuffer) >= 0 || inputBuffer.position() != 0)
+		{
+			inputBuffer.flip();
+			do
+			{
+				decoder.decode(inputBuffer, outputBuffer);
+				
+				outputBuffer.flip();
+				while (outputBuffer.hasRemaining())
+					total += output.write(outputBuffer);
+				outputBuffer.clear();
+			}
+			while (inputBuffer.hasRemaining() || (decoder.runRemaining != 0));
+			inputBuffer.clear();
+		}
+		
+		if (!decoder.isFinished())
+			throw new IllegalArgumentException("truncated run length data");
+		return total;
+	}
+}
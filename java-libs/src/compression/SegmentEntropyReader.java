@@ -0,0 +1,257 @@
+package compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import compression.SegmentedBuffer.DataCountBuffer;
+import library.io.ByteBufferedReader;
+import library.io.ReadMode;
+import library.types.SizeManager;
+
+// splits the input into fixed size segments and reports the order-0 statistics of each one.
+// segments are counted on a pool and reported in the order they finish, not in file order.
+
+public class SegmentEntropyReader extends ByteBufferedReader
+{
+	public static final int defaultSegmentSize = 1 << 20; // 1 MiB
+	
+	public static class SegmentEntropy
+	{
+		public long index;
+		public long offset;
+		public int size;
+		
+		public int dataBits;
+		public long symbolCount;
+		public int distinctCount;
+		
+		public double entropy;
+		public long minimumSize;
+		public double distinctRatio;
+		
+		public SegmentEntropy(long index, long offset, int size, DataCountBuffer dataCountBuffer)
+		{
+			this.index = index;
+			this.offset = offset;
+			this.size = size;
+			
+			this.dataBits = dataCountBuffer.dataBits;
+			this.symbolCount = EntropyTools.getTotalCount(dataCountBuffer.countArray, dataCountBuffer.length);
+			this.distinctCount = dataCountBuffer.length;
+			
+			this.entropy = EntropyTools.getEntropy(dataCountBuffer.countArray, dataCountBuffer.length, this.symbolCount);
+			this.minimumSize = EntropyTools.getMinimumSize(this.entropy, this.symbolCount);
+			this.distinctRatio = EntropyTools.getDistinctRatio(this.distinctCount, this.symbolCount, this.dataBits);
+		}
+		
+		public double getCompressionRatio()
+		{
+			return (size == 0) ? 1 : (double)minimumSize / size;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("segment: %d, offset: %d, size: %d, entropy: %.3f, minimum size: %d (%.1f%%), distinct: %d (%.3f)",
+					index, offset, size, entropy, minimumSize, getCompressionRatio() * 100, distinctCount, distinctRatio);
+		}
+	}
+	
+	protected static class SegmentWorker implements Runnable
+	{
+		public SegmentEntropyReader reader;
+		
+		public DataCountBuffer dataCountBuffer;
+		public ByteBuffer segment;
+		
+		public long index;
+		public long offset;
+		
+		public SegmentWorker(SegmentEntropyReader reader)
+		{
+			this.reader = reader;
+			this.dataCountBuffer = new DataCountBuffer(reader.sizeManager, reader.suggestedSize, reader.dataBits);
+			this.segment = ByteBuffer.allocate(reader.segmentSize);
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				segment.flip();
+				dataCountBuffer.scanBuffer(segment);
+				reader.segmentFinished(new SegmentEntropy(index, offset, segment.remaining(), dataCountBuffer));
+			}
+			catch (Throwable e)
+			{
+				reader.error = e;
+			}
+			finally
+			{
+				segment.clear();
+				reader.freeWorkers.add(this);
+			}
+		}
+	}
+	
+	public SizeManager sizeManager;
+	public int suggestedSize;
+	public int dataBits;
+	
+	public int segmentSize;
+	public int numberOfThreads;
+	
+	public Consumer<SegmentEntropy> consumer;
+	
+	public long segmentCount;
+	public long bytes;
+	
+	protected ForkJoinPool pool;
+	protected SegmentWorker[] workers;
+	protected ArrayBlockingQueue<SegmentWorker> freeWorkers;
+	protected SegmentWorker currentWorker;
+	protected volatile Throwable error;
+	
+	public SegmentEntropyReader(SizeManager sizeManager, int dataBits, int segmentSize, int numberOfThreads, Consumer<SegmentEntropy> consumer)
+	{
+		if (numberOfThreads == 0)
+			numberOfThreads = Runtime.getRuntime().availableProcessors();
+		
+		int unitSize = SegmentedBuffer.getUnitSize(dataBits);
+		
+		this.sizeManager = sizeManager;
+		this.dataBits = dataBits;
+		
+		this.segmentSize = Math.max(segmentSize - (segmentSize % unitSize), unitSize);
+		this.numberOfThreads = numberOfThreads;
+		
+		// a segment can't hold more distinct symbols than it has symbols
+		this.suggestedSize = (int)Math.min(((long)this.segmentSize * 8) / dataBits, Integer.MAX_VALUE);
+		
+		this.consumer = consumer;
+		
+		init();
+	}
+	
+	public void init()
+	{
+		segmentCount = 0;
+		bytes = 0;
+		
+		error = null;
+		workers = new SegmentWorker[numberOfThreads];
+		freeWorkers = new ArrayBlockingQueue<>(numberOfThreads);
+		for (int index = 0; index < numberOfThreads; index += 1)
+		{
+			workers[index] = new SegmentWorker(this);
+			freeWorkers.add(workers[index]);
+		}
+		currentWorker = null;
+	}
+	
+	protected synchronized void segmentFinished(SegmentEntropy segmentEntropy)
+	{
+		consumer.accept(segmentEntropy);
+	}
+	
+	protected SegmentWorker takeWorker()
+	{
+		try
+		{
+			return freeWorkers.take();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for a segment worker", e);
+		}
+	}
+	
+	protected void checkError()
+	{
+		if (error != null)
+			throw new IllegalStateException("segment worker failed", error);
+	}
+	
+	protected void submitWorker()
+	{
+		currentWorker.index = segmentCount;
+		currentWorker.offset = segmentCount * segmentSize;
+		segmentCount += 1;
+		
+		if (numberOfThreads == 1)
+			currentWorker.run();
+		else
+		{
+			if (pool == null)
+				pool = new ForkJoinPool(numberOfThreads);
+			pool.execute(currentWorker);
+		}
+		currentWorker = null;
+	}
+	
+	@Override
+	public void read(ByteBuffer buffer)
+	{
+		bytes += buffer.remaining();
+		
+		while (buffer.hasRemaining())
+		{
+			checkError();
+			
+			if (currentWorker == null)
+				currentWorker = takeWorker();
+			
+			ByteBuffer segment = currentWorker.segment;
+			int length = Math.min(segment.remaining(), buffer.remaining());
+			
+			ByteBuffer part = buffer.duplicate();
+			part.limit(part.position() + length);
+			segment.put(part);
+			buffer.position(part.position());
+			
+			if (!segment.hasRemaining())
+				submitWorker();
+		}
+	}
+	
+	@Override
+	public void finish()
+	{
+		if (currentWorker != null)
+		{
+			if (currentWorker.segment.position() != 0)
+				submitWorker();
+			else
+			{
+				freeWorkers.add(currentWorker);
+				currentWorker = null;
+			}
+		}
+		
+		for (int index = 0; index < numberOfThreads; index += 1)
+			takeWorker();
+		for (SegmentWorker worker : workers)
+			freeWorkers.add(worker);
+		
+		if (pool != null)
+		{
+			pool.shutdown();
+			pool = null;
+		}
+		checkError();
+	}
+	
+	public static long scanFileChannel(FileChannel channel, ReadMode mode, int dataBits, int segmentSize, int numberOfThreads,
+			Consumer<SegmentEntropy> consumer) throws IOException
+	{
+		SegmentEntropyReader reader = new SegmentEntropyReader(SizeManager.defaultSizeManager, dataBits, segmentSize, numberOfThreads, consumer);
+		reader.readFileChannel(channel, mode, false);
+		return reader.segmentCount;
+	}
+}
@@ -1,9 +1,19 @@
 package compression;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ToIntFunction;
 
 import library.Tools;
+import library.io.ByteBufferedReader;
+import library.io.ReadMode;
+import library.io.SplittableReader;
+import library.types.LongCountTable;
 import library.types.SizeManager;
 
 public class SegmentedBuffer
@@ -13,20 +23,35 @@ public class SegmentedBuffer
 		return (bits / 8) + ((bits % 8 == 0) ? 0 : 1);
 	}
 	
+	public static int getUnitSize(int bits)
+	{
+		return bits / Math.min(Integer.lowestOneBit(bits), 8);
+	}
+	
 	public static class DataCountBuffer
 	{
+		// symbols up to this width are counted in a table indexed by symbol value
+		public static final int maxDenseBits = 16;
+		
+		// wider symbols that fit in a long are counted in an open-addressing hash table
+		public static final int maxHashBits = Long.SIZE;
+		
 		public SizeManager sizeManager;
 		public int suggestedInitialSize;
 		
 		public int dataBits;
 		public int dataSize;
+		public int unitSize;
 		
 		public int size;
 		public int length;
 		public int dataBlockSize;
 		
 		public byte[] dataBuffer;
-		public int[] countArray;
+		public long[] countArray;
+		
+		public long[] denseCountArray;
+		public LongCountTable hashCountTable;
 		
 		public DataCountBuffer(SizeManager sizeManager, int suggestedSize, int dataBits)
 		{
@@ -35,34 +60,87 @@ public class SegmentedBuffer
 			
 			this.dataBits = dataBits;
 			this.dataSize = getBytePerBit(dataBits);
+			this.unitSize = getUnitSize(dataBits);
+			
+			clear();
 		}
 		
-		protected void allocateDataCount()
+		public static boolean isDenseBits(int dataBits)
 		{
-			this.size = Math.min(this.sizeManager.getNewSize(0), this.suggestedInitialSize);
-			this.length = 0;
+			return dataBits <= maxDenseBits;
+		}
+		
+		public static boolean isHashBits(int dataBits)
+		{
+			return (dataBits > maxDenseBits) && (dataBits <= maxHashBits);
+		}
+		
+		// dataBuffer and countArray come from the size manager and may be longer than size
+		
+		protected void allocateDataArrays(int size)
+		{
+			this.sizeManager.release(this.dataBuffer);
+			this.sizeManager.release(this.countArray);
 			
+			this.size = size;
 			this.dataBlockSize = (this.dataSize == 1) ? this.size : Math.multiplyExact(this.size, this.dataSize);
-			this.dataBuffer = new byte[this.dataBlockSize];
-			this.countArray = new int[this.size];
+			this.dataBuffer = this.sizeManager.allocateBytes(this.dataBlockSize);
+			this.countArray = this.sizeManager.allocateLongs(this.size);
+		}
+		
+		protected void allocateDataCount()
+		{
+			allocateDataArrays(Math.min(this.sizeManager.getNewSize(0), this.suggestedInitialSize));
+			this.length = 0;
 		}
 		
 		protected void reallocateMore()
 		{
-			this.size = this.sizeManager.getNewSize(this.size);
+			byte[] oldDataBuffer = this.dataBuffer;
+			long[] oldCountArray = this.countArray;
 			
-			this.dataBlockSize = (this.dataSize == 1) ? this.size : Math.multiplyExact(this.size, this.dataSize);
-			this.dataBuffer = Arrays.copyOf(this.dataBuffer, this.dataBlockSize);
-			this.countArray = Arrays.copyOf(this.countArray, this.size);
+			this.dataBuffer = null;
+			this.countArray = null;
+			allocateDataArrays(this.sizeManager.getNewSize(this.size));
+			
+			System.arraycopy(oldDataBuffer, 0, this.dataBuffer, 0, this.length * this.dataSize);
+			System.arraycopy(oldCountArray, 0, this.countArray, 0, this.length);
+			
+			this.sizeManager.release(oldDataBuffer);
+			this.sizeManager.release(oldCountArray);
 		}
 		
-		protected void increaseDataCount(byte value)
+		public void clear()
 		{
-			for (int index = 0; index < length; index += 1)
+			if (isDenseBits(this.dataBits))
 			{
-				if (this.dataBuffer[index] == value)
+				if (this.denseCountArray == null)
+					this.denseCountArray = this.sizeManager.allocateLongs(1 << this.dataBits);
+				
+				Arrays.fill(this.denseCountArray, 0, 1 << this.dataBits, 0);
+				updateDataCount();
+			}
+			else if (isHashBits(this.dataBits))
+			{
+				if (this.hashCountTable == null)
+					this.hashCountTable = new LongCountTable(this.sizeManager, this.suggestedInitialSize);
+				else
+					this.hashCountTable.clear();
+				updateDataCount();
+			}
+			else
+				allocateDataCount();
+		}
+		
+		protected void addDataCount(byte[] buffer, int offset, long count)
+		{
+			int lastOffset = this.length * this.dataSize;
+			
+			for (int fromIndex = 0, toIndex = this.dataSize; fromIndex < lastOffset; fromIndex += this.dataSize, toIndex += this.dataSize)
+			{
+				if (Arrays.compare(this.dataBuffer, fromIndex, toIndex, buffer, offset, offset + this.dataSize) == 0)
 				{
-					this.countArray[index] += 1;
+					this.countArray[fromIndex / this.dataSize] += count;
 					return;
 				}
 			}
@@ -70,91 +148,765 @@ public class SegmentedBuffer
 			if (this.length == this.size)
 				reallocateMore();
 			
-			this.dataBuffer[this.length] = value;
-			this.countArray[this.length] = 1;
+			System.arraycopy(buffer, offset, this.dataBuffer, lastOffset, this.dataSize);
+			this.countArray[this.length] = count;
 			this.length += 1;
 		}
 		
 		protected void increaseDataCount(byte[] buffer, int offset)
 		{
-			int lastOffset = this.length * this.dataSize;
+			addDataCount(buffer, offset, 1);
+		}
+		
+		protected void setDenseCount(long[] denseCountArray)
+		{
+			int symbolCount = 1 << this.dataBits;
+			int length = 0;
+			for (int value = 0; value < symbolCount; value += 1)
+				if (denseCountArray[value] != 0)
+					length += 1;
 			
-			for (int fromIndex = 0, toIndex = this.dataSize; fromIndex < lastOffset; fromIndex += this.dataSize, toIndex += this.dataSize)
+			allocateDataArrays(length);
+			this.length = length;
+			
+			int index = 0;
+			for (int value = 0; value < symbolCount; value += 1)
 			{
-				if (Arrays.compare(this.dataBuffer, fromIndex, toIndex, buffer, offset, offset + this.dataSize) == 0)
+				if (denseCountArray[value] != 0)
 				{
-					this.countArray[fromIndex / this.dataSize] += 1;
-					return;
+					for (int byteIndex = 0, shift = (this.dataSize - 1) * 8; byteIndex < this.dataSize; byteIndex += 1, shift -= 8)
+						this.dataBuffer[index * this.dataSize + byteIndex] = (byte)(value >>> shift);
+					
+					this.countArray[index] = denseCountArray[value];
+					index += 1;
+				}
+			}
+		}
+		
+		protected void setHashCount(LongCountTable table)
+		{
+			allocateDataArrays(table.length);
+			this.length = table.length;
+			
+			int index = 0;
+			for (int slot = 0; slot < table.capacity; slot += 1)
+			{
+				if (table.counts[slot] != 0)
+				{
+					long value = table.keys[slot];
+					for (int byteIndex = 0, shift = (this.dataSize - 1) * 8; byteIndex < this.dataSize; byteIndex += 1, shift -= 8)
+						this.dataBuffer[index * this.dataSize + byteIndex] = (byte)(value >>> shift);
+					
+					this.countArray[index] = table.counts[slot];
+					index += 1;
 				}
 			}
+		}
+		
+		// dense and hash counts are kept in their own tables, dataBuffer and countArray are rebuilt from them
+		
+		public void updateDataCount()
+		{
+			if (isDenseBits(this.dataBits))
+				setDenseCount(this.denseCountArray);
+			else if (isHashBits(this.dataBits))
+				setHashCount(this.hashCountTable);
+		}
+		
+		protected void countDenseBuffer(ByteBuffer buffer, int start, int end)
+		{
+			long[] denseCountArray = this.denseCountArray;
 			
-			if (this.length == this.size)
-				reallocateMore();
+			if (this.dataSize == 1)
+				ByteHistogram.count(buffer, start, end, denseCountArray);
+			else if (buffer.hasArray())
+			{
+				byte[] bufferArray = buffer.array();
+				start += buffer.arrayOffset();
+				end += buffer.arrayOffset();
+				
+				for (int index = start; index < end; index += 2)
+					denseCountArray[((bufferArray[index] & 0xFF) << 8) | (bufferArray[index + 1] & 0xFF)] += 1;
+			}
+			else
+			{
+				for (int index = start; index < end; index += 2)
+					denseCountArray[((buffer.get(index) & 0xFF) << 8) | (buffer.get(index + 1) & 0xFF)] += 1;
+			}
+		}
+		
+		protected void countDenseBits(ByteBuffer buffer, long symbolCount)
+		{
+			long[] denseCountArray = this.denseCountArray;
+			BitReader reader = new BitReader(buffer);
 			
-			System.arraycopy(buffer, offset, this.dataBuffer, lastOffset, this.dataSize);
-			this.countArray[this.length] = 1;
-			this.length += 1;
+			for (long index = 0; index < symbolCount; index += 1)
+				denseCountArray[(int)reader.readBits(this.dataBits)] += 1;
+		}
+		
+		protected void countHashBits(ByteBuffer buffer, long symbolCount)
+		{
+			LongCountTable table = this.hashCountTable;
+			BitReader reader = new BitReader(buffer);
+			
+			for (long index = 0; index < symbolCount; index += 1)
+				table.increase(reader.readBits(this.dataBits));
+		}
+		
+		protected void countLinearBuffer(ByteBuffer buffer, int start, int end)
+		{
+			if (buffer.hasArray())
+			{
+				byte[] bufferArray = buffer.array();
+				for (int offset = start + buffer.arrayOffset(), last = end + buffer.arrayOffset(); offset < last; offset += this.dataSize)
+					increaseDataCount(bufferArray, offset);
+			}
+			else
+			{
+				byte[] symbol = new byte[this.dataSize];
+				for (int offset = start; offset < end; offset += this.dataSize)
+				{
+					buffer.get(offset, symbol);
+					increaseDataCount(symbol, 0);
+				}
+			}
+		}
+		
+		// counts symbolCount symbols starting at the buffer position, the position is not changed.
+		// dataBuffer and countArray are not updated until updateDataCount() is called.
+		
+		public void countSymbols(ByteBuffer buffer, long symbolCount)
+		{
+			int start = buffer.position();
+			
+			if (isDenseBits(this.dataBits))
+			{
+				if (this.dataBits % 8 == 0)
+					countDenseBuffer(buffer, start, Math.toIntExact(start + symbolCount * this.dataSize));
+				else
+					countDenseBits(buffer, symbolCount);
+			}
+			else if (isHashBits(this.dataBits))
+				countHashBits(buffer, symbolCount);
+			else if (this.dataBits % 8 == 0)
+				countLinearBuffer(buffer, start, Math.toIntExact(start + symbolCount * this.dataSize));
+			else
+				throw new IllegalArgumentException("unsupported data bits: " + this.dataBits);
+		}
+		
+		public long getSymbolCount(int bytes)
+		{
+			return ((long)bytes * 8) / this.dataBits;
+		}
+		
+		// counts the whole units between position and limit, returns the number of bytes counted.
+		// a unit is the smallest number of bytes that holds a whole number of symbols.
+		
+		public int countBuffer(ByteBuffer buffer)
+		{
+			int bytes = buffer.remaining() - (buffer.remaining() % this.unitSize);
+			countSymbols(buffer, getSymbolCount(bytes));
+			return bytes;
 		}
 		
 		public void scanBuffer(ByteBuffer buffer)
 		{
-			if (!buffer.hasArray())
-				throw new UnsupportedOperationException("buffer don't support array() method.");
+			clear();
+			countSymbols(buffer, getSymbolCount(buffer.remaining()));
+			updateDataCount();
+		}
+		
+		protected void mergeCounts(DataCountBuffer other)
+		{
+			if (other.dataBits != this.dataBits)
+				throw new IllegalArgumentException("different data bits: " + this.dataBits + ", " + other.dataBits);
 			
-			if (dataBits == 8)
+			if (isDenseBits(this.dataBits))
 			{
-				allocateDataCount();
+				for (int index = 0; index < (1 << this.dataBits); index += 1)
+					this.denseCountArray[index] += other.denseCountArray[index];
+			}
+			else if (isHashBits(this.dataBits))
+				this.hashCountTable.merge(other.hashCountTable);
+			else
+			{
+				for (int index = 0; index < other.length; index += 1)
+					addDataCount(other.dataBuffer, index * other.dataSize, other.countArray[index]);
+			}
+		}
+		
+		public void merge(DataCountBuffer other)
+		{
+			mergeCounts(other);
+			updateDataCount();
+		}
+		
+		protected DataCountBuffer copyCounts()
+		{
+			DataCountBuffer result = new DataCountBuffer(this.sizeManager, this.suggestedInitialSize, this.dataBits);
+			result.mergeCounts(this);
+			return result;
+		}
+		
+		public DataCountBuffer copy()
+		{
+			DataCountBuffer result = copyCounts();
+			result.updateDataCount();
+			return result;
+		}
+		
+		// gives the arrays back to the size manager, the buffer can not be used after this
+		
+		public void release()
+		{
+			this.sizeManager.release(this.dataBuffer);
+			this.sizeManager.release(this.countArray);
+			this.sizeManager.release(this.denseCountArray);
+			if (this.hashCountTable != null)
+				this.hashCountTable.release();
+			
+			this.dataBuffer = null;
+			this.countArray = null;
+			this.denseCountArray = null;
+			this.hashCountTable = null;
+		}
+	}
+	
+	// scans one segment per leaf and merges the leaf results pairwise on the way back up
+	
+	public static class DataCountTask extends RecursiveTask<DataCountBuffer>
+	{
+		private static final long serialVersionUID = -2961487034475317025L;
+		
+		public SizeManager sizeManager;
+		public int suggestedSize;
+		public int dataBits;
+		
+		public ByteBuffer buffer;
+		public int[] segmentOffsets;
+		public DataCountBuffer[] segmentArray;
+		
+		public int startSegment;
+		public int endSegment;
+		
+		public DataCountTask(SizeManager sizeManager, int suggestedSize, int dataBits, ByteBuffer buffer, int[] segmentOffsets, 
+				DataCountBuffer[] segmentArray, int startSegment, int endSegment)
+		{
+			this.sizeManager = sizeManager;
+			this.suggestedSize = suggestedSize;
+			this.dataBits = dataBits;
+			
+			this.buffer = buffer;
+			this.segmentOffsets = segmentOffsets;
+			this.segmentArray = segmentArray;
+			
+			this.startSegment = startSegment;
+			this.endSegment = endSegment;
+		}
+		
+		protected DataCountTask subTask(int startSegment, int endSegment)
+		{
+			return new DataCountTask(sizeManager, suggestedSize, dataBits, buffer, segmentOffsets, segmentArray, startSegment, endSegment);
+		}
+		
+		@Override
+		protected DataCountBuffer compute()
+		{
+			if (endSegment - startSegment == 1)
+			{
+				ByteBuffer segment = buffer.duplicate();
+				segment.limit(buffer.position() + segmentOffsets[startSegment + 1]);
+				segment.position(buffer.position() + segmentOffsets[startSegment]);
 				
-				for (int index = 0; index < buffer.capacity(); index += 1)
-					increaseDataCount(buffer.get(index));
+				DataCountBuffer dataCountBuffer = new DataCountBuffer(sizeManager, suggestedSize, dataBits);
+				dataCountBuffer.scanBuffer(segment.slice());
+				segmentArray[startSegment] = dataCountBuffer;
+				
+				return (segmentArray.length == 1) ? dataCountBuffer.copy() : dataCountBuffer.copyCounts();
 			}
-			if (dataBits % 8 == 0)
+			
+			int middleSegment = (startSegment + endSegment) >>> 1;
+			
+			DataCountTask leftTask = subTask(startSegment, middleSegment);
+			DataCountTask rightTask = subTask(middleSegment, endSegment);
+			
+			leftTask.fork();
+			DataCountBuffer rightResult = rightTask.compute();
+			DataCountBuffer leftResult = leftTask.join();
+			
+			leftResult.mergeCounts(rightResult);
+			if (startSegment == 0 && endSegment == segmentArray.length)
+				leftResult.updateDataCount();
+			
+			return leftResult;
+		}
+	}
+	
+	public static class ScanResult
+	{
+		public DataCountBuffer total;
+		
+		public int[] segmentOffsets;
+		public DataCountBuffer[] segments;
+		
+		public ScanResult(DataCountBuffer total, int[] segmentOffsets, DataCountBuffer[] segments)
+		{
+			this.total = total;
+			this.segmentOffsets = segmentOffsets;
+			this.segments = segments;
+		}
+	}
+	
+	// order-1 statistics: counts every byte under the byte before it in a flat table indexed by (previous << 8) | current.
+	
+	public static class ContextCountBuffer
+	{
+		public static final int contextCount = 256;
+		public static final int tableSize = contextCount * contextCount;
+		
+		public long[] pairCountArray;
+		
+		// the byte before the next scanned byte, or -1 at the start of the data
+		public int previous;
+		public int firstSymbol;
+		
+		public ContextCountBuffer()
+		{
+			this.pairCountArray = new long[tableSize];
+			clear();
+		}
+		
+		public void clear()
+		{
+			Arrays.fill(pairCountArray, 0);
+			previous = -1;
+			firstSymbol = -1;
+		}
+		
+		// scanning continues from the previous call, so a stream can be counted block by block
+		
+		public void countBuffer(ByteBuffer buffer)
+		{
+			int start = buffer.position();
+			int end = buffer.limit();
+			if (start == end)
+				return;
+			
+			int last = previous;
+			if (last == -1)
 			{
-				allocateDataCount();
+				firstSymbol = buffer.get(start) & 0xFF;
+				last = firstSymbol;
+				start += 1;
+			}
+			
+			previous = ByteHistogram.countPairs(buffer, start, end, last, pairCountArray);
+		}
+		
+		public void merge(ContextCountBuffer other)
+		{
+			for (int index = 0; index < tableSize; index += 1)
+				pairCountArray[index] += other.pairCountArray[index];
+			
+			if (firstSymbol == -1)
+				firstSymbol = other.firstSymbol;
+		}
+		
+		// adds the counts of data that directly follows this data and was counted without its context
+		
+		public void append(ContextCountBuffer next)
+		{
+			if (next.firstSymbol == -1)
+				return;
+			
+			if (previous != -1)
+				pairCountArray[(previous << 8) | next.firstSymbol] += 1;
+			merge(next);
+			previous = next.previous;
+		}
+		
+		public long getPairCount()
+		{
+			long total = 0;
+			for (int index = 0; index < tableSize; index += 1)
+				total += pairCountArray[index];
+			return total;
+		}
+		
+		// order-0 counts of the bytes, the first byte has no context so it is added on its own
+		
+		public long[] getSymbolCountArray()
+		{
+			long[] countArray = new long[contextCount];
+			
+			for (int index = 0; index < tableSize; index += 1)
+				countArray[index & 0xFF] += pairCountArray[index];
+			if (firstSymbol != -1)
+				countArray[firstSymbol] += 1;
+			
+			return countArray;
+		}
+		
+		public double getEntropy()
+		{
+			return EntropyTools.getEntropy(getSymbolCountArray(), contextCount);
+		}
+		
+		public double getConditionalEntropy()
+		{
+			return EntropyTools.getConditionalEntropy(pairCountArray, contextCount);
+		}
+	}
+	
+	public static class ContextCountTask extends RecursiveTask<ContextCountBuffer>
+	{
+		private static final long serialVersionUID = 6024771153309842183L;
+		
+		public ByteBuffer buffer;
+		public int[] segmentOffsets;
+		
+		public int startSegment;
+		public int endSegment;
+		
+		public ContextCountTask(ByteBuffer buffer, int[] segmentOffsets, int startSegment, int endSegment)
+		{
+			this.buffer = buffer;
+			this.segmentOffsets = segmentOffsets;
+			
+			this.startSegment = startSegment;
+			this.endSegment = endSegment;
+		}
+		
+		@Override
+		protected ContextCountBuffer compute()
+		{
+			if (endSegment - startSegment == 1)
+			{
+				ByteBuffer segment = buffer.duplicate();
+				segment.limit(buffer.position() + segmentOffsets[startSegment + 1]);
+				segment.position(buffer.position() + segmentOffsets[startSegment]);
 				
-				if (buffer.arrayOffset() != 0)
-					throw new UnsupportedOperationException("unsupported array offset: " + buffer.arrayOffset());
+				ContextCountBuffer contextCountBuffer = new ContextCountBuffer();
 				
+				// the context of the first byte of a segment is the last byte of the segment before it
+				if (segment.position() != buffer.position())
+					contextCountBuffer.previous = buffer.get(segment.position() - 1) & 0xFF;
 				
-				byte[] bufferArray = buffer.array();
-				int bufferLength = buffer.capacity();
+				contextCountBuffer.countBuffer(segment);
+				return contextCountBuffer;
+			}
+			
+			int middleSegment = (startSegment + endSegment) >>> 1;
+			
+			ContextCountTask leftTask = new ContextCountTask(buffer, segmentOffsets, startSegment, middleSegment);
+			ContextCountTask rightTask = new ContextCountTask(buffer, segmentOffsets, middleSegment, endSegment);
+			
+			leftTask.fork();
+			ContextCountBuffer rightResult = rightTask.compute();
+			ContextCountBuffer leftResult = leftTask.join();
+			
+			leftResult.merge(rightResult);
+			return leftResult;
+		}
+	}
+	
+	// order-1 counts of a file of any size, ranges are counted on their own and joined by the pair at their border
+	
+	public static class ContextCountReader extends SplittableReader<ContextCountReader>
+	{
+		public ContextCountBuffer contextCountBuffer = new ContextCountBuffer();
+		
+		@Override
+		public ContextCountReader newRangeReader()
+		{
+			return new ContextCountReader();
+		}
+		
+		@Override
+		public void read(ByteBuffer buffer)
+		{
+			contextCountBuffer.countBuffer(buffer);
+		}
+		
+		@Override
+		public void merge(ContextCountReader next)
+		{
+			contextCountBuffer.append(next.contextCountBuffer);
+		}
+		
+		@Override
+		public void finish()
+		{
+		}
+	}
+	
+	// the bytes of a unit that is split between two buffers of a stream, for counting whole units buffer by buffer
+	
+	public static class UnitCarry
+	{
+		public byte[] array;
+		public int length;
+		
+		public UnitCarry(int unitSize)
+		{
+			this.array = new byte[unitSize];
+			this.length = 0;
+		}
+		
+		// completes the carried unit from the buffer first, countBuffer counts whole units from the buffer position and
+		// returns the bytes it counted, the bytes after them are carried to the next buffer
+		
+		public void read(ByteBuffer buffer, ToIntFunction<ByteBuffer> countBuffer)
+		{
+			if (length != 0)
+			{
+				int part = Math.min(array.length - length, buffer.remaining());
+				buffer.get(array, length, part);
+				length += part;
 				
-				for (int offset = 0; offset < bufferLength; offset += this.dataSize)
-					increaseDataCount(bufferArray, offset);	
+				if (length < array.length)
+					return;
+				
+				countBuffer.applyAsInt(ByteBuffer.wrap(array));
+				length = 0;
 			}
-			else
-				throw new IllegalArgumentException("unsupported data bits: " + dataBits);
+			
+			int counted = countBuffer.applyAsInt(buffer);
+			
+			buffer.position(buffer.position() + counted);
+			length = buffer.remaining();
+			buffer.get(array, 0, length);
+		}
+		
+		// the incomplete unit at the end of the stream, or null
+		
+		public ByteBuffer takeRest()
+		{
+			if (length == 0)
+				return null;
+			
+			ByteBuffer rest = ByteBuffer.wrap(array, 0, length);
+			length = 0;
+			return rest;
 		}
 	}
 	
-	public static class DataCountBufferRunnable implements Runnable
+	// counts a file block by block, symbols split between two blocks are completed from the next one.
+	// with more than one consumer, blocks are gathered into chunks which are counted on a pool while reading goes on.
+	
+	public static class DataCountReader extends ByteBufferedReader
 	{
-		public DataCountBuffer dataCountBuffer;
-		public ByteBuffer buffer;
+		public static final int defaultChunkSize = 1 << 22; // 4 MiB
 		
-		public DataCountBufferRunnable(SizeManager sizeManager, int suggestedSize, int dataBits, ByteBuffer buffer)
+		protected static class ChunkConsumer implements Runnable
 		{
-			dataCountBuffer = new DataCountBuffer(sizeManager, suggestedSize, dataBits);
-			this.buffer = buffer;
+			public DataCountBuffer dataCountBuffer;
+			public ByteBuffer chunk;
+			public boolean last;
+			
+			public DataCountReader reader;
+			
+			public ChunkConsumer(DataCountReader reader, int chunkSize)
+			{
+				this.reader = reader;
+				this.dataCountBuffer = new DataCountBuffer(reader.sizeManager, reader.suggestedSize, reader.dataBits);
+				this.chunk = ByteBuffer.wrap(reader.sizeManager.allocateBytes(chunkSize), 0, chunkSize).slice();
+			}
+			
+			public void release()
+			{
+				dataCountBuffer.release();
+				reader.sizeManager.release(chunk.array());
+				
+				dataCountBuffer = null;
+				chunk = null;
+			}
+			
+			@Override
+			public void run()
+			{
+				try
+				{
+					chunk.flip();
+					if (last)
+						dataCountBuffer.countSymbols(chunk, dataCountBuffer.getSymbolCount(chunk.remaining()));
+					else
+						dataCountBuffer.countBuffer(chunk);
+				}
+				catch (Throwable e)
+				{
+					reader.error = e;
+				}
+				finally
+				{
+					chunk.clear();
+					reader.freeConsumers.add(this);
+				}
+			}
+		}
+		
+		public SizeManager sizeManager;
+		public int suggestedSize;
+		public int dataBits;
+		public int unitSize;
+		
+		public int numberOfConsumers;
+		public int chunkSize;
+		
+		public DataCountBuffer total;
+		public long bytes;
+		
+		protected UnitCarry carry;
+		
+		protected ForkJoinPool pool;
+		protected ArrayBlockingQueue<ChunkConsumer> freeConsumers;
+		protected ChunkConsumer[] consumers;
+		protected ChunkConsumer currentConsumer;
+		protected volatile Throwable error;
+		
+		public DataCountReader(SizeManager sizeManager, int suggestedSize, int dataBits, int numberOfConsumers, int chunkSize)
+		{
+			this.sizeManager = sizeManager;
+			this.suggestedSize = suggestedSize;
+			this.dataBits = dataBits;
+			this.unitSize = getUnitSize(dataBits);
+			
+			this.numberOfConsumers = Math.max(numberOfConsumers, 1);
+			this.chunkSize = Math.max(chunkSize - (chunkSize % this.unitSize), this.unitSize);
+			
+			init();
+		}
+		
+		public DataCountReader(SizeManager sizeManager, int suggestedSize, int dataBits)
+		{
+			this(sizeManager, suggestedSize, dataBits, 1, defaultChunkSize);
+		}
+		
+		public void init()
+		{
+			total = new DataCountBuffer(sizeManager, suggestedSize, dataBits);
+			bytes = 0;
+			
+			carry = new UnitCarry(unitSize);
+			
+			error = null;
+			if (numberOfConsumers > 1)
+			{
+				consumers = new ChunkConsumer[numberOfConsumers];
+				freeConsumers = new ArrayBlockingQueue<>(numberOfConsumers);
+				for (int index = 0; index < numberOfConsumers; index += 1)
+				{
+					consumers[index] = new ChunkConsumer(this, chunkSize);
+					freeConsumers.add(consumers[index]);
+				}
+				currentConsumer = null;
+			}
+		}
+		
+		protected ChunkConsumer takeConsumer()
+		{
+			try
+			{
+				return freeConsumers.take();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while waiting for a chunk consumer", e);
+			}
+		}
+		
+		protected void checkError()
+		{
+			if (error != null)
+				throw new IllegalStateException("chunk consumer failed", error);
+		}
+		
+		protected void readParallel(ByteBuffer buffer)
+		{
+			while (buffer.hasRemaining())
+			{
+				checkError();
+				
+				if (pool == null)
+					pool = new ForkJoinPool(numberOfConsumers);
+				if (currentConsumer == null)
+					currentConsumer = takeConsumer();
+				
+				ByteBuffer chunk = currentConsumer.chunk;
+				int length = Math.min(chunk.remaining(), buffer.remaining());
+				
+				ByteBuffer part = buffer.duplicate();
+				part.limit(part.position() + length);
+				chunk.put(part);
+				buffer.position(part.position());
+				
+				if (!chunk.hasRemaining())
+				{
+					pool.execute(currentConsumer);
+					currentConsumer = null;
+				}
+			}
 		}
 		
 		@Override
-		public void run()
+		public void read(ByteBuffer buffer)
 		{
-			dataCountBuffer.scanBuffer(buffer);
+			bytes += buffer.remaining();
+			
+			if (numberOfConsumers > 1)
+				readParallel(buffer);
+			else
+				carry.read(buffer, total::countBuffer);
 		}
 		
-		public static Thread newThread(SizeManager sizeManager, int suggestedSize, int dataBits, ByteBuffer buffer)
+		@Override
+		public void finish()
 		{
-			return new Thread(new DataCountBufferRunnable(sizeManager, suggestedSize, dataBits, buffer));
+			if (numberOfConsumers > 1)
+			{
+				if (currentConsumer != null)
+				{
+					currentConsumer.last = true;
+					currentConsumer.run();
+					currentConsumer.last = false;
+					currentConsumer = null;
+				}
+				
+				for (int index = 0; index < numberOfConsumers; index += 1)
+					takeConsumer();
+				
+				if (pool != null)
+				{
+					pool.shutdown();
+					pool = null;
+				}
+				checkError();
+				
+				// the consumers are done, their arrays go back to the size manager
+				for (ChunkConsumer consumer : consumers)
+				{
+					total.mergeCounts(consumer.dataCountBuffer);
+					consumer.release();
+				}
+				consumers = null;
+			}
+			else
+			{
+				ByteBuffer rest = carry.takeRest();
+				if (rest != null)
+					total.countSymbols(rest, total.getSymbolCount(rest.remaining()));
+			}
+			
+			total.updateDataCount();
 		}
 	}
 	
-	public int bufferBits;
-	public int bufferSize;
+	public long bufferBits;
+	public long bufferSize;
 	
 	public int possibleDataNumber;
-	public int totalDataCount;
+	public long totalDataCount;
 	
 	SizeManager sizeManager;
 	
@@ -168,7 +920,7 @@ public class SegmentedBuffer
 		this(SizeManager.defaultSizeManager);
 	}
 	
-	public void initialize(int dataBits, int bufferSize)
+	public void initialize(int dataBits, long bufferSize)
 	{
 		this.bufferSize = bufferSize;
 		this.bufferBits = Math.multiplyExact(this.bufferSize, 8);
@@ -178,50 +930,94 @@ public class SegmentedBuffer
 		this.totalDataCount = this.bufferBits / dataBits;
 	}
 	
-	public void ThreadScanBuffer(SizeManager sizeManager, int dataBits, ByteBuffer buffer, int numberOfThreads)
+	// byte offsets of the segments, relative to the buffer position, with the end offset last.
+	// every segment except the last one holds a whole number of units.
+	
+	public int[] getSegmentOffsets(int dataBits, int numberOfSegments)
 	{
-		Thread[] threadArray;
+		int[] segmentOffsets = new int[numberOfSegments + 1];
+		
+		int unitSize = getUnitSize(dataBits);
+		long totalUnitCount = bufferSize / unitSize;
+		long shareCount = totalUnitCount / numberOfSegments;
+		long remainingCount = totalUnitCount % numberOfSegments;
+		
+		long startIndex = 0;
+		for (int index = 0; index < numberOfSegments; index += 1)
+		{
+			segmentOffsets[index] = Math.toIntExact(startIndex * unitSize);
+			startIndex += shareCount + ((remainingCount-- > 0) ? 1 : 0);
+		}
+		segmentOffsets[numberOfSegments] = Math.toIntExact(bufferSize);
 		
+		return segmentOffsets;
+	}
+	
+	public ScanResult ThreadScanBuffer(SizeManager sizeManager, int dataBits, ByteBuffer buffer, int numberOfThreads)
+	{
 		if (numberOfThreads == 0)
 			numberOfThreads = Runtime.getRuntime().availableProcessors();
 		
-		initialize(dataBits, buffer.capacity());
-		
-		threadArray = new Thread[numberOfThreads];
+		initialize(dataBits, buffer.remaining());
 		
-		int dataSize = getBytePerBit(dataBits);
-		int shareCount = totalDataCount / numberOfThreads;
-		int remainingCount = totalDataCount % numberOfThreads;
+		int[] segmentOffsets = getSegmentOffsets(dataBits, numberOfThreads);
+		DataCountBuffer[] segmentArray = new DataCountBuffer[numberOfThreads];
 		
-		int startIndex = 0;
-		int endIndex = shareCount + ((remainingCount-- > 0) ? 1 : 0);
-		for (int index = 0; index < threadArray.length; index += 1)
+		ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try
 		{
-			buffer.position(startIndex * dataSize);
-			buffer.limit(endIndex * dataSize);
+			DataCountBuffer total = pool.invoke(new DataCountTask(sizeManager, this.possibleDataNumber, dataBits, buffer, segmentOffsets, 
+					segmentArray, 0, numberOfThreads));
 			
-			threadArray[index] = DataCountBufferRunnable.newThread(sizeManager, this.possibleDataNumber, dataBits, buffer);
-			
-			startIndex = endIndex;
-			endIndex += shareCount + ((remainingCount-- > 0) ? 1 : 0);
+			return new ScanResult(total, segmentOffsets, segmentArray);
+		}
+		finally
+		{
+			pool.shutdown();
 		}
+	}
+	
+	public ContextCountBuffer ThreadScanContext(ByteBuffer buffer, int numberOfThreads)
+	{
+		if (numberOfThreads == 0)
+			numberOfThreads = Runtime.getRuntime().availableProcessors();
+		
+		initialize(8, buffer.remaining());
 		
-		for (Thread thread : threadArray)
-			thread.start();
+		if (buffer.remaining() < numberOfThreads)
+			numberOfThreads = 1;
 		
-		for (Thread thread : threadArray)
+		int[] segmentOffsets = getSegmentOffsets(8, numberOfThreads);
+		
+		ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try
 		{
-			try { thread.join(); }
-			catch (InterruptedException e) 
-			{
-				System.err.println("--- MAIN THREAD ---");
-				e.printStackTrace(); 
-			}
+			return pool.invoke(new ContextCountTask(buffer, segmentOffsets, 0, numberOfThreads));
 		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+	
+	public DataCountBuffer StreamScanFileChannel(SizeManager sizeManager, int dataBits, FileChannel channel, ReadMode mode, int numberOfConsumers) 
+			throws IOException
+	{
+		initialize(dataBits, channel.size());
+		
+		DataCountReader reader = new DataCountReader(sizeManager, this.possibleDataNumber, dataBits, numberOfConsumers, DataCountReader.defaultChunkSize);
+		reader.readFileChannel(channel, mode, false);
+		
+		return reader.total;
 	}
 	
-	public void ScanBuffer(int dataBits, ByteBuffer buffer)
+	public ScanResult ScanBuffer(int dataBits, ByteBuffer buffer)
 	{
-		initialize(dataBits, buffer.capacity());
+		initialize(dataBits, buffer.remaining());
+		
+		DataCountBuffer dataCountBuffer = new DataCountBuffer(this.sizeManager, this.possibleDataNumber, dataBits);
+		dataCountBuffer.scanBuffer(buffer);
+		
+		return new ScanResult(dataCountBuffer, getSegmentOffsets(dataBits, 1), new DataCountBuffer[] { dataCountBuffer });
 	}
 }
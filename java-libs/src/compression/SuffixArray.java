@@ -0,0 +1,432 @@
+package compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+// suffix array by induced sorting (sa-is of nong, zhang and chan), linear in time, with int arrays as the only memory.
+//
+// the text gets a virtual sentinel after its end which is smaller than every byte, so bytes are symbols 1 to 256.
+// the sorted lms substrings are named, and when two names are equal the reduced string of the names is sorted the same
+// way, with the names as symbols and in the upper part of the suffix array itself.
+
+public class SuffixArray
+{
+	public static final int byteAlphabetSize = 257;
+	
+	// symbols of the text at one level of the recursion
+	
+	protected static abstract class Symbols
+	{
+		public abstract int get(int index);
+	}
+	
+	protected static class ByteSymbols extends Symbols
+	{
+		public byte[] array;
+		public int start;
+		public int length;
+		
+		public ByteSymbols(byte[] array, int start, int length)
+		{
+			this.array = array;
+			this.start = start;
+			this.length = length;
+		}
+		
+		@Override
+		public int get(int index)
+		{
+			return (index == length) ? 0 : (array[start + index] & 0xFF) + 1;
+		}
+	}
+	
+	protected static class BufferSymbols extends Symbols
+	{
+		public ByteBuffer buffer;
+		public int start;
+		public int length;
+		
+		public BufferSymbols(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+			this.start = buffer.position();
+			this.length = buffer.remaining();
+		}
+		
+		@Override
+		public int get(int index)
+		{
+			return (index == length) ? 0 : (buffer.get(start + index) & 0xFF) + 1;
+		}
+	}
+	
+	protected static class IntSymbols extends Symbols
+	{
+		public int[] array;
+		public int start;
+		
+		public IntSymbols(int[] array, int start)
+		{
+			this.array = array;
+			this.start = start;
+		}
+		
+		@Override
+		public int get(int index)
+		{
+			return array[start + index];
+		}
+	}
+	
+	public static class Repeat
+	{
+		public int position;
+		public int length;
+		public int count;
+		
+		public Repeat(int position, int length, int count)
+		{
+			this.position = position;
+			this.length = length;
+			this.count = count;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("length: %d, count: %d, position: %d", length, count, position);
+		}
+	}
+	
+	protected Symbols text;
+	public int length;
+	
+	// start positions of the suffixes in sorted order
+	public int[] suffixes;
+	
+	public SuffixArray(byte[] array, int start, int end)
+	{
+		this.text = new ByteSymbols(array, start, end - start);
+		this.length = end - start;
+		this.suffixes = build(this.text, this.length);
+	}
+	
+	public SuffixArray(ByteBuffer buffer)
+	{
+		this.text = buffer.hasArray() ? new ByteSymbols(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining())
+				: new BufferSymbols(buffer);
+		this.length = buffer.remaining();
+		this.suffixes = build(this.text, this.length);
+	}
+	
+	// the sorted suffixes with the sentinel, which is always first
+	
+	protected static int[] buildWithSentinel(Symbols text, int length)
+	{
+		if (length >= Integer.MAX_VALUE - 1)
+			throw new IllegalArgumentException("text is too large: " + length);
+		
+		int[] suffixes = new int[length + 1];
+		sort(text, suffixes, length + 1, byteAlphabetSize);
+		return suffixes;
+	}
+	
+	protected static int[] build(Symbols text, int length)
+	{
+		return Arrays.copyOfRange(buildWithSentinel(text, length), 1, length + 1);
+	}
+	
+	public static int[] build(byte[] array, int start, int end)
+	{
+		return build(new ByteSymbols(array, start, end - start), end - start);
+	}
+	
+	public static int[] build(ByteBuffer buffer)
+	{
+		return new SuffixArray(buffer).suffixes;
+	}
+	
+	// types: a set bit is an S type suffix, which is smaller than the suffix after it
+	
+	protected static boolean isS(int[] types, int index)
+	{
+		return (types[index >>> 5] & (1 << index)) != 0;
+	}
+	
+	protected static boolean isLMS(int[] types, int index)
+	{
+		return (index > 0) && isS(types, index) && !isS(types, index - 1);
+	}
+	
+	protected static void getBucketStarts(int[] counts, int[] buckets)
+	{
+		int sum = 0;
+		for (int symbol = 0; symbol < counts.length; symbol += 1)
+		{
+			buckets[symbol] = sum;
+			sum += counts[symbol];
+		}
+	}
+	
+	protected static void getBucketEnds(int[] counts, int[] buckets)
+	{
+		int sum = 0;
+		for (int symbol = 0; symbol < counts.length; symbol += 1)
+		{
+			sum += counts[symbol];
+			buckets[symbol] = sum;
+		}
+	}
+	
+	protected static void induceL(Symbols text, int[] suffixes, int[] types, int length, int[] counts, int[] buckets)
+	{
+		getBucketStarts(counts, buckets);
+		for (int index = 0; index < length; index += 1)
+		{
+			int previous = suffixes[index] - 1;
+			if ((previous >= 0) && !isS(types, previous))
+				suffixes[buckets[text.get(previous)]++] = previous;
+		}
+	}
+	
+	protected static void induceS(Symbols text, int[] suffixes, int[] types, int length, int[] counts, int[] buckets)
+	{
+		getBucketEnds(counts, buckets);
+		for (int index = length - 1; index >= 0; index -= 1)
+		{
+			int previous = suffixes[index] - 1;
+			if ((previous >= 0) && isS(types, previous))
+				suffixes[--buckets[text.get(previous)]] = previous;
+		}
+	}
+	
+	// two lms substrings are equal when their symbols and types are equal up to the next lms position
+	
+	protected static boolean isEqualSubstring(Symbols text, int[] types, int position, int previous)
+	{
+		for (int offset = 0; ; offset += 1)
+		{
+			if ((text.get(position + offset) != text.get(previous + offset)) || (isS(types, position + offset) != isS(types, previous + offset)))
+				return false;
+			if ((offset > 0) && (isLMS(types, position + offset) || isLMS(types, previous + offset)))
+				return true;
+		}
+	}
+	
+	// sorts the suffixes of text[0, length), whose last symbol is a unique smallest sentinel, into suffixes[0, length)
+	
+	protected static void sort(Symbols text, int[] suffixes, int length, int alphabetSize)
+	{
+		int[] types = new int[(length + 31) >>> 5];
+		int[] counts = new int[alphabetSize];
+		int[] buckets = new int[alphabetSize];
+		
+		// the sentinel is S type, the symbol before it is always L type
+		types[(length - 1) >>> 5] |= 1 << (length - 1);
+		counts[text.get(length - 1)] += 1;
+		
+		int next = text.get(length - 1);
+		for (int index = length - 2; index >= 0; index -= 1)
+		{
+			int current = text.get(index);
+			if ((current < next) || ((current == next) && isS(types, index + 1)))
+				types[index >>> 5] |= 1 << index;
+			
+			counts[current] += 1;
+			next = current;
+		}
+		
+		// stage 1: sort the lms substrings by placing them at their bucket ends and inducing the rest
+		getBucketEnds(counts, buckets);
+		Arrays.fill(suffixes, 0, length, -1);
+		for (int index = 1; index < length; index += 1)
+			if (isLMS(types, index))
+				suffixes[--buckets[text.get(index)]] = index;
+		
+		induceL(text, suffixes, types, length, counts, buckets);
+		induceS(text, suffixes, types, length, counts, buckets);
+		
+		int lmsCount = 0;
+		for (int index = 0; index < length; index += 1)
+			if (isLMS(types, suffixes[index]))
+				suffixes[lmsCount++] = suffixes[index];
+		
+		// name the substrings, lms positions are at least two apart so position / 2 gives each one its own slot
+		Arrays.fill(suffixes, lmsCount, length, -1);
+		int name = 0;
+		int previous = -1;
+		
+		for (int index = 0; index < lmsCount; index += 1)
+		{
+			int position = suffixes[index];
+			if ((previous == -1) || !isEqualSubstring(text, types, position, previous))
+			{
+				name += 1;
+				previous = position;
+			}
+			suffixes[lmsCount + (position >>> 1)] = name - 1;
+		}
+		
+		for (int index = length - 1, target = length - 1; index >= lmsCount; index -= 1)
+			if (suffixes[index] >= 0)
+				suffixes[target--] = suffixes[index];
+		
+		// stage 2: the order of the lms suffixes, from the reduced string when some names repeat
+		int reducedStart = length - lmsCount;
+		
+		if (name < lmsCount)
+			sort(new IntSymbols(suffixes, reducedStart), suffixes, lmsCount, name);
+		else
+		{
+			for (int index = 0; index < lmsCount; index += 1)
+				suffixes[suffixes[reducedStart + index]] = index;
+		}
+		
+		// stage 3: place the sorted lms suffixes at their bucket ends and induce all suffixes from them
+		for (int index = 1, target = reducedStart; index < length; index += 1)
+			if (isLMS(types, index))
+				suffixes[target++] = index;
+		
+		for (int index = 0; index < lmsCount; index += 1)
+			suffixes[index] = suffixes[reducedStart + suffixes[index]];
+		Arrays.fill(suffixes, lmsCount, length, -1);
+		
+		getBucketEnds(counts, buckets);
+		for (int index = lmsCount - 1; index >= 0; index -= 1)
+		{
+			int position = suffixes[index];
+			suffixes[index] = -1;
+			suffixes[--buckets[text.get(position)]] = position;
+		}
+		
+		induceL(text, suffixes, types, length, counts, buckets);
+		induceS(text, suffixes, types, length, counts, buckets);
+	}
+	
+	// lcp[i] is the length of the common prefix of the suffixes at i - 1 and i, lcp[0] is 0 (kasai et al.)
+	
+	public int[] getLcpArray()
+	{
+		int[] rank = new int[length];
+		for (int index = 0; index < length; index += 1)
+			rank[suffixes[index]] = index;
+		
+		int[] lcp = new int[length];
+		int common = 0;
+		
+		// the common prefix shrinks by at most one from a position to the next one
+		for (int position = 0; position < length; position += 1)
+		{
+			int index = rank[position];
+			if (index == 0)
+			{
+				common = 0;
+				continue;
+			}
+			
+			int other = suffixes[index - 1];
+			while ((position + common < length) && (other + common < length) && (text.get(position + common) == text.get(other + common)))
+				common += 1;
+			
+			lcp[index] = common;
+			if (common > 0)
+				common -= 1;
+		}
+		return lcp;
+	}
+	
+	// the byte before a suffix, or a value that differs from every other one for the suffix at 0
+	
+	protected static final int leftStart = -2;
+	protected static final int leftDiverse = -1;
+	
+	protected int getLeft(int position)
+	{
+		return (position == 0) ? leftStart : text.get(position - 1);
+	}
+	
+	protected static int mergeLeft(int first, int second)
+	{
+		return ((first == second) && (first >= 0)) ? first : leftDiverse;
+	}
+	
+	// the longest maximal repeats of at least minLength bytes: repeats that occur at least twice and would occur fewer times
+	// when extended by one byte to either side. the lcp intervals are walked bottom up with a stack in one pass,
+	// and every interval knows whether all its suffixes follow the same byte, in which case it is not maximal.
+	
+	public Repeat[] getLongestRepeats(int maxCount, int minLength)
+	{
+		if (length < 2)
+			return new Repeat[0];
+		
+		int[] lcp = getLcpArray();
+		
+		PriorityQueue<Repeat> longest = new PriorityQueue<>(maxCount + 1, (first, second) -> (first.length != second.length)
+				? Integer.compare(first.length, second.length) : Integer.compare(first.count, second.count));
+		
+		// the stack holds the open intervals: their lcp, left bound and left byte state
+		int capacity = 64;
+		int[] stackLcp = new int[capacity];
+		int[] stackBound = new int[capacity];
+		int[] stackLeft = new int[capacity];
+		int top = 0;
+		
+		stackLcp[0] = 0;
+		stackBound[0] = 0;
+		stackLeft[0] = getLeft(suffixes[0]);
+		
+		for (int index = 1; index <= length; index += 1)
+		{
+			// past the last suffix every interval but the root is closed
+			int common = (index < length) ? lcp[index] : 0;
+			int bound = index - 1;
+			int left = getLeft(suffixes[index - 1]);
+			
+			while (stackLcp[top] > common)
+			{
+				if ((stackLeft[top] == leftDiverse) || (stackLeft[top] == leftStart))
+				{
+					if (stackLcp[top] >= minLength)
+					{
+						longest.add(new Repeat(suffixes[stackBound[top]], stackLcp[top], index - stackBound[top]));
+						if (longest.size() > maxCount)
+							longest.poll();
+					}
+				}
+				
+				bound = stackBound[top];
+				left = stackLeft[top];
+				top -= 1;
+				
+				if (stackLcp[top] >= common)
+					stackLeft[top] = mergeLeft(stackLeft[top], left);
+			}
+			
+			if (index == length)
+				break;
+			
+			if (stackLcp[top] < common)
+			{
+				top += 1;
+				if (top == capacity)
+				{
+					capacity *= 2;
+					stackLcp = Arrays.copyOf(stackLcp, capacity);
+					stackBound = Arrays.copyOf(stackBound, capacity);
+					stackLeft = Arrays.copyOf(stackLeft, capacity);
+				}
+				
+				stackLcp[top] = common;
+				stackBound[top] = bound;
+				stackLeft[top] = left;
+			}
+			
+			stackLeft[top] = mergeLeft(stackLeft[top], getLeft(suffixes[index]));
+		}
+		
+		Repeat[] repeats = longest.toArray(new Repeat[longest.size()]);
+		Arrays.sort(repeats, longest.comparator().reversed());
+		return repeats;
+	}
+}
@@ -8,34 +8,48 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 
 import library.exceptions.InvalidReadNumber;
+import library.io.FileSegment;
 import library.io.ReadMode;
 
 public class FileTools
 {
+	public static final int maxBufferSize = Integer.MAX_VALUE;
+	public static final int maxReadSize = 1 << 20; // 1 MiB
+	
 	public static ByteBuffer allocateByteBuffer(int size, boolean direct)
 	{
 		return (direct) ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
 	}
 	
+	// the whole file in one buffer. a segment is not one buffer, files of any size are mapped with map() instead.
+	
 	public static ByteBuffer read(FileChannel channel, ReadMode mode) throws IOException, InvalidReadNumber
 	{
 		int size;
-
-		size = Math.toIntExact(channel.size());
+		
+		if (mode == ReadMode.SEGMENT)
+			throw new IllegalArgumentException("a segment is not read into one buffer, use map()");
+		if (channel.size() > maxBufferSize)
+			throw new IllegalArgumentException("file is too large for one buffer, use map(): " + channel.size());
+		
+		size = (int)channel.size();
 		if (size == 0)
 			return null;
 		
 		if (mode == ReadMode.DIRECT_BUFFER || mode == ReadMode.NON_DIRECT_BUFFER)
 		{
 			ByteBuffer buffer;
-			int readNumber;
 			
 			buffer = allocateByteBuffer(size, mode == ReadMode.DIRECT_BUFFER);
 			
-			readNumber = channel.read(buffer, 0);
-			if (readNumber != size)
-				throw new InvalidReadNumber(String.valueOf(readNumber));
+			// a heap buffer is read through a temporary direct buffer of the read size, so it is read in parts
+			while (buffer.position() < size)
+			{
+				buffer.limit((int)Math.min(size, (long)buffer.position() + maxReadSize));
+				readFully(channel, buffer, buffer.position());
+			}
 			
+			buffer.flip();
 			return buffer;
 		}
 		else if (mode == ReadMode.MAPPED_BUFFER)
@@ -48,4 +62,28 @@ public class FileTools
 	{
 		return read(FileChannel.open(path, StandardOpenOption.READ), mode);
 	}
+	
+	// positional reads and writes that do not change the channel position
+	
+	public static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int readNumber = channel.read(buffer, position);
+			if (readNumber < 0)
+				throw new InvalidReadNumber(String.valueOf(readNumber));
+			position += readNumber;
+		}
+	}
+	
+	public static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+	
+	public static FileSegment map(FileChannel channel) throws IOException
+	{
+		return FileSegment.map(channel);
+	}
 }
@@ -1,6 +1,10 @@
 package library;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class Tools
 {
@@ -46,6 +50,36 @@ public class Tools
 		}
 	}
 	
+	// the result of a task on a pool, with the exception the task threw
+	
+	public static <T> T getFuture(Future<T> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			// fork join tasks wrap checked exceptions of callables in runtime exceptions, pipeline stages in unchecked ones
+			Throwable cause = e.getCause();
+			while (((cause.getClass() == RuntimeException.class) || (cause instanceof UncheckedIOException)) && (cause.getCause() != null))
+				cause = cause.getCause();
+			
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+	
 	public static String getProgramName()
 	{
 		return new File(Tools.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getName();
@@ -1,82 +1,352 @@
 package library.io;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import library.FileTools;
 import library.exceptions.InvalidReadNumber;
 
 public abstract class ByteBufferedReader
 {
+	public static final int blockSize = 1 << 13; // 2 ^ 13
+	
+	// mapped files are read in windows of this size, read() still gets blocks of blockSize.
+	// one mapping per block costs a system call and page table setup every 8 KiB.
+	public static final long minWindowSize = 1L << 26; // 64 MiB
+	public static final long maxWindowSize = 1L << 30; // 1 GiB
+	
+	public long windowSize = minWindowSize;
+	
+	// loads the next window into memory on another thread while the current one is read
+	public boolean prefetchWindows = false;
+	
+	// direct and non-direct reads are read ahead by another thread into this many rotating buffers of readAheadSize,
+	// so waiting for the disk overlaps with read(). 0 reads block by block on the calling thread.
+	public static final int defaultReadAheadBuffers = 4;
+	public static final int defaultReadAheadSize = 1 << 20; // 1 MiB
+	
+	public int readAheadBuffers = defaultReadAheadBuffers;
+	public int readAheadSize = defaultReadAheadSize;
+	
+	// block and read ahead buffers, allocated by the first read that needs them and kept for the next ones. a reader
+	// has its own, readers that are used one after another on the same thread can be given one set to share.
+	
+	public static class ReadBuffers
+	{
+		protected ByteBuffer blockBuffer;
+		protected ByteBuffer[] readAheadPool;
+		
+		public ByteBuffer getBlockBuffer(boolean direct)
+		{
+			if ((blockBuffer == null) || (blockBuffer.isDirect() != direct))
+				blockBuffer = FileTools.allocateByteBuffer(blockSize, direct);
+			return blockBuffer.clear();
+		}
+		
+		public ByteBuffer[] getReadAheadPool(int count, int size, boolean direct)
+		{
+			if ((readAheadPool == null) || (readAheadPool.length != count) || (readAheadPool[0].capacity() != size)
+					|| (readAheadPool[0].isDirect() != direct))
+			{
+				readAheadPool = new ByteBuffer[count];
+				for (int index = 0; index < readAheadPool.length; index += 1)
+					readAheadPool[index] = FileTools.allocateByteBuffer(size, direct);
+			}
+			return readAheadPool;
+		}
+	}
+	
+	public ReadBuffers buffers = new ReadBuffers();
+	
+	// buffer is valid only during the call, its memory is filled again with later bytes of the file, with read ahead
+	// by another thread. bytes that are kept after read() returns must be copied.
 	public abstract void read(ByteBuffer buffer);
 	public abstract void finish();
 	
+	// gets the pages of the whole file, readers that use the file at any offset override this
+	
+	public void readSegment(FileSegment segment)
+	{
+		for (int index = 0; index < segment.getPageCount(); index += 1)
+			read(segment.getPage(index));
+	}
+	
 	public final void readFileChannelAll(FileChannel channel, ReadMode mode) throws IOException
 	{
-		ByteBuffer buffer = FileTools.read(channel, mode);
-		if (buffer != null)
-			read(buffer);
+		if (mode == ReadMode.SEGMENT)
+			readSegment(FileTools.map(channel));
+		else
+		{
+			ByteBuffer buffer = FileTools.read(channel, mode);
+			if (buffer != null)
+				read(buffer);
+		}
 		finish();
 	}
 	
-	public final void readFileChannel(FileChannel channel, ReadMode mode, boolean tryReadAll) throws IOException 
+	// the limit of direct buffers, -XX:MaxDirectMemorySize or else the maximum heap size as in the jvm
+	
+	public static long getMaxDirectMemory()
 	{
-		final int blockSize = 1 << 13; // 2 ^ 13
-		if (tryReadAll)
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
 		{
-			try
+			if (argument.startsWith("-XX:MaxDirectMemorySize="))
 			{
-				readFileChannelAll(channel, mode);
+				String value = argument.substring(argument.indexOf('=') + 1).toLowerCase();
+				int shift = "kmgt".indexOf(value.charAt(value.length() - 1));
+				if (shift >= 0)
+					return Long.parseLong(value.substring(0, value.length() - 1)) << (10 * (shift + 1));
+				return Long.parseLong(value);
 			}
-			catch (OutOfMemoryError | ArithmeticException e)
-			{ }
 		}
+		return Runtime.getRuntime().maxMemory();
+	}
+	
+	public static long getUsedDirectMemory()
+	{
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+			if (pool.getName().equals("direct"))
+				return pool.getMemoryUsed();
+		return 0;
+	}
+	
+	// a file is read into one buffer only if the buffer can hold it and it takes at most half of what is left of the
+	// memory it is allocated in, the direct memory limit or the heap, so reading never has to recover from an
+	// OutOfMemoryError
+	
+	public static boolean canReadAll(long size, ReadMode mode)
+	{
+		if (size > FileTools.maxBufferSize)
+			return false;
+		if (mode == ReadMode.MAPPED_BUFFER || mode == ReadMode.SEGMENT)
+			return true;
+		if (mode == ReadMode.DIRECT_BUFFER)
+			return size <= (getMaxDirectMemory() - getUsedDirectMemory()) / 2;
 		
-		ByteBuffer buffer;
-		long total;
-		int readNumber;
+		Runtime runtime = Runtime.getRuntime();
+		return size <= (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) / 2;
+	}
+	
+	protected static void joinThread(Thread thread)
+	{
+		if (thread == null)
+			return;
 		
-		if (mode == ReadMode.DIRECT_BUFFER || mode == ReadMode.NON_DIRECT_BUFFER)
+		try
+		{
+			thread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	// the next window is mapped before the current one is read, so it can be loaded meanwhile.
+	// windows are unmapped by the gc, files larger than 2 GiB are read as a sequence of windows.
+	
+	protected void readMappedWindows(FileChannel channel, long start, long end) throws IOException
+	{
+		if ((windowSize < minWindowSize) || (windowSize > maxWindowSize) || (windowSize % blockSize != 0))
+			throw new IllegalArgumentException("invalid window size: " + windowSize);
+		
+		long position = start;
+		Thread prefetchThread = null;
+		
+		MappedByteBuffer window = (start == end) ? null : channel.map(MapMode.READ_ONLY, start, Math.min(windowSize, end - start));
+		try
+		{
+			while (window != null)
+			{
+				long nextPosition = position + window.capacity();
+				MappedByteBuffer nextWindow = null;
+				
+				if (nextPosition < end)
+				{
+					nextWindow = channel.map(MapMode.READ_ONLY, nextPosition, Math.min(windowSize, end - nextPosition));
+					if (prefetchWindows)
+					{
+						prefetchThread = new Thread(nextWindow::load, "window prefetch");
+						prefetchThread.setDaemon(true);
+						prefetchThread.start();
+					}
+				}
+				
+				for (int offset = 0; offset < window.capacity(); offset += blockSize)
+					read(window.slice(offset, Math.min(blockSize, window.capacity() - offset)));
+				
+				joinThread(prefetchThread);
+				prefetchThread = null;
+				
+				window = nextWindow;
+				position = nextPosition;
+			}
+		}
+		finally
+		{
+			joinThread(prefetchThread);
+		}
+	}
+	
+	// fills free buffers from the channel and passes them on in file order, an empty buffer follows the last one.
+	// there are never more buffers than the queues hold, so only taking a free buffer waits.
+	
+	protected static class ReadAheadThread extends Thread
+	{
+		public static final ByteBuffer endMarker = ByteBuffer.allocate(0);
+		
+		public FileChannel channel;
+		public long size;
+		
+		public ArrayBlockingQueue<ByteBuffer> freeBuffers;
+		public ArrayBlockingQueue<ByteBuffer> filledBuffers;
+		
+		public volatile boolean stopped;
+		public volatile Exception error;
+		
+		public ReadAheadThread(FileChannel channel, long size, ByteBuffer[] buffers)
 		{
-			buffer = FileTools.allocateByteBuffer(blockSize, mode == ReadMode.DIRECT_BUFFER);
+			super("read ahead");
+			setDaemon(true);
 			
-			total = channel.size();
-			while (total >= blockSize)
+			this.channel = channel;
+			this.size = size;
+			
+			this.freeBuffers = new ArrayBlockingQueue<>(buffers.length + 1);
+			this.filledBuffers = new ArrayBlockingQueue<>(buffers.length + 1);
+			Collections.addAll(this.freeBuffers, buffers);
+		}
+		
+		@Override
+		public void run()
+		{
+			try
 			{
-				readNumber = channel.read(buffer, channel.size() - total);
-				if (readNumber != blockSize)
-					throw new InvalidReadNumber(String.valueOf(readNumber));
-				read(buffer);
-				total -= blockSize;
+				long position = 0;
+				while (position < size)
+				{
+					ByteBuffer buffer = freeBuffers.take();
+					if (stopped)
+						return;
+					
+					buffer.clear();
+					buffer.limit((int)Math.min(buffer.capacity(), size - position));
+					while (buffer.hasRemaining())
+					{
+						int readNumber = channel.read(buffer, position + buffer.position());
+						if (readNumber < 0)
+							throw new InvalidReadNumber(String.valueOf(readNumber));
+					}
+					
+					buffer.flip();
+					position += buffer.limit();
+					filledBuffers.add(buffer);
+				}
 			}
-			if (total != 0)
+			catch (IOException | RuntimeException e)
 			{
-				readNumber = channel.read(buffer, channel.size() - total);
-				if (readNumber != total)
-					throw new InvalidReadNumber(String.valueOf(readNumber));
-				read(buffer);
+				error = e;
 			}
-			finish();
-		}
-		else if (mode == ReadMode.MAPPED_BUFFER)
-		{
-			total = channel.size();
-			while (total >= blockSize)
+			catch (InterruptedException e)
 			{
-				buffer = channel.map(MapMode.READ_ONLY, channel.size() - total, blockSize);
-				read(buffer);
-				total -= blockSize;
+				error = new InterruptedIOException("read ahead interrupted");
 			}
-			if (total != 0)
+			filledBuffers.add(endMarker);
+		}
+	}
+	
+	protected void readAhead(FileChannel channel, boolean direct) throws IOException
+	{
+		if ((readAheadSize < blockSize) || (readAheadSize % blockSize != 0))
+			throw new IllegalArgumentException("invalid read ahead size: " + readAheadSize);
+		
+		ReadAheadThread thread = new ReadAheadThread(channel, channel.size(), buffers.getReadAheadPool(readAheadBuffers, readAheadSize, direct));
+		thread.start();
+		
+		try
+		{
+			while (true)
 			{
-				buffer = channel.map(MapMode.READ_ONLY, channel.size() - total, total);
-				read(buffer);
+				ByteBuffer buffer = thread.filledBuffers.take();
+				if (buffer == ReadAheadThread.endMarker)
+					break;
+				
+				for (int offset = 0; offset < buffer.limit(); offset += blockSize)
+					read(buffer.slice(offset, Math.min(blockSize, buffer.limit() - offset)));
+				thread.freeBuffers.add(buffer);
 			}
-			finish();
 		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for read ahead");
+		}
+		finally
+		{
+			// wakes the thread if it waits for a free buffer, after an error in read()
+			thread.stopped = true;
+			thread.freeBuffers.add(ReadAheadThread.endMarker);
+			joinThread(thread);
+		}
+		
+		if (thread.error instanceof IOException)
+			throw (IOException)thread.error;
+		if (thread.error != null)
+			throw (RuntimeException)thread.error;
+	}
+	
+	protected void readBlocks(FileChannel channel, long start, long end, boolean direct) throws IOException
+	{
+		ByteBuffer buffer = buffers.getBlockBuffer(direct);
+		int readNumber;
+		
+		for (long position = start; position < end; position += buffer.limit())
+		{
+			buffer.clear();
+			buffer.limit((int)Math.min(blockSize, end - position));
+			readNumber = channel.read(buffer, position);
+			if (readNumber != buffer.limit())
+				throw new InvalidReadNumber(String.valueOf(readNumber));
+			buffer.flip();
+			read(buffer);
+		}
+	}
+	
+	// reads the bytes in [start, end) of the channel without calling finish()
+	
+	public final void readFileChannelRange(FileChannel channel, ReadMode mode, long start, long end) throws IOException
+	{
+		if (mode == ReadMode.DIRECT_BUFFER || mode == ReadMode.NON_DIRECT_BUFFER)
+			readBlocks(channel, start, end, mode == ReadMode.DIRECT_BUFFER);
+		else if (mode == ReadMode.MAPPED_BUFFER || mode == ReadMode.SEGMENT)
+			readMappedWindows(channel, start, end);
 		else
 			throw new IllegalArgumentException("unknown mode: " + mode);
 	}
+	
+	public final void readFileChannel(FileChannel channel, ReadMode mode, boolean tryReadAll) throws IOException 
+	{
+		// a segment is always the whole file
+		if ((mode == ReadMode.SEGMENT) || (tryReadAll && canReadAll(channel.size(), mode)))
+		{
+			readFileChannelAll(channel, mode);
+			return;
+		}
+		
+		// smaller files are not worth starting a thread for
+		if ((mode == ReadMode.DIRECT_BUFFER || mode == ReadMode.NON_DIRECT_BUFFER) && (readAheadBuffers > 1)
+				&& (channel.size() > (long)readAheadBuffers * readAheadSize))
+			readAhead(channel, mode == ReadMode.DIRECT_BUFFER);
+		else
+			readFileChannelRange(channel, mode, 0, channel.size());
+		finish();
+	}
 }
@@ -0,0 +1,96 @@
+package library.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+// a whole file of any size mapped for reading with long offsets, as pages of pageSize bytes. every page maps
+// maxSliceSize bytes of the next one too, so a slice up to that size is always inside one page.
+// pages are unmapped by the gc.
+
+public class FileSegment
+{
+	public static final int pageBits = 30;
+	public static final long pageSize = 1L << pageBits; // 1 GiB
+	public static final int maxSliceSize = 1 << 20; // 1 MiB
+	
+	public long size;
+	protected MappedByteBuffer[] pages;
+	
+	protected FileSegment(long size, MappedByteBuffer[] pages)
+	{
+		this.size = size;
+		this.pages = pages;
+	}
+	
+	public static FileSegment map(FileChannel channel) throws IOException
+	{
+		long size = channel.size();
+		MappedByteBuffer[] pages = new MappedByteBuffer[(int)((size + pageSize - 1) >>> pageBits)];
+		
+		for (int index = 0; index < pages.length; index += 1)
+		{
+			long start = (long)index << pageBits;
+			pages[index] = channel.map(MapMode.READ_ONLY, start, Math.min(pageSize + maxSliceSize, size - start));
+		}
+		return new FileSegment(size, pages);
+	}
+	
+	public int getPageCount()
+	{
+		return pages.length;
+	}
+	
+	// the bytes of a page without the part it shares with the next one
+	
+	public ByteBuffer getPage(int index)
+	{
+		return pages[index].slice(0, (int)Math.min(pageSize, size - ((long)index << pageBits)));
+	}
+	
+	protected void checkRange(long position, long length)
+	{
+		if ((position < 0) || (length < 0) || (position + length > size))
+			throw new IndexOutOfBoundsException("range [" + position + ", " + (position + length) + ") of " + size + " bytes");
+	}
+	
+	public byte get(long position)
+	{
+		checkRange(position, 1);
+		return pages[(int)(position >>> pageBits)].get((int)(position & (pageSize - 1)));
+	}
+	
+	// a buffer of length bytes at position, sharing the mapped memory
+	
+	public ByteBuffer slice(long position, int length)
+	{
+		checkRange(position, length);
+		if (length > maxSliceSize)
+			throw new IllegalArgumentException("slice is too large: " + length);
+		if (length == 0)
+			return ByteBuffer.allocate(0);
+		
+		return pages[(int)(position >>> pageBits)].slice((int)(position & (pageSize - 1)), length);
+	}
+	
+	// copies bytes of any range, across pages
+	
+	public void get(long position, byte[] array, int offset, int length)
+	{
+		checkRange(position, length);
+		
+		while (length != 0)
+		{
+			int page = (int)(position >>> pageBits);
+			int pageOffset = (int)(position & (pageSize - 1));
+			int part = (int)Math.min(length, pageSize - pageOffset);
+			
+			pages[page].get(pageOffset, array, offset, part);
+			position += part;
+			offset += part;
+			length -= part;
+		}
+	}
+}
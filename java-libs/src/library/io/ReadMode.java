@@ -5,4 +5,7 @@ public enum ReadMode
 	DIRECT_BUFFER,
 	NON_DIRECT_BUFFER,
 	MAPPED_BUFFER,
+	
+	// the whole file mapped as a FileSegment, for files of any size
+	SEGMENT,
 }
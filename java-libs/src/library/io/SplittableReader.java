@@ -0,0 +1,138 @@
+package library.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import library.FileTools;
+import library.Tools;
+
+// a reader whose work on a file can be split into byte ranges that are read by their own reader on a thread pool.
+// the results of the ranges are merged in file order into the reader that read the first range, then finish() is
+// called on it once.
+//
+// a range starts where findBoundary() allows it, so state that spans bytes, such as a word or a symbol of several
+// bytes, never has to be carried across ranges. merge() adds the results of the range that follows.
+
+public abstract class SplittableReader<T extends SplittableReader<T>> extends ByteBufferedReader
+{
+	// ranges are never smaller than this, and there are a few ranges for every thread so they end close together
+	public static final long minRangeSize = 1L << 24; // 16 MiB
+	public static final int rangesPerThread = 4;
+	
+	// the bytes searched at once for a boundary
+	public static final int boundarySearchSize = 1 << 16;
+	
+	// a reader in the initial state for a range
+	public abstract T newRangeReader();
+	
+	// adds the results of the reader of the range that directly follows the ranges merged into this one
+	public abstract void merge(T next);
+	
+	// the number of bytes from the buffer position after which a range can start, or -1 if there is no such place in
+	// the buffer. position is the file offset of the buffer position. any place is a boundary by default.
+	public int findBoundary(long position, ByteBuffer buffer)
+	{
+		return 0;
+	}
+	
+	// the first boundary in [start, limit), or -1
+	
+	protected long findRangeStart(FileChannel channel, long start, long limit) throws IOException
+	{
+		ByteBuffer buffer = FileTools.allocateByteBuffer(boundarySearchSize, false);
+		
+		for (long position = start; position < limit; position += buffer.limit())
+		{
+			buffer.clear();
+			buffer.limit((int)Math.min(boundarySearchSize, limit - position));
+			while (buffer.hasRemaining())
+				if (channel.read(buffer, position + buffer.position()) < 0)
+					return -1;
+			buffer.flip();
+			
+			int offset = findBoundary(position, buffer);
+			if ((offset >= 0) && (position + offset < limit))
+				return position + offset;
+		}
+		return -1;
+	}
+	
+	// range starts at about equal distances, moved forward to boundaries. a range without a boundary is merged with
+	// the one before it.
+	
+	protected long[] getRangeStarts(FileChannel channel, int numberOfThreads) throws IOException
+	{
+		long size = channel.size();
+		int rangeCount = (int)Math.max(1, Math.min((long)numberOfThreads * rangesPerThread, size / minRangeSize));
+		
+		List<Long> starts = new ArrayList<>();
+		starts.add(0L);
+		
+		for (int index = 1; index < rangeCount; index += 1)
+		{
+			long start = Math.max(size / rangeCount * index, starts.get(starts.size() - 1) + 1);
+			long limit = size / rangeCount * (index + 1);
+			
+			start = (start < limit) ? findRangeStart(channel, start, limit) : -1;
+			if (start > 0)
+				starts.add(start);
+		}
+		starts.add(size);
+		
+		return starts.stream().mapToLong(Long::longValue).toArray();
+	}
+	
+	// reads the ranges of the file on numberOfThreads threads, 0 uses every processor
+	
+	@SuppressWarnings("unchecked")
+	public final void readFileChannelParallel(FileChannel channel, ReadMode mode, int numberOfThreads) throws IOException
+	{
+		if (numberOfThreads == 0)
+			numberOfThreads = Runtime.getRuntime().availableProcessors();
+		
+		long[] starts = getRangeStarts(channel, numberOfThreads);
+		if (starts.length == 2)
+		{
+			readFileChannel(channel, mode, false);
+			return;
+		}
+		
+		List<T> readers = new ArrayList<>();
+		List<Future<?>> futures = new ArrayList<>();
+		
+		ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+		try
+		{
+			for (int index = 0; index + 1 < starts.length; index += 1)
+			{
+				T reader = (index == 0) ? (T)this : newRangeReader();
+				long start = starts[index];
+				long end = starts[index + 1];
+				
+				readers.add(reader);
+				futures.add(pool.submit(() ->
+				{
+					reader.readFileChannelRange(channel, mode, start, end);
+					return null;
+				}));
+			}
+			
+			for (Future<?> future : futures)
+				Tools.getFuture(future);
+		}
+		finally
+		{
+			// not shutdownNow(), an interrupt during a read closes the channel
+			pool.shutdown();
+		}
+		
+		for (int index = 1; index < readers.size(); index += 1)
+			merge(readers.get(index));
+		finish();
+	}
+}
@@ -0,0 +1,190 @@
+package library.types;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+// arrays in power of two size classes, for buffers that are allocated and dropped over and over. a borrowed array has
+// the length of its class, which is at least the asked length, and is not cleared.
+//
+// every thread keeps a few small arrays of each class for itself. other returned arrays go to a shared pool up to a
+// memory limit and beyond it are left to the gc, so arrays freed by short-lived pool threads are not lost.
+
+public class ArrayPool<T>
+{
+	public static final int minClassBits = 4;
+	public static final int maxClassBits = 30;
+	public static final int classCount = maxClassBits + 1;
+	
+	public static final int defaultLocalCount = 4;
+	public static final int defaultMaxLocalBytes = 1 << 16; // 64 KiB
+	public static final long defaultMaxSharedBytes = 1L << 28; // 256 MiB
+	
+	public static final ArrayPool<byte[]> bytes = new ArrayPool<>(byte[]::new, (array) -> array.length, 0);
+	public static final ArrayPool<long[]> longs = new ArrayPool<>(long[]::new, (array) -> array.length, 3);
+	
+	protected static class LocalCache
+	{
+		public Object[][] arrays = new Object[classCount][];
+		public int[] counts = new int[classCount];
+	}
+	
+	protected IntFunction<T> allocator;
+	protected ToIntFunction<T> lengthFunction;
+	protected int elementShift;
+	
+	public int localCount;
+	public int maxLocalBytes;
+	public long maxSharedBytes;
+	
+	protected ThreadLocal<LocalCache> localCaches;
+	protected ArrayDeque<T>[] sharedArrays;
+	protected AtomicLong sharedBytes;
+	
+	// arrays that were not in the pool, for checking that repeated work reaches a steady state
+	public AtomicLong allocatedCount;
+	public AtomicLong allocatedBytes;
+	
+	public ArrayPool(IntFunction<T> allocator, ToIntFunction<T> lengthFunction, int elementShift)
+	{
+		this.allocator = allocator;
+		this.lengthFunction = lengthFunction;
+		this.elementShift = elementShift;
+		
+		this.localCount = defaultLocalCount;
+		this.maxLocalBytes = defaultMaxLocalBytes;
+		this.maxSharedBytes = defaultMaxSharedBytes;
+		
+		this.localCaches = ThreadLocal.withInitial(LocalCache::new);
+		this.sharedArrays = newSharedArrays();
+		this.sharedBytes = new AtomicLong();
+		
+		this.allocatedCount = new AtomicLong();
+		this.allocatedBytes = new AtomicLong();
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected static <T> ArrayDeque<T>[] newSharedArrays()
+	{
+		ArrayDeque<T>[] sharedArrays = (ArrayDeque<T>[])new ArrayDeque<?>[classCount];
+		for (int classBits = 0; classBits < classCount; classBits += 1)
+			sharedArrays[classBits] = new ArrayDeque<>();
+		return sharedArrays;
+	}
+	
+	public static int getClassBits(int length)
+	{
+		if (length > (1 << maxClassBits))
+			throw new ArithmeticException("array length overflow: " + length);
+		
+		return Math.max(minClassBits, Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1));
+	}
+	
+	protected long getBytes(int classBits)
+	{
+		return 1L << (classBits + elementShift);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public T borrow(int length)
+	{
+		int classBits = getClassBits(length);
+		
+		LocalCache cache = localCaches.get();
+		if (cache.counts[classBits] != 0)
+		{
+			cache.counts[classBits] -= 1;
+			T array = (T)cache.arrays[classBits][cache.counts[classBits]];
+			cache.arrays[classBits][cache.counts[classBits]] = null;
+			return array;
+		}
+		
+		ArrayDeque<T> shared = sharedArrays[classBits];
+		synchronized (shared)
+		{
+			T array = shared.poll();
+			if (array != null)
+			{
+				sharedBytes.addAndGet(-getBytes(classBits));
+				return array;
+			}
+		}
+		
+		allocatedCount.incrementAndGet();
+		allocatedBytes.addAndGet(getBytes(classBits));
+		return allocator.apply(1 << classBits);
+	}
+	
+	// only arrays with the length of a class are kept, others are left to the gc
+	
+	public void release(T array)
+	{
+		if (array == null)
+			return;
+		
+		int length = lengthFunction.applyAsInt(array);
+		if ((length < (1 << minClassBits)) || (Integer.bitCount(length) != 1))
+			return;
+		
+		int classBits = Integer.numberOfTrailingZeros(length);
+		long bytes = getBytes(classBits);
+		
+		if (bytes <= maxLocalBytes)
+		{
+			LocalCache cache = localCaches.get();
+			if (cache.counts[classBits] < localCount)
+			{
+				if (cache.arrays[classBits] == null)
+					cache.arrays[classBits] = new Object[localCount];
+				
+				cache.arrays[classBits][cache.counts[classBits]] = array;
+				cache.counts[classBits] += 1;
+				return;
+			}
+		}
+		
+		if (sharedBytes.addAndGet(bytes) > maxSharedBytes)
+		{
+			sharedBytes.addAndGet(-bytes);
+			return;
+		}
+		
+		ArrayDeque<T> shared = sharedArrays[classBits];
+		synchronized (shared)
+		{
+			shared.push(array);
+		}
+	}
+	
+	// an array of at least length with the first used elements of array, which is released
+	
+	public T grow(T array, int used, int length)
+	{
+		T result = borrow(length);
+		System.arraycopy(array, 0, result, 0, used);
+		release(array);
+		return result;
+	}
+	
+	// drops the shared arrays and the arrays of this thread
+	
+	public void clear()
+	{
+		for (ArrayDeque<T> shared : sharedArrays)
+		{
+			synchronized (shared)
+			{
+				shared.clear();
+			}
+		}
+		sharedBytes.set(0);
+		
+		LocalCache cache = localCaches.get();
+		for (Object[] arrays : cache.arrays)
+			if (arrays != null)
+				Arrays.fill(arrays, null);
+		Arrays.fill(cache.counts, 0);
+	}
+}
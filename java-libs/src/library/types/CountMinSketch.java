@@ -0,0 +1,132 @@
+package library.types;
+
+import java.util.Arrays;
+
+// count-min sketch of long keys: depth rows of width counters, an estimate is never below the real count.
+// the row slots come from two hashes of the key (h1 + row * h2), so a key is hashed only twice for any depth.
+
+public class CountMinSketch
+{
+	public static final int defaultDepth = 4;
+	public static final int minimumWidthBits = 4;
+	public static final int maximumWidthBits = 28;
+	
+	public int depth;
+	public int widthBits;
+	public int width;
+	
+	public long[] table;
+	public long total;
+	
+	protected int shift;
+	
+	public CountMinSketch(int depth, int widthBits)
+	{
+		if (depth < 1)
+			throw new IllegalArgumentException("invalid depth: " + depth);
+		if ((widthBits < minimumWidthBits) || (widthBits > maximumWidthBits))
+			throw new IllegalArgumentException("invalid width bits: " + widthBits);
+		
+		this.depth = depth;
+		this.widthBits = widthBits;
+		this.width = 1 << widthBits;
+		this.shift = Long.SIZE - widthBits;
+		
+		this.table = new long[Math.multiplyExact(depth, this.width)];
+		this.total = 0;
+	}
+	
+	// the largest width whose table fits in the memory
+	
+	public static int getWidthBits(long memory, int depth)
+	{
+		long width = memory / ((long)depth * Long.BYTES);
+		if (width < (1 << minimumWidthBits))
+			return minimumWidthBits;
+		return Math.min(Long.SIZE - 1 - Long.numberOfLeadingZeros(width), maximumWidthBits);
+	}
+	
+	public static CountMinSketch fromMemory(long memory, int depth)
+	{
+		return new CountMinSketch(depth, getWidthBits(memory, depth));
+	}
+	
+	public long getMemorySize()
+	{
+		return (long)table.length * Long.BYTES;
+	}
+	
+	protected static long secondHash(long key)
+	{
+		return LongCountTable.hash(key ^ 0x9e3779b97f4a7c15L) | 1;
+	}
+	
+	public void add(long key, long count)
+	{
+		long hash = LongCountTable.hash(key);
+		long step = secondHash(key);
+		
+		for (int row = 0, offset = 0; row < depth; row += 1, offset += width)
+		{
+			table[offset + (int)(hash >>> shift)] += count;
+			hash += step;
+		}
+		total += count;
+	}
+	
+	public void increase(long key)
+	{
+		add(key, 1);
+	}
+	
+	// adds the count and returns the new estimate of the key
+	
+	public long addAndEstimate(long key, long count)
+	{
+		long hash = LongCountTable.hash(key);
+		long step = secondHash(key);
+		long minimum = Long.MAX_VALUE;
+		
+		for (int row = 0, offset = 0; row < depth; row += 1, offset += width)
+		{
+			int slot = offset + (int)(hash >>> shift);
+			minimum = Math.min(minimum, table[slot] += count);
+			hash += step;
+		}
+		total += count;
+		
+		return minimum;
+	}
+	
+	public long estimate(long key)
+	{
+		long hash = LongCountTable.hash(key);
+		long step = secondHash(key);
+		long minimum = Long.MAX_VALUE;
+		
+		for (int row = 0, offset = 0; row < depth; row += 1, offset += width)
+		{
+			minimum = Math.min(minimum, table[offset + (int)(hash >>> shift)]);
+			hash += step;
+		}
+		return minimum;
+	}
+	
+	// both sketches must have the same shape
+	
+	public void merge(CountMinSketch other)
+	{
+		if ((other.depth != depth) || (other.widthBits != widthBits))
+			throw new IllegalArgumentException("sketch shapes differ");
+		
+		for (int index = 0; index < table.length; index += 1)
+			table[index] += other.table[index];
+		total += other.total;
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(table, 0);
+		total = 0;
+	}
+}
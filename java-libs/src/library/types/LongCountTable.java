@@ -0,0 +1,182 @@
+package library.types;
+
+import java.util.Arrays;
+
+public class LongCountTable
+{
+	public static final int minimumCapacity = 16;
+	
+	public SizeManager sizeManager;
+	
+	public int capacity;
+	public int length;
+	
+	public long[] keys;
+	public long[] counts;
+	
+	protected int mask;
+	protected int shift;
+	protected int threshold;
+	
+	public LongCountTable(SizeManager sizeManager, int suggestedSize)
+	{
+		this.sizeManager = sizeManager;
+		
+		allocate(getCapacity(Math.min(sizeManager.getNewSize(0), Math.max(suggestedSize, minimumCapacity))));
+	}
+	
+	public LongCountTable(SizeManager sizeManager)
+	{
+		this(sizeManager, SizeManager.initialSize);
+	}
+	
+	// capacity is always a power of two, so the slot is taken from the top bits of the hash
+	
+	public static int getCapacity(int size)
+	{
+		if (size <= minimumCapacity)
+			return minimumCapacity;
+		if (size > (1 << 30))
+			throw new ArithmeticException("table size overflow: " + size);
+		return Integer.highestOneBit(size - 1) << 1;
+	}
+	
+	public static long hash(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+	
+	protected void allocate(int capacity)
+	{
+		this.capacity = capacity;
+		this.length = 0;
+		
+		// a count of zero marks an empty slot, arrays of a pooling size manager may hold old counts
+		this.keys = this.sizeManager.allocateLongs(capacity);
+		this.counts = this.sizeManager.allocateLongs(capacity);
+		Arrays.fill(this.counts, 0, capacity, 0);
+		
+		this.mask = capacity - 1;
+		this.shift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+		this.threshold = (capacity >>> 1) + (capacity >>> 2); // 75%
+	}
+	
+	protected void rehash(int newCapacity)
+	{
+		long[] oldKeys = this.keys;
+		long[] oldCounts = this.counts;
+		int oldCapacity = this.capacity;
+		int oldLength = this.length;
+		
+		allocate(newCapacity);
+		
+		for (int index = 0; index < oldCapacity; index += 1)
+		{
+			if (oldCounts[index] != 0)
+			{
+				int slot = (int)(hash(oldKeys[index]) >>> this.shift);
+				while (this.counts[slot] != 0)
+					slot = (slot + 1) & this.mask;
+				
+				this.keys[slot] = oldKeys[index];
+				this.counts[slot] = oldCounts[index];
+			}
+		}
+		this.length = oldLength;
+		
+		this.sizeManager.release(oldKeys);
+		this.sizeManager.release(oldCounts);
+	}
+	
+	protected void rehash()
+	{
+		rehash(getCapacity(Math.max(this.sizeManager.getNewSize(this.capacity), this.capacity + 1)));
+	}
+	
+	// adding the slots of a bigger table in order into a smaller one clusters badly, so grow up front
+	
+	public void ensureCapacity(int length)
+	{
+		int newCapacity = this.capacity;
+		while (length > ((newCapacity >>> 1) + (newCapacity >>> 2)))
+			newCapacity = getCapacity(Math.max(this.sizeManager.getNewSize(newCapacity), newCapacity + 1));
+		
+		if (newCapacity != this.capacity)
+			rehash(newCapacity);
+	}
+	
+	// a count of zero marks an empty slot, so every key value including zero can be stored
+	
+	public void add(long key, long count)
+	{
+		if (count == 0)
+			return;
+		
+		int slot = (int)(hash(key) >>> this.shift);
+		
+		while (this.counts[slot] != 0)
+		{
+			if (this.keys[slot] == key)
+			{
+				this.counts[slot] += count;
+				return;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		
+		this.keys[slot] = key;
+		this.counts[slot] = count;
+		this.length += 1;
+		
+		if (this.length > this.threshold)
+			rehash();
+	}
+	
+	public void increase(long key)
+	{
+		add(key, 1);
+	}
+	
+	public long get(long key)
+	{
+		int slot = (int)(hash(key) >>> this.shift);
+		
+		while (this.counts[slot] != 0)
+		{
+			if (this.keys[slot] == key)
+				return this.counts[slot];
+			slot = (slot + 1) & this.mask;
+		}
+		return 0;
+	}
+	
+	public void merge(LongCountTable other)
+	{
+		ensureCapacity(this.length + other.length);
+		
+		for (int slot = 0; slot < other.capacity; slot += 1)
+			if (other.counts[slot] != 0)
+				add(other.keys[slot], other.counts[slot]);
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(this.counts, 0, this.capacity, 0);
+		this.length = 0;
+	}
+	
+	// gives the arrays back to the size manager, the table can not be used after this
+	
+	public void release()
+	{
+		this.sizeManager.release(this.keys);
+		this.sizeManager.release(this.counts);
+		this.keys = null;
+		this.counts = null;
+	}
+}
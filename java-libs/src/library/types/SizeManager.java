@@ -6,6 +6,24 @@ public interface SizeManager
 	
 	public static final int initialSize = 1 << 13; // 8192
 	
+	// arrays of at least the given size, their contents are undefined. released arrays must not be used again.
+	
+	public default byte[] allocateBytes(int size)
+	{
+		return new byte[size];
+	}
+	
+	public default long[] allocateLongs(int size)
+	{
+		return new long[size];
+	}
+	
+	public default void release(byte[] array)
+	{ }
+	
+	public default void release(long[] array)
+	{ }
+	
 	public static SizeManager doubleSizeManager = new SizeManager()
 	{
 		@Override
@@ -24,5 +42,40 @@ public interface SizeManager
 		}
 	};
 	
+	// doubles like doubleSizeManager, and borrows its arrays from the shared array pools
+	
+	public static SizeManager pooledSizeManager = new SizeManager()
+	{
+		@Override
+		public int getNewSize(int size)
+		{
+			return doubleSizeManager.getNewSize(size);
+		}
+		
+		@Override
+		public byte[] allocateBytes(int size)
+		{
+			return ArrayPool.bytes.borrow(size);
+		}
+		
+		@Override
+		public long[] allocateLongs(int size)
+		{
+			return ArrayPool.longs.borrow(size);
+		}
+		
+		@Override
+		public void release(byte[] array)
+		{
+			ArrayPool.bytes.release(array);
+		}
+		
+		@Override
+		public void release(long[] array)
+		{
+			ArrayPool.longs.release(array);
+		}
+	};
+	
 	public static SizeManager defaultSizeManager = doubleSizeManager;
 }
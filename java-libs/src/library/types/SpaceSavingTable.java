@@ -0,0 +1,305 @@
+package library.types;
+
+import java.util.Arrays;
+
+// space-saving top-k of long keys. at most capacity keys are monitored, a new key replaces the one with the
+// smallest count and takes over that count as its error, so count - error <= real count <= count.
+//
+// the entries form a min-heap on count, and an open addressing index maps a key to its heap position.
+
+public class SpaceSavingTable
+{
+	public static class Entry
+	{
+		public long key;
+		public long count;
+		public long error;
+		
+		public Entry(long key, long count, long error)
+		{
+			this.key = key;
+			this.count = count;
+			this.error = error;
+		}
+	}
+	
+	public int capacity;
+	public int length;
+	
+	public long[] keys;
+	public long[] counts;
+	public long[] errors;
+	
+	// heap position + 1 of the key in each slot, zero marks an empty slot
+	protected long[] indexKeys;
+	protected int[] indexSlots;
+	protected int indexMask;
+	protected int indexShift;
+	
+	public SpaceSavingTable(int capacity)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("invalid capacity: " + capacity);
+		
+		this.capacity = capacity;
+		this.keys = new long[capacity];
+		this.counts = new long[capacity];
+		this.errors = new long[capacity];
+		
+		int indexCapacity = LongCountTable.getCapacity(capacity * 2);
+		this.indexKeys = new long[indexCapacity];
+		this.indexSlots = new int[indexCapacity];
+		this.indexMask = indexCapacity - 1;
+		this.indexShift = Long.SIZE - Integer.numberOfTrailingZeros(indexCapacity);
+		
+		this.length = 0;
+	}
+	
+	public static long getMemorySize(int capacity)
+	{
+		return (long)capacity * 3 * Long.BYTES + (long)LongCountTable.getCapacity(capacity * 2) * (Long.BYTES + Integer.BYTES);
+	}
+	
+	// index
+	
+	protected int findSlot(long key)
+	{
+		int slot = (int)(LongCountTable.hash(key) >>> indexShift);
+		
+		while (indexSlots[slot] != 0)
+		{
+			if (indexKeys[slot] == key)
+				return slot;
+			slot = (slot + 1) & indexMask;
+		}
+		return ~slot;
+	}
+	
+	protected void removeSlot(int slot)
+	{
+		// backward shift deletion keeps every probe sequence without holes
+		int next = (slot + 1) & indexMask;
+		while (indexSlots[next] != 0)
+		{
+			int home = (int)(LongCountTable.hash(indexKeys[next]) >>> indexShift);
+			if (((next - home) & indexMask) >= ((next - slot) & indexMask))
+			{
+				indexKeys[slot] = indexKeys[next];
+				indexSlots[slot] = indexSlots[next];
+				slot = next;
+			}
+			next = (next + 1) & indexMask;
+		}
+		indexSlots[slot] = 0;
+	}
+	
+	protected void setSlot(int slot, long key, int position)
+	{
+		indexKeys[slot] = key;
+		indexSlots[slot] = position + 1;
+	}
+	
+	// heap
+	
+	protected void setEntry(int position, long key, long count, long error)
+	{
+		keys[position] = key;
+		counts[position] = count;
+		errors[position] = error;
+	}
+	
+	protected void moveEntry(int from, int to)
+	{
+		setEntry(to, keys[from], counts[from], errors[from]);
+		indexSlots[findSlot(keys[to])] = to + 1;
+	}
+	
+	protected void siftUp(int position)
+	{
+		long key = keys[position];
+		long count = counts[position];
+		long error = errors[position];
+		
+		while (position > 0)
+		{
+			int parent = (position - 1) >>> 1;
+			if (counts[parent] <= count)
+				break;
+			
+			moveEntry(parent, position);
+			position = parent;
+		}
+		
+		setEntry(position, key, count, error);
+		indexSlots[findSlot(key)] = position + 1;
+	}
+	
+	protected void siftDown(int position)
+	{
+		long key = keys[position];
+		long count = counts[position];
+		long error = errors[position];
+		
+		while (true)
+		{
+			int child = (position << 1) + 1;
+			if (child >= length)
+				break;
+			if ((child + 1 < length) && (counts[child + 1] < counts[child]))
+				child += 1;
+			if (counts[child] >= count)
+				break;
+			
+			moveEntry(child, position);
+			position = child;
+		}
+		
+		setEntry(position, key, count, error);
+		indexSlots[findSlot(key)] = position + 1;
+	}
+	
+	// the count a key that is not monitored can have at most
+	
+	public long getMinimum()
+	{
+		return (length < capacity) ? 0 : counts[0];
+	}
+	
+	public void add(long key, long count)
+	{
+		int slot = findSlot(key);
+		
+		if (slot >= 0)
+		{
+			int position = indexSlots[slot] - 1;
+			counts[position] += count;
+			siftDown(position);
+		}
+		else if (length < capacity)
+		{
+			int position = length++;
+			setEntry(position, key, count, 0);
+			setSlot(~slot, key, position);
+			siftUp(position);
+		}
+		else
+		{
+			removeSlot(findSlot(keys[0]));
+			
+			long minimum = counts[0];
+			setEntry(0, key, minimum + count, minimum);
+			setSlot(~findSlot(key), key, 0);
+			siftDown(0);
+		}
+	}
+	
+	public void increase(long key)
+	{
+		add(key, 1);
+	}
+	
+	// space-saving guided by an estimate that is never below the real count of the key, such as a count-min sketch.
+	// a key that is not monitored only gets in when its estimate is above the minimum, with the estimate as count,
+	// so most keys of a long tail leave the table untouched.
+	
+	public void offer(long key, long count, long estimate)
+	{
+		int slot = findSlot(key);
+		
+		if (slot >= 0)
+		{
+			int position = indexSlots[slot] - 1;
+			counts[position] += count;
+			siftDown(position);
+		}
+		else if (length < capacity)
+		{
+			int position = length++;
+			setEntry(position, key, estimate, estimate - count);
+			setSlot(~slot, key, position);
+			siftUp(position);
+		}
+		else if (estimate > counts[0])
+		{
+			removeSlot(findSlot(keys[0]));
+			
+			setEntry(0, key, estimate, estimate - count);
+			setSlot(~findSlot(key), key, 0);
+			siftDown(0);
+		}
+	}
+	
+	// the count of a key, or zero when it is not monitored
+	
+	public long get(long key)
+	{
+		int slot = findSlot(key);
+		return (slot >= 0) ? counts[indexSlots[slot] - 1] : 0;
+	}
+	
+	public Entry getEntry(long key)
+	{
+		int slot = findSlot(key);
+		if (slot < 0)
+			return null;
+		
+		int position = indexSlots[slot] - 1;
+		return new Entry(keys[position], counts[position], errors[position]);
+	}
+	
+	// entries by decreasing count
+	
+	public Entry[] getEntries()
+	{
+		Entry[] entries = new Entry[length];
+		for (int position = 0; position < length; position += 1)
+			entries[position] = new Entry(keys[position], counts[position], errors[position]);
+		
+		Arrays.sort(entries, (first, second) -> Long.compare(second.count, first.count));
+		return entries;
+	}
+	
+	// a key missing from one table may still have had up to the minimum count of that table,
+	// so it is charged that minimum as count and error. the largest merged entries are kept.
+	
+	public void merge(SpaceSavingTable other)
+	{
+		long minimum = getMinimum();
+		long otherMinimum = other.getMinimum();
+		
+		Entry[] entries = new Entry[length + other.length];
+		int size = 0;
+		
+		for (int position = 0; position < length; position += 1)
+		{
+			Entry otherEntry = other.getEntry(keys[position]);
+			if (otherEntry != null)
+				entries[size++] = new Entry(keys[position], counts[position] + otherEntry.count, errors[position] + otherEntry.error);
+			else
+				entries[size++] = new Entry(keys[position], counts[position] + otherMinimum, errors[position] + otherMinimum);
+		}
+		
+		for (int position = 0; position < other.length; position += 1)
+		{
+			if (findSlot(other.keys[position]) < 0)
+				entries[size++] = new Entry(other.keys[position], other.counts[position] + minimum, other.errors[position] + minimum);
+		}
+		
+		Arrays.sort(entries, 0, size, (first, second) -> Long.compare(second.count, first.count));
+		
+		clear();
+		for (int index = 0; index < Math.min(size, capacity); index += 1)
+		{
+			int position = length++;
+			setEntry(position, entries[index].key, entries[index].count, entries[index].error);
+			setSlot(~findSlot(entries[index].key), entries[index].key, position);
+			siftUp(position);
+		}
+	}
+	
+	public void clear()
+	{
+		Arrays.fill(indexSlots, 0);
+		length = 0;
+	}
+}
@@ -0,0 +1,105 @@
+package programs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import compression.BlockContainer;
+import library.Tools;
+
+public class BlockArchive
+{
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " c [-b DATA_BITS] [-s BLOCK_SIZE] INPUT OUTPUT");
+		System.out.println("       " + Tools.getProgramName() + " x INPUT OUTPUT");
+		System.out.println("       " + Tools.getProgramName() + " r INPUT OFFSET LENGTH");
+	}
+	
+	public static void create(String inputPath, String outputPath, int dataBits, int blockSize) throws IOException
+	{
+		try (FileChannel input = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(Paths.get(outputPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			long size = BlockContainer.compress(input, output, blockSize, dataBits, 0);
+			System.out.printf("size: %d, compressed: %d (%.1f%%)%n", input.size(), size, size * 100.0 / Math.max(input.size(), 1));
+		}
+	}
+	
+	public static void extract(String inputPath, String outputPath) throws IOException
+	{
+		try (FileChannel input = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(Paths.get(outputPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			BlockContainer.decompress(input, output, 0);
+		}
+	}
+	
+	public static void readRange(String inputPath, long offset, int length) throws IOException
+	{
+		try (FileChannel input = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ);
+				BlockContainer.Reader reader = new BlockContainer.Reader(input, 0))
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			reader.read(offset, buffer);
+			buffer.flip();
+			
+			WritableByteChannel output = Channels.newChannel(System.out);
+			while (buffer.hasRemaining())
+				output.write(buffer);
+			System.out.flush();
+		}
+	}
+	
+	public static void main(String[] args)
+	{
+		if (args.length == 0)
+		{
+			printUsage();
+			return;
+		}
+		
+		try
+		{
+			if (args[0].equals("c"))
+			{
+				int dataBits = 8;
+				int blockSize = BlockContainer.defaultBlockSize;
+				int index = 1;
+				
+				for (; index < args.length; index += 1)
+				{
+					if (args[index].equals("-b") && (index + 1 < args.length))
+						dataBits = Integer.parseInt(args[++index]);
+					else if (args[index].equals("-s") && (index + 1 < args.length))
+						blockSize = Integer.parseInt(args[++index]);
+					else
+						break;
+				}
+				
+				if (index + 2 != args.length)
+					printUsage();
+				else
+					create(args[index], args[index + 1], dataBits, blockSize);
+			}
+			else if (args[0].equals("x") && (args.length == 3))
+				extract(args[1], args[2]);
+			else if (args[0].equals("r") && (args.length == 4))
+				readRange(args[1], Long.parseLong(args[2]), Integer.parseInt(args[3]));
+			else
+				printUsage();
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+		}
+	}
+}
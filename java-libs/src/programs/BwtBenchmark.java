@@ -0,0 +1,123 @@
+package programs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.UnaryOperator;
+
+import compression.BurrowsWheeler;
+import compression.RansCodec;
+import library.FileTools;
+import library.Tools;
+import library.io.ReadMode;
+
+public class BwtBenchmark
+{
+	public static final int iterations = 5;
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-s STATES] [FILE]...");
+	}
+	
+	public static double getSpeed(long bytes, long nanoTime)
+	{
+		return (bytes / (1024.0 * 1024.0)) / (Math.max(nanoTime, 1) / 1e9);
+	}
+	
+	public static void printResult(String name, int size, int compressedSize, long encodeTime, long decodeTime, boolean equal)
+	{
+		System.out.printf("  %-10s compressed: %d (%.1f%%), encode: %.1f MiB/s, decode: %.1f MiB/s, round trip: %s%n",
+				name, compressedSize, compressedSize * 100.0 / Math.max(size, 1), getSpeed(size, encodeTime), getSpeed(size, decodeTime),
+				equal ? "ok" : "FAILED");
+	}
+	
+	public static boolean benchmark(String name, ByteBuffer input, UnaryOperator<ByteBuffer> compressor, UnaryOperator<ByteBuffer> decompressor)
+	{
+		ByteBuffer compressed = null;
+		long encodeTime = Long.MAX_VALUE;
+		for (int index = 0; index < iterations; index += 1)
+		{
+			long time = System.nanoTime();
+			compressed = compressor.apply(input.duplicate());
+			encodeTime = Math.min(encodeTime, System.nanoTime() - time);
+		}
+		
+		ByteBuffer output = null;
+		long decodeTime = Long.MAX_VALUE;
+		for (int index = 0; index < iterations; index += 1)
+		{
+			long time = System.nanoTime();
+			output = decompressor.apply(compressed.duplicate());
+			decodeTime = Math.min(decodeTime, System.nanoTime() - time);
+		}
+		
+		boolean equal = output.equals(input);
+		printResult(name, input.remaining(), compressed.remaining(), encodeTime, decodeTime, equal);
+		return equal;
+	}
+	
+	public static boolean benchmark(File file, int stateNumber) throws IOException
+	{
+		ByteBuffer input = FileTools.read(file.toPath(), ReadMode.NON_DIRECT_BUFFER);
+		if (input == null)
+			input = ByteBuffer.allocate(0);
+		
+		System.out.println("file: " + file.getName() + ", size: " + input.remaining());
+		
+		boolean passed = true;
+		passed &= benchmark("bwt+rans", input, (buffer) -> BurrowsWheeler.compress(buffer, stateNumber), BurrowsWheeler::decompress);
+		passed &= benchmark("rans", input, (buffer) -> RansCodec.compress(buffer, stateNumber), RansCodec::decompress);
+		return passed;
+	}
+	
+	public static void main(String[] args)
+	{
+		int stateNumber = RansCodec.defaultStateNumber;
+		int index = 0;
+		
+		try
+		{
+			if ((args.length >= 2) && args[0].equals("-s"))
+			{
+				stateNumber = Integer.parseInt(args[1]);
+				index = 2;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			return;
+		}
+		
+		if (index == args.length)
+		{
+			printUsage();
+			return;
+		}
+		
+		boolean passed = true;
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				File file = new File(args[index]);
+				if (file.isDirectory())
+				{
+					for (File child : file.listFiles((child) -> child.isFile()))
+						passed &= benchmark(child, stateNumber);
+				}
+				else
+					passed &= benchmark(file, stateNumber);
+			}
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			passed = false;
+		}
+		
+		if (!passed)
+			System.exit(1);
+	}
+}
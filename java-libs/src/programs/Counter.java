@@ -1,19 +1,27 @@
 package programs;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import library.Tools;
-import library.io.ByteBufferedReader;
+import library.io.ByteBufferedReader.ReadBuffers;
 import library.io.ReadMode;
+import library.io.SplittableReader;
 import library.types.ByteTest;
 
 public class Counter
 {
-	public static class BufferedCounter extends ByteBufferedReader
+	public static class BufferedCounter extends SplittableReader<BufferedCounter>
 	{
 		public long lines;
 		public long bytes; 
@@ -47,13 +55,13 @@ public class Counter
 		@Override
 		public void read(ByteBuffer buffer)
 		{
-			int index = 0;
+			int index;
 			byte value;
 			
-			bytes += buffer.capacity();
+			bytes += buffer.remaining();
 			
-			index = 0;
-			while (index < buffer.capacity())
+			index = buffer.position();
+			while (index < buffer.limit())
 			{
 				value = buffer.get(index);
 				
@@ -100,21 +108,21 @@ public class Counter
 						index += 1;
 					}
 					break;
-					
+				
 				case CR:
 					if (ByteTest.isNewline(value))
 						lines += 1;
 					state = STATE.NONE;
 					index += 1;	
 					break;
-					
+				
 				case WORD:
 					if (ByteTest.isLetter(value))
 						index += 1;
 					else
 						state = STATE.NONE;
 					break;
-					
+				
 				case NUMBER:
 					if (ByteTest.isDigit(value))
 						index += 1;
@@ -128,6 +136,52 @@ public class Counter
 		@Override
 		public void finish()
 		{ }
+		
+		// adds the counts of another file
+		
+		public void add(BufferedCounter other)
+		{
+			lines += other.lines;
+			bytes += other.bytes;
+			
+			words += other.words;
+			numbers += other.numbers;
+			symbols += other.symbols;
+			unprintable += other.unprintable;
+		}
+		
+		// after a newline the state is NONE whatever came before it, so a range that starts there counts exactly
+		// what a single counter would
+		
+		@Override
+		public int findBoundary(long position, ByteBuffer buffer)
+		{
+			for (int index = buffer.position(); index < buffer.limit(); index += 1)
+				if (ByteTest.isNewline(buffer.get(index)))
+					return index - buffer.position() + 1;
+			return -1;
+		}
+		
+		@Override
+		public BufferedCounter newRangeReader()
+		{
+			return new BufferedCounter();
+		}
+		
+		@Override
+		public void merge(BufferedCounter next)
+		{
+			// every counter starts at line 1
+			lines += next.lines - 1;
+			bytes += next.bytes;
+			
+			words += next.words;
+			numbers += next.numbers;
+			symbols += next.symbols;
+			unprintable += next.unprintable;
+			
+			state = next.state;
+		}
 	}
 	
 	public static BufferedCounter countFileChannel(FileChannel channel, ReadMode mode, boolean tryReadAll) throws IOException
@@ -150,56 +204,149 @@ public class Counter
 		}
 	}
 	
-	public static BufferedCounter[] count(String[] paths) throws IOException, CountError
+	// most of the time of a small file is spent waiting for open and read, so files are counted on more threads
+	// than there are processors
+	public static final int defaultConcurrency = 32;
+	
+	public static class CountResult
 	{
-		File files[];
-		FileChannel channel;
-		BufferedCounter bufferedCounterArray[];
+		public List<Path> files;
+		public BufferedCounter[] counters;
+		public BufferedCounter total;
 		
-		files = new File[paths.length];
-		for (int index = 0; index < paths.length; index += 1)
+		public CountResult(List<Path> files)
 		{
-			files[index] = new File(paths[index]);
-			if (!files[index].exists())
-				throw new CountError("file path not found: " + paths[index]);
+			this.files = files;
+			this.counters = new BufferedCounter[files.size()];
+			
+			// a sum of files, not a file
+			this.total = new BufferedCounter();
+			this.total.lines = 0;
 		}
+	}
+	
+	// regular files of the paths and of the directory trees under them, in path order
+	
+	public static List<Path> getFiles(String[] paths) throws IOException, CountError
+	{
+		List<Path> files = new ArrayList<>();
+		for (String name : paths)
+		{
+			Path path = Path.of(name);
+			if (!Files.exists(path))
+				throw new CountError("file path not found: " + name);
+			
+			try (Stream<Path> stream = Files.walk(path))
+			{
+				stream.filter(Files::isRegularFile).sorted().forEach(files::add);
+			}
+		}
+		return files;
+	}
+	
+	// files of one thread are counted one after another, so they share its buffers
+	protected static final ThreadLocal<ReadBuffers> threadBuffers = ThreadLocal.withInitial(ReadBuffers::new);
+	
+	public static BufferedCounter countFile(Path path, boolean parallel) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			BufferedCounter counter = new BufferedCounter();
+			counter.buffers = threadBuffers.get();
+			if (parallel)
+				counter.readFileChannelParallel(channel, ReadMode.DIRECT_BUFFER, 0);
+			else
+				counter.readFileChannel(channel, ReadMode.DIRECT_BUFFER, false);
+			return counter;
+		}
+	}
+	
+	// many files are counted at most concurrency at a time, a single file is split into ranges instead
+	
+	public static CountResult count(String[] paths, int concurrency) throws IOException, CountError
+	{
+		CountResult result = new CountResult(getFiles(paths));
 		
-		bufferedCounterArray = new BufferedCounter[paths.length];
-		for (int index = 0; index < paths.length; index += 1)
+		if (result.files.size() == 1)
+			result.counters[0] = countFile(result.files.get(0), true);
+		else if (result.files.size() > 1)
 		{
-			if (files[index].isFile())
+			ForkJoinPool pool = new ForkJoinPool(Math.max(concurrency, 1));
+			try
 			{
-				channel = FileChannel.open(files[index].toPath(), StandardOpenOption.READ);
+				List<Future<BufferedCounter>> futures = new ArrayList<>(result.files.size());
+				for (Path path : result.files)
+					futures.add(pool.submit(() -> countFile(path, false)));
 				
-				bufferedCounterArray[index] = new BufferedCounter();
-				bufferedCounterArray[index].readFileChannel(channel, ReadMode.DIRECT_BUFFER, false);
+				for (int index = 0; index < futures.size(); index += 1)
+					result.counters[index] = Tools.getFuture(futures.get(index));
+			}
+			finally
+			{
+				pool.shutdownNow();
 			}
 		}
-		return bufferedCounterArray;
+		
+		for (BufferedCounter counter : result.counters)
+			result.total.add(counter);
+		return result;
+	}
+	
+	public static CountResult count(String[] paths) throws IOException, CountError
+	{
+		return count(paths, defaultConcurrency);
+	}
+	
+	public static void printCounter(BufferedCounter counter, String name)
+	{
+		System.out.printf("%10d %10d %10d %10d %12d %s%n", counter.lines, counter.words, counter.numbers, counter.symbols, counter.bytes, name);
 	}
 	
 	public static void printUsage()
 	{
-		System.out.println("usage: " + Tools.getProgramName() + " [PATH]...");
+		System.out.println("usage: " + Tools.getProgramName() + " [-j CONCURRENCY] [PATH]...");
 	}
 	
-	public static int main(String[] args)
+	public static void main(String[] args)
 	{
-		if (args.length == 0)
+		int concurrency = defaultConcurrency;
+		int index = 0;
+		
+		try
+		{
+			if ((args.length >= 2) && args[0].equals("-j"))
+			{
+				concurrency = Integer.parseInt(args[1]);
+				index = 2;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			System.exit(EXIT_FAILURE);
+			return;
+		}
+		
+		if ((index == args.length) || (concurrency <= 0))
 		{
 			printUsage();
-			return 0;
+			return;
 		}
+		
 		try
 		{
-			count(args);
+			CountResult result = count(Arrays.copyOfRange(args, index, args.length), concurrency);
+			
+			System.out.printf("%10s %10s %10s %10s %12s %s%n", "lines", "words", "numbers", "symbols", "bytes", "file");
+			for (int fileIndex = 0; fileIndex < result.files.size(); fileIndex += 1)
+				printCounter(result.counters[fileIndex], result.files.get(fileIndex).toString());
+			if (result.files.size() > 1)
+				printCounter(result.total, "total");
 		}
 		catch (IOException | CountError e)
 		{
 			System.err.println("error: " + e.getMessage());
-			return 1;
+			System.exit(EXIT_FAILURE);
 		}
-		
-		return 0;
 	}
 }
@@ -0,0 +1,129 @@
+package programs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import compression.ContentChunker;
+import compression.ContentChunker.DedupIndex;
+import compression.ContentChunker.DedupStatistics;
+import library.Tools;
+
+public class Dedup
+{
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-c MIN_KIB,AVERAGE_KIB,MAX_KIB] [-t THREADS] [PATH]...");
+	}
+	
+	public static double getSpeed(long bytes, long nanoTime)
+	{
+		return (bytes / (1024.0 * 1024.0)) / (Math.max(nanoTime, 1) / 1e9);
+	}
+	
+	// regular files under the path, the largest first so that the last threads do not wait for one big file
+	
+	public static List<Path> getFiles(Path path) throws IOException
+	{
+		try (Stream<Path> stream = Files.walk(path))
+		{
+			return stream.filter(Files::isRegularFile)
+					.sorted((first, second) -> Long.compare(getSize(second), getSize(first)))
+					.collect(Collectors.toCollection(ArrayList::new));
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+	}
+	
+	protected static long getSize(Path path)
+	{
+		try
+		{
+			return Files.size(path);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	public static void main(String[] args)
+	{
+		ContentChunker chunker = new ContentChunker();
+		int numberOfThreads = Runtime.getRuntime().availableProcessors();
+		int index = 0;
+		
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				if (args[index].equals("-c") && (index + 1 < args.length))
+				{
+					String[] parts = args[++index].split(",");
+					if (parts.length != 3)
+					{
+						printUsage();
+						return;
+					}
+					chunker = new ContentChunker(Integer.parseInt(parts[0]) << 10, Integer.parseInt(parts[1]) << 10, Integer.parseInt(parts[2]) << 10);
+				}
+				else if (args[index].equals("-t") && (index + 1 < args.length))
+					numberOfThreads = Integer.parseInt(args[++index]);
+				else
+					break;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			return;
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			return;
+		}
+		
+		if (index == args.length)
+		{
+			printUsage();
+			return;
+		}
+		
+		try
+		{
+			List<Path> files = new ArrayList<>();
+			for (; index < args.length; index += 1)
+			{
+				Path path = Paths.get(args[index]);
+				if (!Files.exists(path))
+					throw new IOException("file not found: " + args[index]);
+				
+				files.addAll(getFiles(path));
+			}
+			
+			DedupIndex dedupIndex = new DedupIndex();
+			
+			long time = System.nanoTime();
+			DedupStatistics statistics = chunker.scanFiles(files, dedupIndex, numberOfThreads);
+			time = System.nanoTime() - time;
+			
+			System.out.println(statistics);
+			System.out.printf("average chunk: %.1f, threads: %d, speed: %.1f MiB/s%n", (double)statistics.bytes / Math.max(statistics.chunks, 1),
+					numberOfThreads, getSpeed(statistics.bytes, time));
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package programs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import compression.EntropyTools;
+import compression.SegmentEntropyReader;
+import compression.SegmentedBuffer.ContextCountBuffer;
+import compression.SegmentedBuffer.ContextCountReader;
+import library.Tools;
+import library.io.ReadMode;
+
+public class Entropy
+{
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-b DATA_BITS] [-s SEGMENT_SIZE] [-c] [PATH]...");
+	}
+	
+	public static void report(File file, int dataBits, int segmentSize) throws IOException
+	{
+		AtomicLong minimumSize = new AtomicLong();
+		
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			System.out.println("file: " + file.getPath() + ", data bits: " + dataBits + ", file size: " + size);
+			
+			SegmentEntropyReader.scanFileChannel(channel, ReadMode.DIRECT_BUFFER, dataBits, segmentSize, 0, (segment) ->
+			{
+				minimumSize.addAndGet(segment.minimumSize);
+				System.out.println(segment);
+			});
+			
+			System.out.printf("total minimum size: %d (%.1f%%)%n", minimumSize.get(), (size == 0) ? 100.0 : minimumSize.get() * 100.0 / size);
+		}
+	}
+	
+	// order-0 and order-1 byte entropy of the whole file
+	
+	public static void reportContext(File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size == 0)
+				return;
+			
+			ContextCountReader reader = new ContextCountReader();
+			reader.readFileChannelParallel(channel, ReadMode.DIRECT_BUFFER, 0);
+			ContextCountBuffer contextCountBuffer = reader.contextCountBuffer;
+			
+			double entropy = contextCountBuffer.getEntropy();
+			double conditionalEntropy = contextCountBuffer.getConditionalEntropy();
+			
+			System.out.printf("order-0 entropy: %.4f, minimum size: %d, order-1 entropy: %.4f, minimum size: %d%n",
+					entropy, EntropyTools.getMinimumSize(entropy, size), conditionalEntropy, EntropyTools.getMinimumSize(conditionalEntropy, size));
+		}
+	}
+	
+	public static void main(String[] args)
+	{
+		int dataBits = 8;
+		int segmentSize = SegmentEntropyReader.defaultSegmentSize;
+		boolean context = false;
+		int index = 0;
+		
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				if (args[index].equals("-b") && (index + 1 < args.length))
+					dataBits = Integer.parseInt(args[++index]);
+				else if (args[index].equals("-s") && (index + 1 < args.length))
+					segmentSize = Integer.parseInt(args[++index]);
+				else if (args[index].equals("-c"))
+					context = true;
+				else
+					break;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			return;
+		}
+		
+		if (index == args.length)
+		{
+			printUsage();
+			return;
+		}
+		
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				File file = new File(args[index]);
+				if (!file.isFile())
+					throw new IOException("file not found: " + args[index]);
+				
+				report(file, dataBits, segmentSize);
+				if (context)
+					reportContext(file);
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("error: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package programs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import compression.ByteHistogram;
+import library.FileTools;
+import library.Tools;
+import library.io.ReadMode;
+
+public class HistogramBenchmark
+{
+	public static final int iterations = 10;
+	public static final int defaultSize = 1 << 24;
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-s SIZE_MIB] [TEXT_FILE]");
+	}
+	
+	public static double getSpeed(long bytes, long nanoTime)
+	{
+		return (bytes / (1024.0 * 1024.0)) / (Math.max(nanoTime, 1) / 1e9);
+	}
+	
+	public static byte[] getRandomData(int size)
+	{
+		byte[] array = new byte[size];
+		new Random(1).nextBytes(array);
+		return array;
+	}
+	
+	// the text is repeated up to the size, or made of random lower case words without one
+	
+	public static byte[] getTextData(int size, File file) throws IOException
+	{
+		byte[] array = new byte[size];
+		
+		if (file != null)
+		{
+			ByteBuffer text = FileTools.read(file.toPath(), ReadMode.NON_DIRECT_BUFFER);
+			if (text == null)
+				throw new IOException("empty text file: " + file);
+			
+			for (int index = 0; index < size; index += 1)
+				array[index] = text.get(index % text.limit());
+		}
+		else
+		{
+			Random random = new Random(1);
+			for (int index = 0; index < size; index += 1)
+				array[index] = (random.nextInt(6) == 0) ? (byte)' ' : (byte)('a' + random.nextInt(26));
+		}
+		return array;
+	}
+	
+	public static byte[] getRunData(int size)
+	{
+		byte[] array = new byte[size];
+		Arrays.fill(array, (byte)0x20);
+		return array;
+	}
+	
+	public static long[] countSimple(byte[] array)
+	{
+		long[] countArray = new long[ByteHistogram.symbolCount];
+		for (int index = 0; index < array.length; index += 1)
+			countArray[array[index] & 0xFF] += 1;
+		return countArray;
+	}
+	
+	public static long[] countPairsSimple(byte[] array)
+	{
+		long[] pairCountArray = new long[ByteHistogram.symbolCount * ByteHistogram.symbolCount];
+		int last = 0;
+		for (int index = 0; index < array.length; index += 1)
+		{
+			int current = array[index] & 0xFF;
+			pairCountArray[(last << 8) | current] += 1;
+			last = current;
+		}
+		return pairCountArray;
+	}
+	
+	public static boolean benchmark(String name, byte[] array)
+	{
+		ByteBuffer direct = ByteBuffer.allocateDirect(array.length).put(array).flip();
+		long[] times = new long[5];
+		Arrays.fill(times, Long.MAX_VALUE);
+		boolean equal = true;
+		
+		for (int iteration = 0; iteration < iterations; iteration += 1)
+		{
+			long time = System.nanoTime();
+			long[] expected = countSimple(array);
+			times[0] = Math.min(times[0], System.nanoTime() - time);
+			
+			time = System.nanoTime();
+			long[] counts = new long[ByteHistogram.symbolCount];
+			ByteHistogram.count(array, 0, array.length, counts);
+			times[1] = Math.min(times[1], System.nanoTime() - time);
+			
+			time = System.nanoTime();
+			long[] directCounts = new long[ByteHistogram.symbolCount];
+			ByteHistogram.count(direct, 0, array.length, directCounts);
+			times[2] = Math.min(times[2], System.nanoTime() - time);
+			
+			time = System.nanoTime();
+			long[] expectedPairs = countPairsSimple(array);
+			times[3] = Math.min(times[3], System.nanoTime() - time);
+			
+			time = System.nanoTime();
+			long[] pairs = new long[ByteHistogram.symbolCount * ByteHistogram.symbolCount];
+			ByteHistogram.countPairs(array, 0, array.length, 0, pairs);
+			times[4] = Math.min(times[4], System.nanoTime() - time);
+			
+			equal &= Arrays.equals(expected, counts) && Arrays.equals(expected, directCounts) && Arrays.equals(expectedPairs, pairs);
+		}
+		
+		System.out.printf("%-7s simple: %.1f MiB/s, histogram: %.1f MiB/s, direct: %.1f MiB/s, simple pairs: %.1f MiB/s, pairs: %.1f MiB/s, equal: %s%n",
+				name, getSpeed(array.length, times[0]), getSpeed(array.length, times[1]), getSpeed(array.length, times[2]),
+				getSpeed(array.length, times[3]), getSpeed(array.length, times[4]), equal ? "ok" : "FAILED");
+		return equal;
+	}
+	
+	public static void main(String[] args)
+	{
+		int size = defaultSize;
+		int index = 0;
+		
+		try
+		{
+			if ((args.length >= 2) && args[0].equals("-s"))
+			{
+				size = Math.multiplyExact(Integer.parseInt(args[1]), 1 << 20);
+				index = 2;
+			}
+		}
+		catch (NumberFormatException | ArithmeticException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			return;
+		}
+		
+		if ((size <= 0) || (args.length - index > 1))
+		{
+			printUsage();
+			return;
+		}
+		
+		boolean passed = true;
+		try
+		{
+			passed &= benchmark("random", getRandomData(size));
+			passed &= benchmark("text", getTextData(size, (index < args.length) ? new File(args[index]) : null));
+			passed &= benchmark("run", getRunData(size));
+		}
+		catch (IOException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			passed = false;
+		}
+		
+		if (!passed)
+			System.exit(1);
+	}
+}
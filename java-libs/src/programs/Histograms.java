@@ -0,0 +1,142 @@
+package programs;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import compression.EntropyTools;
+import compression.HistogramFile;
+import compression.SegmentedBuffer;
+import compression.SegmentedBuffer.DataCountBuffer;
+import library.Tools;
+import library.io.ReadMode;
+import library.types.SizeManager;
+
+// symbol counts saved next to the scanned files, so a running total only needs the new files to be scanned:
+//   s -b 16 day2/*.bin
+//   m total.hist total.hist day2/*.bin.hist
+
+public class Histograms
+{
+	public static final String extension = ".hist";
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " s [-b DATA_BITS] FILE...");
+		System.out.println("       " + Tools.getProgramName() + " m OUTPUT HISTOGRAM...");
+		System.out.println("       " + Tools.getProgramName() + " i HISTOGRAM...");
+	}
+	
+	// a file is scanned again only when it is newer than its histogram
+	
+	public static void scan(SegmentedBuffer segmentedBuffer, Path path, int dataBits) throws IOException
+	{
+		Path histogramPath = path.resolveSibling(path.getFileName() + extension);
+		
+		if (Files.exists(histogramPath) && (Files.getLastModifiedTime(histogramPath).compareTo(Files.getLastModifiedTime(path)) >= 0))
+		{
+			try (HistogramFile.Reader reader = new HistogramFile.Reader(histogramPath))
+			{
+				if (reader.dataBits == dataBits)
+				{
+					System.out.println("file: " + path + ", up to date");
+					return;
+				}
+			}
+		}
+		
+		long time = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(path))
+		{
+			DataCountBuffer total = segmentedBuffer.StreamScanFileChannel(SizeManager.pooledSizeManager, dataBits, channel, ReadMode.DIRECT_BUFFER,
+					Runtime.getRuntime().availableProcessors());
+			HistogramFile.write(total, histogramPath);
+			
+			System.out.printf("file: %s, size: %d, distinct symbols: %d, time: %.1f ms%n", path, channel.size(), total.length,
+					(System.nanoTime() - time) / 1e6);
+			total.release();
+		}
+	}
+	
+	public static void merge(Path output, List<Path> inputs) throws IOException
+	{
+		long time = System.nanoTime();
+		long entryCount = HistogramFile.merge(inputs, output);
+		System.out.printf("merged: %d files, distinct symbols: %d, time: %.1f ms%n", inputs.size(), entryCount, (System.nanoTime() - time) / 1e6);
+	}
+	
+	public static void printInfo(Path path) throws IOException
+	{
+		try (HistogramFile.Reader reader = new HistogramFile.Reader(path))
+		{
+			double sum = 0;
+			while (reader.next())
+				sum += EntropyTools.getCountLog(reader.count);
+			
+			double entropy = (reader.totalCount == 0) ? 0 : Math.max(EntropyTools.log2(reader.totalCount) - (sum / reader.totalCount), 0);
+			System.out.printf("file: %s, data bits: %d, distinct symbols: %d, symbols: %d, entropy: %.4f bits%n", path, reader.dataBits,
+					reader.entryCount, reader.totalCount, entropy);
+		}
+	}
+	
+	public static void main(String[] args)
+	{
+		if (args.length < 2)
+		{
+			printUsage();
+			return;
+		}
+		
+		try
+		{
+			if (args[0].equals("s"))
+			{
+				int dataBits = 8;
+				int index = 1;
+				
+				if (args[index].equals("-b") && (index + 1 < args.length))
+				{
+					dataBits = Integer.parseInt(args[index + 1]);
+					index += 2;
+				}
+				
+				if ((index == args.length) || (dataBits <= 0))
+				{
+					printUsage();
+					return;
+				}
+				
+				SegmentedBuffer segmentedBuffer = new SegmentedBuffer(SizeManager.pooledSizeManager);
+				for (; index < args.length; index += 1)
+					scan(segmentedBuffer, Path.of(args[index]), dataBits);
+			}
+			else if (args[0].equals("m") && (args.length >= 3))
+			{
+				List<Path> inputs = new ArrayList<>();
+				for (int index = 2; index < args.length; index += 1)
+					inputs.add(Path.of(args[index]));
+				merge(Path.of(args[1]), inputs);
+			}
+			else if (args[0].equals("i"))
+			{
+				for (int index = 1; index < args.length; index += 1)
+					printInfo(Path.of(args[index]));
+			}
+			else
+				printUsage();
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			System.exit(1);
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
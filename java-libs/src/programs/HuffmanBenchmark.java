@@ -0,0 +1,95 @@
+package programs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import compression.HuffmanCodec;
+import library.FileTools;
+import library.Tools;
+import library.io.ReadMode;
+
+public class HuffmanBenchmark
+{
+	public static final int iterations = 10;
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-b DATA_BITS] [FILE]...");
+	}
+	
+	public static double getSpeed(long bytes, long nanoTime)
+	{
+		return (bytes / (1024.0 * 1024.0)) / (nanoTime / 1e9);
+	}
+	
+	public static boolean benchmark(File file, int dataBits) throws IOException
+	{
+		ByteBuffer input = FileTools.read(file.toPath(), ReadMode.NON_DIRECT_BUFFER);
+		if (input == null)
+			input = ByteBuffer.allocate(0);
+		
+		ByteBuffer compressed = null;
+		long encodeTime = Long.MAX_VALUE;
+		for (int index = 0; index < iterations; index += 1)
+		{
+			long time = System.nanoTime();
+			compressed = HuffmanCodec.compress(input.duplicate(), dataBits);
+			encodeTime = Math.min(encodeTime, System.nanoTime() - time);
+		}
+		
+		ByteBuffer output = ByteBuffer.allocate(input.remaining());
+		long decodeTime = Long.MAX_VALUE;
+		for (int index = 0; index < iterations; index += 1)
+		{
+			output.clear();
+			
+			long time = System.nanoTime();
+			HuffmanCodec.decompress(compressed.duplicate(), output);
+			decodeTime = Math.min(decodeTime, System.nanoTime() - time);
+		}
+		output.flip();
+		
+		boolean equal = output.equals(input);
+		
+		System.out.printf("file: %s, size: %d, compressed: %d (%.1f%%), encode: %.1f MiB/s, decode: %.1f MiB/s, round trip: %s%n",
+				file.getName(), input.remaining(), compressed.remaining(), compressed.remaining() * 100.0 / Math.max(input.remaining(), 1),
+				getSpeed(input.remaining(), encodeTime), getSpeed(input.remaining(), decodeTime), equal ? "ok" : "FAILED");
+		
+		return equal;
+	}
+	
+	public static void main(String[] args) throws IOException
+	{
+		int dataBits = 8;
+		int index = 0;
+		
+		if ((args.length >= 2) && args[0].equals("-b"))
+		{
+			dataBits = Integer.parseInt(args[1]);
+			index = 2;
+		}
+		
+		if (index == args.length)
+		{
+			printUsage();
+			return;
+		}
+		
+		boolean passed = true;
+		for (; index < args.length; index += 1)
+		{
+			File file = new File(args[index]);
+			if (file.isDirectory())
+			{
+				for (File child : file.listFiles((child) -> child.isFile()))
+					passed &= benchmark(child, dataBits);
+			}
+			else
+				passed &= benchmark(file, dataBits);
+		}
+		
+		if (!passed)
+			System.exit(1);
+	}
+}
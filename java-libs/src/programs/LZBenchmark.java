@@ -0,0 +1,173 @@
+package programs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import compression.LZ77Codec;
+import library.FileTools;
+import library.Tools;
+import library.io.ReadMode;
+
+public class LZBenchmark
+{
+	public static final int iterations = 5;
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-l LEVEL,...] [FILE]...");
+	}
+	
+	public static double getSpeed(long bytes, long nanoTime)
+	{
+		return (bytes / (1024.0 * 1024.0)) / (Math.max(nanoTime, 1) / 1e9);
+	}
+	
+	public static void printResult(String name, int size, int compressedSize, long encodeTime, long decodeTime, boolean equal)
+	{
+		System.out.printf("  %-10s compressed: %d (%.1f%%), encode: %.1f MiB/s, decode: %.1f MiB/s, round trip: %s%n",
+				name, compressedSize, compressedSize * 100.0 / Math.max(size, 1), getSpeed(size, encodeTime), getSpeed(size, decodeTime),
+				equal ? "ok" : "FAILED");
+	}
+	
+	public static boolean benchmarkLZ77(ByteBuffer input, int level)
+	{
+		LZ77Codec codec = new LZ77Codec(level);
+		
+		ByteBuffer compressed = null;
+		long encodeTime = Long.MAX_VALUE;
+		for (int index = 0; index < iterations; index += 1)
+		{
+			long time = System.nanoTime();
+			compressed = codec.compress(input.duplicate());
+			encodeTime = Math.min(encodeTime, System.nanoTime() - time);
+		}
+		
+		ByteBuffer output = null;
+		long decodeTime = Long.MAX_VALUE;
+		for (int index = 0; index < iterations; index += 1)
+		{
+			long time = System.nanoTime();
+			output = LZ77Codec.decompress(compressed.duplicate());
+			decodeTime = Math.min(decodeTime, System.nanoTime() - time);
+		}
+		
+		boolean equal = output.equals(input);
+		printResult("lz77 -" + level, input.remaining(), compressed.remaining(), encodeTime, decodeTime, equal);
+		return equal;
+	}
+	
+	public static boolean benchmarkDeflater(byte[] input, int level) throws DataFormatException
+	{
+		byte[] compressed = new byte[input.length + (input.length >>> 8) + 64];
+		int compressedSize = 0;
+		
+		long encodeTime = Long.MAX_VALUE;
+		for (int index = 0; index < iterations; index += 1)
+		{
+			long time = System.nanoTime();
+			
+			Deflater deflater = new Deflater(level, true);
+			deflater.setInput(input);
+			deflater.finish();
+			compressedSize = deflater.deflate(compressed);
+			deflater.end();
+			
+			encodeTime = Math.min(encodeTime, System.nanoTime() - time);
+		}
+		
+		byte[] output = new byte[input.length];
+		long decodeTime = Long.MAX_VALUE;
+		for (int index = 0; index < iterations; index += 1)
+		{
+			long time = System.nanoTime();
+			
+			Inflater inflater = new Inflater(true);
+			inflater.setInput(compressed, 0, compressedSize);
+			inflater.inflate(output);
+			inflater.end();
+			
+			decodeTime = Math.min(decodeTime, System.nanoTime() - time);
+		}
+		
+		boolean equal = ByteBuffer.wrap(output).equals(ByteBuffer.wrap(input));
+		printResult("deflate -" + level, input.length, compressedSize, encodeTime, decodeTime, equal);
+		return equal;
+	}
+	
+	public static boolean benchmark(File file, int[] levels) throws IOException, DataFormatException
+	{
+		ByteBuffer input = FileTools.read(file.toPath(), ReadMode.NON_DIRECT_BUFFER);
+		if (input == null)
+			input = ByteBuffer.allocate(0);
+		
+		byte[] array = new byte[input.remaining()];
+		input.duplicate().get(array);
+		
+		System.out.println("file: " + file.getName() + ", size: " + array.length);
+		
+		boolean passed = true;
+		for (int level : levels)
+			passed &= benchmarkLZ77(input, level);
+		for (int level : levels)
+			passed &= benchmarkDeflater(array, level);
+		
+		return passed;
+	}
+	
+	public static void main(String[] args)
+	{
+		int[] levels = { 1, 6, 9 };
+		int index = 0;
+		
+		try
+		{
+			if ((args.length >= 2) && args[0].equals("-l"))
+			{
+				String[] parts = args[1].split(",");
+				levels = new int[parts.length];
+				for (int part = 0; part < parts.length; part += 1)
+					levels[part] = Integer.parseInt(parts[part]);
+				index = 2;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			return;
+		}
+		
+		if (index == args.length)
+		{
+			printUsage();
+			return;
+		}
+		
+		boolean passed = true;
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				File file = new File(args[index]);
+				if (file.isDirectory())
+				{
+					for (File child : file.listFiles((child) -> child.isFile()))
+						passed &= benchmark(child, levels);
+				}
+				else
+					passed &= benchmark(file, levels);
+			}
+		}
+		catch (IOException | DataFormatException | IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			passed = false;
+		}
+		
+		if (!passed)
+			System.exit(1);
+	}
+}
@@ -2,13 +2,15 @@ package programs;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import org.apache.commons.lang3.time.StopWatch;
 
 import compression.SegmentedBuffer;
-import library.FileTools;
+import compression.SegmentedBuffer.DataCountBuffer;
 import library.io.ReadMode;
+import library.types.ArrayPool;
 import library.types.SizeManager;
 
 public class Main
@@ -29,22 +31,27 @@ public class Main
 	{
 		int dataBits = 8;
 		SegmentedBuffer segmentedBuffer = new SegmentedBuffer();
-		ByteBuffer fileBuffer;
 		
 		if (args.length == 1)
 			dataBits = Integer.parseInt(args[0]);
 		
 		for (File file : dataFolder.listFiles((file) -> file.isFile()) )
 		{
-			fileBuffer = FileTools.read(file.toPath(), ReadMode.NON_DIRECT_BUFFER);
-			
-			System.out.println("file: " + file.getName() + ", data bits: " + dataBits + ", file size: " + fileBuffer.capacity());
-			
-			StopWatch stopWatch = StopWatch.createStarted();
-			segmentedBuffer.ThreadScanBuffer(SizeManager.doubleSizeManager, dataBits, fileBuffer, 5);
-			stopWatch.stop();
-			
-			System.out.println("time: " + stopWatch.getMessage());
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+			{
+				System.out.println("file: " + file.getName() + ", data bits: " + dataBits + ", file size: " + channel.size());
+				
+				// arrays come from the pools and go back after every file, so later files allocate almost nothing
+				long allocatedBytes = ArrayPool.bytes.allocatedBytes.get() + ArrayPool.longs.allocatedBytes.get();
+				
+				StopWatch stopWatch = StopWatch.createStarted();
+				DataCountBuffer total = segmentedBuffer.StreamScanFileChannel(SizeManager.pooledSizeManager, dataBits, channel, ReadMode.DIRECT_BUFFER, 5);
+				stopWatch.stop();
+				
+				allocatedBytes = ArrayPool.bytes.allocatedBytes.get() + ArrayPool.longs.allocatedBytes.get() - allocatedBytes;
+				System.out.println("time: " + stopWatch.getMessage() + ", distinct symbols: " + total.length + ", allocated: " + allocatedBytes);
+				total.release();
+			}
 		}
 	}
 }
@@ -0,0 +1,94 @@
+package programs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import compression.NGramSketch;
+import compression.NGramSketch.NGram;
+import compression.NGramSketch.NGramSketchReader;
+import library.Tools;
+import library.io.ReadMode;
+
+public class NGrams
+{
+	public static final int monitorFactor = 8;
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-n LENGTH] [-k TOP_COUNT] [-m MEMORY_MIB] [-t THREADS] [FILE]...");
+	}
+	
+	public static void report(File file, int length, int topCount, long memorySize, int numberOfThreads) throws IOException
+	{
+		// the space-saving table monitors more keys than are reported, which keeps the reported counts tight
+		NGramSketchReader reader = new NGramSketchReader(length, memorySize, topCount * monitorFactor, numberOfThreads, NGramSketchReader.defaultChunkSize);
+		
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			reader.readFileChannel(channel, ReadMode.DIRECT_BUFFER, false);
+		}
+		
+		NGramSketch sketch = reader.total;
+		System.out.printf("file: %s, size: %d, n-gram length: %d, n-grams: %d, sketch memory: %d%n",
+				file.getPath(), reader.bytes, length, sketch.getTotal(), sketch.getMemorySize());
+		
+		NGram[] top = sketch.getTop(topCount);
+		for (int index = 0; index < top.length; index += 1)
+			System.out.printf("%4d  %s%n", index + 1, top[index]);
+	}
+	
+	public static void main(String[] args)
+	{
+		int length = 4;
+		int topCount = 32;
+		long memorySize = NGramSketch.defaultMemorySize;
+		int numberOfThreads = Runtime.getRuntime().availableProcessors();
+		int index = 0;
+		
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				if (args[index].equals("-n") && (index + 1 < args.length))
+					length = Integer.parseInt(args[++index]);
+				else if (args[index].equals("-k") && (index + 1 < args.length))
+					topCount = Integer.parseInt(args[++index]);
+				else if (args[index].equals("-m") && (index + 1 < args.length))
+					memorySize = Long.parseLong(args[++index]) << 20;
+				else if (args[index].equals("-t") && (index + 1 < args.length))
+					numberOfThreads = Integer.parseInt(args[++index]);
+				else
+					break;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			return;
+		}
+		
+		if (index == args.length)
+		{
+			printUsage();
+			return;
+		}
+		
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				File file = new File(args[index]);
+				if (!file.isFile())
+					throw new IOException("file not found: " + args[index]);
+				
+				report(file, length, Math.max(topCount, 1), memorySize, numberOfThreads);
+			}
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package programs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+import compression.HuffmanCodec;
+import compression.RansCodec;
+import library.FileTools;
+import library.Tools;
+import library.io.ReadMode;
+
+public class RansBenchmark
+{
+	public static final int iterations = 5;
+	public static final int defaultBlockSize = 1 << 20;
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-s STATES] [-t THREADS,...] [-b BLOCK_KIB] [FILE]...");
+	}
+	
+	public static double getSpeed(long bytes, long nanoTime)
+	{
+		return (bytes / (1024.0 * 1024.0)) / (Math.max(nanoTime, 1) / 1e9);
+	}
+	
+	public static ByteBuffer[] split(ByteBuffer input, int blockSize)
+	{
+		int number = Math.max(1, (input.remaining() + blockSize - 1) / blockSize);
+		ByteBuffer[] blocks = new ByteBuffer[number];
+		
+		for (int index = 0; index < number; index += 1)
+		{
+			int start = input.position() + index * blockSize;
+			blocks[index] = input.duplicate().position(start).limit(Math.min(start + blockSize, input.limit())).slice();
+		}
+		return blocks;
+	}
+	
+	// the blocks are independent, so every thread of the pool works on its own blocks
+	
+	public static long run(ForkJoinPool pool, ByteBuffer[] inputs, ByteBuffer[] outputs, UnaryOperator<ByteBuffer> operator)
+			throws InterruptedException, ExecutionException
+	{
+		long best = Long.MAX_VALUE;
+		for (int iteration = 0; iteration < iterations; iteration += 1)
+		{
+			long time = System.nanoTime();
+			pool.submit(() -> IntStream.range(0, inputs.length).parallel()
+					.forEach((index) -> outputs[index] = operator.apply(inputs[index].duplicate()))).get();
+			best = Math.min(best, System.nanoTime() - time);
+		}
+		return best;
+	}
+	
+	public static boolean benchmark(String name, ForkJoinPool pool, ByteBuffer[] blocks, long size,
+			UnaryOperator<ByteBuffer> compressor, UnaryOperator<ByteBuffer> decompressor) throws InterruptedException, ExecutionException
+	{
+		ByteBuffer[] compressed = new ByteBuffer[blocks.length];
+		ByteBuffer[] decompressed = new ByteBuffer[blocks.length];
+		
+		long encodeTime = run(pool, blocks, compressed, compressor);
+		long decodeTime = run(pool, compressed, decompressed, decompressor);
+		
+		long compressedSize = 0;
+		boolean equal = true;
+		for (int index = 0; index < blocks.length; index += 1)
+		{
+			compressedSize += compressed[index].remaining();
+			equal &= decompressed[index].equals(blocks[index]);
+		}
+		
+		System.out.printf("  %-8s threads: %d, compressed: %d (%.1f%%), encode: %.1f MiB/s, decode: %.1f MiB/s, round trip: %s%n",
+				name, pool.getParallelism(), compressedSize, compressedSize * 100.0 / Math.max(size, 1),
+				getSpeed(size, encodeTime), getSpeed(size, decodeTime), equal ? "ok" : "FAILED");
+		return equal;
+	}
+	
+	public static boolean benchmark(File file, int stateNumber, int[] threads, int blockSize)
+			throws IOException, InterruptedException, ExecutionException
+	{
+		ByteBuffer input = FileTools.read(file.toPath(), ReadMode.NON_DIRECT_BUFFER);
+		if (input == null)
+			input = ByteBuffer.allocate(0);
+		
+		ByteBuffer[] blocks = split(input, blockSize);
+		System.out.println("file: " + file.getName() + ", size: " + input.remaining() + ", blocks: " + blocks.length);
+		
+		boolean passed = true;
+		for (int numberOfThreads : threads)
+		{
+			ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+			try
+			{
+				passed &= benchmark("rans", pool, blocks, input.remaining(),
+						(block) -> RansCodec.compress(block, stateNumber), RansCodec::decompress);
+				passed &= benchmark("huffman", pool, blocks, input.remaining(),
+						(block) -> HuffmanCodec.compress(block, Byte.SIZE), HuffmanCodec::decompress);
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+		}
+		return passed;
+	}
+	
+	public static void main(String[] args)
+	{
+		int stateNumber = RansCodec.defaultStateNumber;
+		int[] threads = { 1, 4 };
+		int blockSize = defaultBlockSize;
+		int index = 0;
+		
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				if (args[index].equals("-s") && (index + 1 < args.length))
+					stateNumber = Integer.parseInt(args[++index]);
+				else if (args[index].equals("-t") && (index + 1 < args.length))
+				{
+					String[] parts = args[++index].split(",");
+					threads = new int[parts.length];
+					for (int part = 0; part < parts.length; part += 1)
+						threads[part] = Integer.parseInt(parts[part]);
+				}
+				else if (args[index].equals("-b") && (index + 1 < args.length))
+					blockSize = Math.multiplyExact(Integer.parseInt(args[++index]), 1024);
+				else
+					break;
+			}
+		}
+		catch (NumberFormatException | ArithmeticException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			return;
+		}
+		
+		if ((index == args.length) || (blockSize <= 0))
+		{
+			printUsage();
+			return;
+		}
+		
+		boolean passed = true;
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				File file = new File(args[index]);
+				if (file.isDirectory())
+				{
+					for (File child : file.listFiles((child) -> child.isFile()))
+						passed &= benchmark(child, stateNumber, threads, blockSize);
+				}
+				else
+					passed &= benchmark(file, stateNumber, threads, blockSize);
+			}
+		}
+		catch (IOException | IllegalArgumentException | ExecutionException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			passed = false;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			passed = false;
+		}
+		
+		if (!passed)
+			System.exit(1);
+	}
+}
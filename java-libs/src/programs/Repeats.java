@@ -0,0 +1,110 @@
+package programs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import compression.SuffixArray;
+import compression.SuffixArray.Repeat;
+import library.FileTools;
+import library.Tools;
+import library.io.ReadMode;
+
+public class Repeats
+{
+	public static final int defaultCount = 10;
+	public static final int defaultMinLength = 4;
+	public static final int previewLength = 32;
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-k COUNT] [-m MIN_LENGTH] [FILE]...");
+	}
+	
+	public static String getPreview(ByteBuffer input, int position, int length)
+	{
+		StringBuilder builder = new StringBuilder();
+		for (int index = 0; index < Math.min(length, previewLength); index += 1)
+		{
+			int value = input.get(input.position() + position + index) & 0xFF;
+			if ((value >= 0x20) && (value < 0x7F))
+				builder.append((char)value);
+			else
+				builder.append(String.format("\\x%02x", value));
+		}
+		if (length > previewLength)
+			builder.append("...");
+		return builder.toString();
+	}
+	
+	public static void printRepeats(File file, int count, int minLength) throws IOException
+	{
+		ByteBuffer input = FileTools.read(file.toPath(), ReadMode.NON_DIRECT_BUFFER);
+		if (input == null)
+			input = ByteBuffer.allocate(0);
+		
+		long time = System.nanoTime();
+		SuffixArray suffixArray = new SuffixArray(input);
+		long buildTime = System.nanoTime() - time;
+		
+		time = System.nanoTime();
+		Repeat[] repeats = suffixArray.getLongestRepeats(count, minLength);
+		long repeatsTime = System.nanoTime() - time;
+		
+		System.out.printf("file: %s, size: %d, suffix array: %.1f ms, repeats: %.1f ms%n", file.getName(), input.remaining(),
+				buildTime / 1e6, repeatsTime / 1e6);
+		for (Repeat repeat : repeats)
+			System.out.println("  " + repeat + ", \"" + getPreview(input, repeat.position, repeat.length) + "\"");
+	}
+	
+	public static void main(String[] args)
+	{
+		int count = defaultCount;
+		int minLength = defaultMinLength;
+		int index = 0;
+		
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				if (args[index].equals("-k") && (index + 1 < args.length))
+					count = Integer.parseInt(args[++index]);
+				else if (args[index].equals("-m") && (index + 1 < args.length))
+					minLength = Integer.parseInt(args[++index]);
+				else
+					break;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			return;
+		}
+		
+		if ((index == args.length) || (count <= 0) || (minLength <= 0))
+		{
+			printUsage();
+			return;
+		}
+		
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				File file = new File(args[index]);
+				if (file.isDirectory())
+				{
+					for (File child : file.listFiles((child) -> child.isFile()))
+						printRepeats(child, count, minLength);
+				}
+				else
+					printRepeats(file, count, minLength);
+			}
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
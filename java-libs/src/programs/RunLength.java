@@ -0,0 +1,99 @@
+package programs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import compression.RunLengthCodec;
+import compression.RunLengthCodec.EncodeWriter;
+import compression.RunLengthCodec.RunStatistics;
+import library.Tools;
+import library.io.ReadMode;
+
+public class RunLength
+{
+	public static final int decodeBufferSize = 1 << 20;
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " c [-s] INPUT OUTPUT");
+		System.out.println("       " + Tools.getProgramName() + " x INPUT OUTPUT");
+	}
+	
+	public static double getSpeed(long bytes, long nanoTime)
+	{
+		return (bytes / (1024.0 * 1024.0)) / (Math.max(nanoTime, 1) / 1e9);
+	}
+	
+	public static void printStatistics(RunStatistics statistics)
+	{
+		System.out.printf("runs: %d, run bytes: %d (%.1f%%)%n", statistics.runCount, statistics.runBytes,
+				statistics.runBytes * 100.0 / Math.max(statistics.totalBytes, 1));
+		
+		for (int bucket = 1; bucket < Long.SIZE; bucket += 1)
+			if (statistics.lengthRunCounts[bucket] != 0)
+				System.out.printf("length %d - %d: %d runs, %d bytes%n", 1L << bucket, (2L << bucket) - 1,
+						statistics.lengthRunCounts[bucket], statistics.lengthRunBytes[bucket]);
+		
+		for (int value = 0; value < 256; value += 1)
+			if (statistics.valueRunBytes[value] * 100 >= statistics.runBytes && statistics.valueRunCounts[value] != 0)
+				System.out.printf("value %02x: %d runs, %d bytes%n", value, statistics.valueRunCounts[value], statistics.valueRunBytes[value]);
+	}
+	
+	public static void encode(String inputPath, String outputPath, boolean printStatistics) throws IOException
+	{
+		try (FileChannel input = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(Paths.get(outputPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			RunStatistics statistics = new RunStatistics();
+			EncodeWriter writer = new EncodeWriter(output, statistics);
+			
+			long time = System.nanoTime();
+			writer.readFileChannel(input, ReadMode.DIRECT_BUFFER, false);
+			time = System.nanoTime() - time;
+			
+			System.out.printf("size: %d, encoded: %d (%.1f%%), speed: %.1f MiB/s%n", input.size(), writer.bytes,
+					writer.bytes * 100.0 / Math.max(input.size(), 1), getSpeed(input.size(), time));
+			if (printStatistics)
+				printStatistics(statistics);
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+	}
+	
+	public static void decode(String inputPath, String outputPath) throws IOException
+	{
+		try (FileChannel input = FileChannel.open(Paths.get(inputPath), StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(Paths.get(outputPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			long time = System.nanoTime();
+			long size = RunLengthCodec.decode(input, output, decodeBufferSize);
+			time = System.nanoTime() - time;
+			
+			System.out.printf("size: %d, speed: %.1f MiB/s%n", size, getSpeed(size, time));
+		}
+	}
+	
+	public static void main(String[] args)
+	{
+		try
+		{
+			if ((args.length == 3) && args[0].equals("c"))
+				encode(args[1], args[2], false);
+			else if ((args.length == 4) && args[0].equals("c") && args[1].equals("-s"))
+				encode(args[2], args[3], true);
+			else if ((args.length == 3) && args[0].equals("x"))
+				decode(args[1], args[2]);
+			else
+				printUsage();
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package programs;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import compression.OffHeapCountBuffer;
+import compression.OffHeapCountBuffer.OffHeapCountReader;
+import library.Tools;
+import library.io.ReadMode;
+
+// counts symbols of up to 36 bits in an off-heap table. with -o the table is kept in a file, an existing table file is
+// opened again and the files are added to its counts.
+
+public class SymbolCount
+{
+	public static final int defaultDataBits = 16;
+	
+	public static void printUsage()
+	{
+		System.out.println("usage: " + Tools.getProgramName() + " [-b DATA_BITS] [-o TABLE_FILE] FILE...");
+	}
+	
+	public static OffHeapCountBuffer openTable(Path tablePath, int dataBits) throws IOException
+	{
+		if (tablePath == null)
+			return OffHeapCountBuffer.allocate(dataBits);
+		
+		if (Files.exists(tablePath))
+		{
+			OffHeapCountBuffer table = OffHeapCountBuffer.open(tablePath);
+			if (table.dataBits != dataBits)
+			{
+				table.close();
+				throw new IllegalArgumentException("table data bits: " + table.dataBits + ", not " + dataBits);
+			}
+			return table;
+		}
+		return OffHeapCountBuffer.create(tablePath, dataBits);
+	}
+	
+	public static void main(String[] args)
+	{
+		int dataBits = defaultDataBits;
+		Path tablePath = null;
+		int index = 0;
+		
+		try
+		{
+			for (; index < args.length; index += 1)
+			{
+				if (args[index].equals("-b") && (index + 1 < args.length))
+					dataBits = Integer.parseInt(args[++index]);
+				else if (args[index].equals("-o") && (index + 1 < args.length))
+					tablePath = Path.of(args[++index]);
+				else
+					break;
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("error: invalid number: " + e.getMessage());
+			return;
+		}
+		
+		if ((index == args.length) || (dataBits < 1) || (dataBits > OffHeapCountBuffer.maxDataBits))
+		{
+			printUsage();
+			return;
+		}
+		
+		try (OffHeapCountBuffer table = openTable(tablePath, dataBits))
+		{
+			long previousTotal = table.getTotalCount();
+			long time = System.nanoTime();
+			long bytes = 0;
+			
+			for (; index < args.length; index += 1)
+			{
+				OffHeapCountReader reader = new OffHeapCountReader(table);
+				try (FileChannel channel = FileChannel.open(Path.of(args[index])))
+				{
+					reader.readFileChannel(channel, ReadMode.DIRECT_BUFFER, false);
+				}
+				bytes += reader.bytes;
+			}
+			time = System.nanoTime() - time;
+			
+			System.out.printf("data bits: %d, read: %d bytes, %.1f MiB/s%n", dataBits, bytes, (bytes / 1048576.0) / (time / 1e9));
+			System.out.printf("symbols: %d (%d new), distinct: %d, entropy: %.4f bits%n", table.getTotalCount(),
+					table.getTotalCount() - previousTotal, table.getDistinctCount(), table.getEntropy());
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			System.err.println("error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -62,12 +62,26 @@ public class CompressMain
 		return result;
 	}
 	
+	// four interleaved tables, so a run of one byte does not wait on the store of the same counter
+	
 	public static int[] countEachByte(byte[] buffer)
 	{
+		int[] tables = new int[4 * 256];
+		int index = 0;
+		
+		for (; index + 4 <= buffer.length; index += 4)
+		{
+			tables[(int)buffer[index] & 0xFF] += 1;
+			tables[256 + ((int)buffer[index + 1] & 0xFF)] += 1;
+			tables[512 + ((int)buffer[index + 2] & 0xFF)] += 1;
+			tables[768 + ((int)buffer[index + 3] & 0xFF)] += 1;
+		}
+		for (; index < buffer.length; index += 1)
+			tables[(int)buffer[index] & 0xFF] += 1;
+		
 		int[] counts = new int[256];
-		Arrays.fill(counts, 0);
-		for (int index = 0; index < buffer.length; index += 1)
-			counts[(int)buffer[index] & 0xFF] += 1;
+		for (int value = 0; value < 256; value += 1)
+			counts[value] = tables[value] + tables[256 + value] + tables[512 + value] + tables[768 + value];
 		return counts;
 	}
 	